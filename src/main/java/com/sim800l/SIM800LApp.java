@@ -2,11 +2,24 @@ package com.sim800l;
 
 import com.fazecast.jSerialComm.SerialPort;
 import com.sim800l.model.ChatItem;
+import com.sim800l.model.IncomingSms;
 import com.sim800l.model.MessageItem;
+import com.sim800l.model.SearchHit;
+import com.sim800l.serial.BroadcastEngine;
+import com.sim800l.serial.OutboundMessage;
 import com.sim800l.serial.SerialPortManager;
+import com.sim800l.ui.ChatList;
 import com.sim800l.ui.ChatListCell;
+import com.sim800l.ui.HistoryPager;
+import com.sim800l.ui.MessageCell;
+import com.sim800l.ui.SearchHitCell;
 import com.sim800l.ui.Theme;
+import com.sim800l.ui.UpdatePump;
+import com.sim800l.util.ContactIndex;
+import com.sim800l.util.EncodingPlanner;
 import com.sim800l.util.NotificationManager;
+import com.sim800l.util.PhoneNumbers;
+import com.sim800l.util.SmsEncoding;
 import javafx.application.Application;
 import javafx.application.Platform;
 import javafx.collections.FXCollections;
@@ -18,9 +31,15 @@ import javafx.scene.control.*;
 import javafx.scene.layout.*;
 import javafx.scene.text.Font;
 import javafx.scene.text.FontWeight;
+import javafx.stage.FileChooser;
 import javafx.stage.Stage;
 
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
 import java.time.LocalDateTime;
+import java.time.ZoneId;
 import java.time.format.DateTimeFormatter;
 import java.util.*;
 
@@ -31,13 +50,28 @@ public class SIM800LApp extends Application {
     private Button testConnectionButton;
     private Label statusLabel;
     private ListView<ChatItem> chatListView;
-    private VBox messageArea;
-    private ScrollPane messageScrollPane;
+    private TextField searchField;
+    private ListView<SearchHit> searchResultsView;
+    private ListView<MessageItem> messageList;
+    // Messages of the open chat, as shown
+    private final ObservableList<MessageItem> messageItems = FXCollections.observableArrayList();
+    // Serial events, applied on the FX thread a batch at a time
+    private final UpdatePump<IncomingSms> receivedPump = new UpdatePump<>(this::applyReceived);
+    private final UpdatePump<OutboundMessage> sentPump = new UpdatePump<>(this::applySent);
+    // Pages of the open chat's history in messageItems
+    private HistoryPager historyPager;
+    // Chat index of the message marked by a search hit, -1 for none
+    private int highlightedMessage = -1;
     private TextField messageInput;
     private Button sendButton;
-    private ObservableList<ChatItem> chatItems;
+    // An interactive send is waiting for the modem
+    private boolean sending;
+    private Label segmentInfoLabel;
+    private final EncodingPlanner encodingPlanner = new EncodingPlanner();
+    private ChatList chatItems;
     private Map<String, ChatItem> chatMap;
     private Map<String, com.sim800l.model.Contact> contacts;
+    private ContactIndex contactIndex;
     private String currentPhoneNumber;
     private Button themeButton;
     private Label chatHeaderLabel;
@@ -46,18 +80,20 @@ public class SIM800LApp extends Application {
     private Stage contactsManagerStage = null;
     private Stage addContactDialogStage = null;
     private Stage newMessageDialogStage = null;
+    private Stage broadcastDialogStage = null;
+    private Stage transferDialogStage = null;
 
     @Override
     public void start(Stage primaryStage) {
         serialManager = new SerialPortManager();
-        chatItems = FXCollections.observableArrayList();
         
         // Load saved data
         chatMap = com.sim800l.util.DataManager.loadChats();
         contacts = com.sim800l.util.DataManager.loadContacts();
+        contactIndex = new ContactIndex(contacts.values());
         
-        // Populate chat list from loaded data
-        chatItems.addAll(chatMap.values());
+        // Populate chat list from loaded data, most recent first
+        chatItems = new ChatList(chatMap.values());
         
         primaryStage.setTitle("SMS Manager - SIM800L");
         
@@ -85,16 +121,68 @@ public class SIM800LApp extends Application {
         // Refresh ports on startup
         refreshPorts();
         
-        // Setup message listener
-        serialManager.setMessageReceivedCallback((phoneNumber, message) -> {
-            Platform.runLater(() -> {
-                addOrUpdateChat(phoneNumber);
-                addMessage(phoneNumber, message, LocalDateTime.now(), false);
-                if (!phoneNumber.equals(currentPhoneNumber)) {
-                    NotificationManager.show("New SMS from " + phoneNumber, message);
-                }
-            });
-        });
+        // Setup message listener; bursts are applied a batch at a time
+        serialManager.setMessageReceivedCallback(receivedPump::submit);
+        
+        // Queued (broadcast) messages show up in their chats once sent
+        serialManager.setMessageSentCallback(sentPump::submit);
+    }
+    
+    /**
+     * Received SMS collected by receivedPump: one chat list reorder, one
+     * scroll and one notification for the whole batch
+     */
+    private void applyReceived(List<IncomingSms> batch) {
+        List<ChatItem> touched = new ArrayList<>(batch.size());
+        boolean appended = false;
+        Set<String> senders = new LinkedHashSet<>();
+        int unseen = 0;
+        String lastUnseen = null;
+        for (IncomingSms sms : batch) {
+            String phoneNumber = PhoneNumbers.canonical(sms.getSender());
+            // Network (SCTS) time converted to local time
+            LocalDateTime timestamp = sms.getTimestamp()
+                .atZoneSameInstant(ZoneId.systemDefault()).toLocalDateTime();
+            MessageItem msgItem = new MessageItem(sms.getText(), false, timestamp);
+            ChatItem chat = recordMessage(phoneNumber, msgItem);
+            touched.add(chat);
+            appended |= showMessage(chat, msgItem);
+            if (!phoneNumber.equals(currentPhoneNumber)) {
+                senders.add(phoneNumber);
+                unseen++;
+                lastUnseen = sms.getText();
+            }
+        }
+        chatItems.touchAll(touched);
+        if (appended) {
+            messageList.scrollTo(messageItems.size() - 1);
+        }
+        
+        if (unseen == 1) {
+            NotificationManager.show("New SMS from " + senders.iterator().next(), lastUnseen);
+        } else if (unseen > 1) {
+            List<String> names = new ArrayList<>(senders);
+            String from = String.join(", ", names.subList(0, Math.min(3, names.size())));
+            if (names.size() > 3) {
+                from += " and " + (names.size() - 3) + " more";
+            }
+            NotificationManager.show(unseen + " new SMS", "From " + from);
+        }
+    }
+    
+    private void applySent(List<OutboundMessage> batch) {
+        List<ChatItem> touched = new ArrayList<>(batch.size());
+        boolean appended = false;
+        for (OutboundMessage sent : batch) {
+            MessageItem msgItem = new MessageItem(sent.getText(), true, LocalDateTime.now());
+            ChatItem chat = recordMessage(PhoneNumbers.canonical(sent.getPhoneNumber()), msgItem);
+            touched.add(chat);
+            appended |= showMessage(chat, msgItem);
+        }
+        chatItems.touchAll(touched);
+        if (appended) {
+            messageList.scrollTo(messageItems.size() - 1);
+        }
     }
 
     private VBox createSidebar() {
@@ -170,6 +258,18 @@ public class SIM800LApp extends Application {
         newMessageButton.setMaxWidth(Double.MAX_VALUE);
         newMessageButton.setOnAction(e -> showNewMessageDialog());
         
+        // Broadcast button
+        Button broadcastButton = new Button("Broadcast");
+        broadcastButton.setFont(Font.font("Inter", FontWeight.NORMAL, 11));
+        broadcastButton.setMaxWidth(Double.MAX_VALUE);
+        broadcastButton.setOnAction(e -> showBroadcastDialog());
+        
+        // Import / export button
+        Button transferButton = new Button("Import / Export");
+        transferButton.setFont(Font.font("Inter", FontWeight.NORMAL, 11));
+        transferButton.setMaxWidth(Double.MAX_VALUE);
+        transferButton.setOnAction(e -> showTransferDialog());
+        
         // Chat list
         Label chatsLabel = new Label("Chats");
         chatsLabel.setFont(Font.font("Inter", FontWeight.BOLD, 14));
@@ -200,12 +300,11 @@ public class SIM800LApp extends Application {
                     applyThemeToScene(confirm.getDialogPane().getScene());
                     
                     if (confirm.showAndWait().get() == ButtonType.OK) {
-                        chatMap.remove(selectedChat.getPhoneNumber());
+                        com.sim800l.util.DataManager.deleteChat(selectedChat.getPhoneNumber(), chatMap);
                         chatItems.remove(selectedChat);
-                        com.sim800l.util.DataManager.saveChats(chatMap);
                         if (selectedChat.getPhoneNumber().equals(currentPhoneNumber)) {
                             currentPhoneNumber = null;
-                            messageArea.getChildren().clear();
+                            historyPager.close();
                             sendButton.setDisable(true);
                             chatHeaderLabel.setText("Select a chat");
                         }
@@ -219,6 +318,30 @@ public class SIM800LApp extends Application {
         
         VBox.setVgrow(chatListView, Priority.ALWAYS);
         
+        // Message search, results replace the chat list while there is a query
+        searchField = new TextField();
+        searchField.setPromptText("Search messages");
+        searchField.setFont(Font.font("Inter", 12));
+        searchField.textProperty().addListener((obs, oldVal, newVal) -> updateSearch(newVal));
+        searchField.setOnKeyPressed(e -> {
+            if (e.getCode() == javafx.scene.input.KeyCode.ESCAPE) {
+                searchField.clear();
+            }
+        });
+        
+        searchResultsView = new ListView<>();
+        searchResultsView.setCellFactory(param -> new SearchHitCell(this::getDisplayName));
+        searchResultsView.setPlaceholder(new Label("No messages found"));
+        searchResultsView.setOnMouseClicked(e -> {
+            SearchHit hit = searchResultsView.getSelectionModel().getSelectedItem();
+            if (hit != null) {
+                openSearchHit(hit);
+            }
+        });
+        searchResultsView.setVisible(false);
+        searchResultsView.setManaged(false);
+        VBox.setVgrow(searchResultsView, Priority.ALWAYS);
+        
         sidebar.getChildren().addAll(
             titleLabel,
             connectionPanel,
@@ -226,8 +349,12 @@ public class SIM800LApp extends Application {
             logButton,
             contactsButton,
             newMessageButton,
+            broadcastButton,
+            transferButton,
             chatsLabel,
-            chatListView
+            searchField,
+            chatListView,
+            searchResultsView
         );
         
         return sidebar;
@@ -242,17 +369,36 @@ public class SIM800LApp extends Application {
         chatHeaderLabel.setFont(Font.font("Inter", FontWeight.BOLD, 16));
         chatHeaderLabel.getStyleClass().add("chat-title");
         
-        messageArea = new VBox(10);
-        messageArea.setPadding(new Insets(10));
-        messageArea.getStyleClass().add("message-area");
-        
-        messageScrollPane = new ScrollPane(messageArea);
-        messageScrollPane.setFitToWidth(true);
-        messageScrollPane.setHbarPolicy(ScrollPane.ScrollBarPolicy.NEVER);
-        messageScrollPane.setVbarPolicy(ScrollPane.ScrollBarPolicy.AS_NEEDED);
-        VBox.setVgrow(messageScrollPane, Priority.ALWAYS);
+        // Virtualized: only the visible messages have bubbles, reused while scrolling
+        messageList = new ListView<>(messageItems);
+        messageList.getStyleClass().add("message-area");
+        messageList.setCellFactory(param -> new MessageCell(index -> historyPager.toChatIndex(index) == highlightedMessage));
+        VBox.setVgrow(messageList, Priority.ALWAYS);
+        historyPager = new HistoryPager(messageList);
+        
+        // One context menu for all messages, acting on the one right-clicked
+        ContextMenu messageMenu = new ContextMenu();
+        MenuItem copyItem = new MenuItem("Copy");
+        copyItem.setOnAction(e -> {
+            MessageItem selected = messageList.getSelectionModel().getSelectedItem();
+            if (selected != null) {
+                javafx.scene.input.Clipboard clipboard = javafx.scene.input.Clipboard.getSystemClipboard();
+                javafx.scene.input.ClipboardContent content = new javafx.scene.input.ClipboardContent();
+                content.putString(selected.getText());
+                clipboard.setContent(content);
+            }
+        });
+        MenuItem deleteItem = new MenuItem("Delete");
+        deleteItem.setOnAction(e -> deleteMessage(messageList.getSelectionModel().getSelectedIndex()));
+        messageMenu.getItems().addAll(copyItem, deleteItem);
+        messageMenu.setOnShowing(e -> {
+            boolean none = messageList.getSelectionModel().isEmpty();
+            copyItem.setDisable(none);
+            deleteItem.setDisable(none);
+        });
+        messageList.setContextMenu(messageMenu);
         
-        centerPanel.getChildren().addAll(chatHeaderLabel, messageScrollPane);
+        centerPanel.getChildren().addAll(chatHeaderLabel, messageList);
         
         return centerPanel;
     }
@@ -266,20 +412,49 @@ public class SIM800LApp extends Application {
         messageInput = new TextField();
         messageInput.setPromptText("Type a message...");
         messageInput.setFont(Font.font("Inter", 13));
-        messageInput.setStyle("-fx-text-fill: " + Theme.inputText() + "; -fx-prompt-text-fill: " + Theme.mutedText() + ";");
+        messageInput.getStyleClass().add("input-field");
         HBox.setHgrow(messageInput, Priority.ALWAYS);
         messageInput.setOnAction(e -> sendMessage());
         
+        // Live segment/encoding info, updated from each edit instead of rescanning
+        segmentInfoLabel = new Label();
+        segmentInfoLabel.setFont(Font.font("Inter", 11));
+        segmentInfoLabel.setMinWidth(Region.USE_PREF_SIZE);
+        messageInput.setTextFormatter(new TextFormatter<String>(change -> {
+            if (change.isContentChange()) {
+                String removed = change.getControlText().substring(change.getRangeStart(), change.getRangeEnd());
+                encodingPlanner.replace(removed, change.getText());
+            }
+            return change;
+        }));
+        // Once the edit is applied, the planner reads the ends of the new text
+        messageInput.textProperty().addListener((obs, oldText, newText) -> updateSegmentInfo());
+        updateSegmentInfo();
+        
         sendButton = new Button("Send");
         sendButton.setFont(Font.font("Inter", FontWeight.BOLD, 13));
         sendButton.setPrefWidth(80);
         sendButton.setDisable(true);
         sendButton.setOnAction(e -> sendMessage());
         
-        inputArea.getChildren().addAll(messageInput, sendButton);
+        inputArea.getChildren().addAll(messageInput, segmentInfoLabel, sendButton);
         
         return inputArea;
     }
+    
+    private void updateSegmentInfo() {
+        String text = messageInput.getText();
+        int length = encodingPlanner.length(text);
+        if (length == 0) {
+            segmentInfoLabel.setText("");
+            return;
+        }
+        SmsEncoding plan = encodingPlanner.plan(text);
+        segmentInfoLabel.setText(length + " chars, " + plan.segments +
+            (plan.segments == 1 ? " segment, " : " segments, ") + "encoding " + plan.describe());
+        segmentInfoLabel.getStyleClass().removeAll("error-label", "muted-label");
+        segmentInfoLabel.getStyleClass().add(plan.segments > SmsEncoding.MAX_SEGMENTS ? "error-label" : "muted-label");
+    }
 
     private void refreshPorts() {
         portComboBox.getItems().clear();
@@ -298,7 +473,7 @@ public class SIM800LApp extends Application {
             connectButton.setText("Connect");
             testConnectionButton.setDisable(true);
             statusLabel.setText("Disconnected");
-            statusLabel.setStyle("-fx-text-fill: #999;");
+            setStatusStyle("status-idle");
         } else {
             String selectedPort = portComboBox.getValue();
             if (selectedPort == null || selectedPort.isEmpty()) {
@@ -311,32 +486,55 @@ public class SIM800LApp extends Application {
                 connectButton.setText("Disconnect");
                 testConnectionButton.setDisable(false);
                 statusLabel.setText("Connected");
-                statusLabel.setStyle("-fx-text-fill: #4CAF50;");
+                setStatusStyle("status-ok");
             } catch (Exception e) {
                 showAlert("Connection failed: " + e.getMessage());
                 statusLabel.setText("Connection failed");
-                statusLabel.setStyle("-fx-text-fill: #f44336;");
+                setStatusStyle("status-error");
             }
         }
     }
 
+    private void setStatusStyle(String styleClass) {
+        statusLabel.getStyleClass().removeAll("status-idle", "status-ok", "status-error", "status-warning");
+        statusLabel.getStyleClass().add(styleClass);
+    }
+
     private void testConnection() {
-        try {
-            boolean success = serialManager.testConnection();
-            if (success) {
-                showInfo("Connection test successful!");
-                statusLabel.setText("Connected - Test OK");
-                statusLabel.setStyle("-fx-text-fill: #4CAF50;");
-            } else {
-                showAlert("Connection test failed - No response");
-                statusLabel.setText("Connected - Test Failed");
-                statusLabel.setStyle("-fx-text-fill: #FFA500;");
+        testConnectionButton.setDisable(true);
+        // Off the FX thread: the port may be busy with a queued broadcast message
+        Thread testThread = new Thread(() -> {
+            Runnable result;
+            try {
+                boolean success = serialManager.testConnection();
+                if (success) {
+                    result = () -> {
+                        showInfo("Connection test successful!");
+                        statusLabel.setText("Connected - Test OK");
+                        setStatusStyle("status-ok");
+                    };
+                } else {
+                    result = () -> {
+                        showAlert("Connection test failed - No response");
+                        statusLabel.setText("Connected - Test Failed");
+                        setStatusStyle("status-warning");
+                    };
+                }
+            } catch (Exception e) {
+                result = () -> {
+                    showAlert("Test failed: " + e.getMessage());
+                    statusLabel.setText("Connected - Test Error");
+                    setStatusStyle("status-error");
+                };
             }
-        } catch (Exception e) {
-            showAlert("Test failed: " + e.getMessage());
-            statusLabel.setText("Connected - Test Error");
-            statusLabel.setStyle("-fx-text-fill: #f44336;");
-        }
+            Runnable show = result;
+            Platform.runLater(() -> {
+                testConnectionButton.setDisable(!serialManager.isConnected());
+                show.run();
+            });
+        }, "connection-test");
+        testThread.setDaemon(true);
+        testThread.start();
     }
 
     private void sendMessage() {
@@ -354,126 +552,175 @@ public class SIM800LApp extends Application {
             showAlert("Not connected to serial port");
             return;
         }
-        
-        try {
-            serialManager.sendSMS(currentPhoneNumber, message);
-            LocalDateTime timestamp = LocalDateTime.now();
-            addMessage(currentPhoneNumber, message, timestamp, true);
-            messageInput.clear();
-            showInfo("Message sent successfully!");
-        } catch (Exception e) {
-            showAlert("Failed to send message: " + e.getMessage());
+        if (sending) {
+            return;
         }
+        
+        String phoneNumber = currentPhoneNumber;
+        sending = true;
+        sendButton.setDisable(true);
+        // Off the FX thread: the port may be busy with a queued broadcast message
+        Thread sendThread = new Thread(() -> {
+            Runnable done;
+            try {
+                serialManager.sendSMS(phoneNumber, message);
+                LocalDateTime timestamp = LocalDateTime.now();
+                done = () -> {
+                    addMessage(phoneNumber, message, timestamp, true);
+                    // Unless it was edited meanwhile
+                    if (messageInput.getText().trim().equals(message)) {
+                        messageInput.clear();
+                    }
+                    showInfo("Message sent successfully!");
+                };
+            } catch (Exception e) {
+                done = () -> showAlert("Failed to send message: " + e.getMessage());
+            }
+            Runnable finish = done;
+            Platform.runLater(() -> {
+                sending = false;
+                sendButton.setDisable(currentPhoneNumber == null);
+                finish.run();
+            });
+        }, "sms-send");
+        sendThread.setDaemon(true);
+        sendThread.start();
     }
 
     private void addOrUpdateChat(String phoneNumber) {
         ChatItem chat = chatMap.get(phoneNumber);
         if (chat == null) {
-            chat = new ChatItem(phoneNumber);
-            chatMap.put(phoneNumber, chat);
-            chatItems.add(0, chat);
+            chat = newChat(phoneNumber);
+            chatItems.touch(chat);
         }
     }
 
+    // The history stays in the store and is paged into the view, see HistoryPager
+    private ChatItem newChat(String phoneNumber) {
+        ChatItem chat = new ChatItem(phoneNumber);
+        chatMap.put(phoneNumber, chat);
+        return chat;
+    }
+
     private void addMessage(String phoneNumber, String message, LocalDateTime timestamp, boolean isSent) {
+        MessageItem msgItem = new MessageItem(message, isSent, timestamp);
+        ChatItem chat = recordMessage(phoneNumber, msgItem);
+        
+        // Move chat to top
+        chatItems.touch(chat);
+        
+        if (showMessage(chat, msgItem)) {
+            messageList.scrollTo(messageItems.size() - 1);
+        }
+    }
+    
+    /**
+     * Add a message to its chat, creating the chat if needed, and journal
+     * it; the chat list is left to the caller
+     */
+    private ChatItem recordMessage(String phoneNumber, MessageItem msgItem) {
         ChatItem chat = chatMap.get(phoneNumber);
         if (chat == null) {
-            chat = new ChatItem(phoneNumber);
-            chatMap.put(phoneNumber, chat);
-            chatItems.add(0, chat);
+            chat = newChat(phoneNumber);
         }
-        
-        MessageItem msgItem = new MessageItem(message, isSent);
         chat.addMessage(msgItem);
         
-        // Move chat to top
-        chatItems.remove(chat);
-        chatItems.add(0, chat);
-        
-        // Save chats
-        com.sim800l.util.DataManager.saveChats(chatMap);
-        
-        if (phoneNumber.equals(currentPhoneNumber)) {
-            loadChat(phoneNumber);
-            // Auto-scroll to bottom after message is added
-            Platform.runLater(() -> {
-                messageScrollPane.setVvalue(1.0);
-                messageScrollPane.layout();
-            });
+        // Journal the new message
+        com.sim800l.util.DataManager.appendMessage(chat, msgItem);
+        return chat;
+    }
+    
+    /**
+     * Show a message just recorded if its chat is open
+     *
+     * @return True if it was appended to the view, which should then scroll to the end
+     */
+    private boolean showMessage(ChatItem chat, MessageItem msgItem) {
+        if (!chat.getPhoneNumber().equals(currentPhoneNumber)) {
+            return false;
         }
+        if (historyPager.append(msgItem)) {
+            return true;
+        }
+        if (msgItem.isOutgoing()) {
+            // Scrolled back in the history, jump to the newest page
+            historyPager.open(chat);
+        }
+        return false;
     }
 
     private void loadChat(String phoneNumber) {
         currentPhoneNumber = phoneNumber;
-        sendButton.setDisable(false);
-        messageArea.getChildren().clear();
+        sendButton.setDisable(sending);
+        highlightedMessage = -1;
         
         // Update header with contact name or phone number
         chatHeaderLabel.setText(getDisplayName(phoneNumber));
         
         ChatItem chat = chatMap.get(phoneNumber);
         if (chat == null) {
+            historyPager.close();
             return;
         }
         
-        List<MessageItem> messages = chat.getMessages();
-        
-        for (MessageItem msg : messages) {
-            VBox messageBox = new VBox(4);
-            messageBox.getStyleClass().add("message-box");
-            messageBox.setMaxWidth(500);
-            
-            // Use Label instead of TextField for better emoji support
-            Label messageLabel = new Label(msg.getText());
-            messageLabel.setFont(Font.font("System", 13));
-            messageLabel.getStyleClass().add("message-text");
-            messageLabel.setWrapText(true);
-            messageLabel.setMaxWidth(480);
-            
-            Label timeLabel = new Label(msg.getTime());
-            timeLabel.setFont(Font.font("Inter", 10));
-            timeLabel.getStyleClass().add("time-label");
-            
-            // Context menu for copy/delete
-            ContextMenu contextMenu = new ContextMenu();
-            MenuItem copyItem = new MenuItem("Copy");
-            copyItem.setOnAction(e -> {
-                javafx.scene.input.Clipboard clipboard = javafx.scene.input.Clipboard.getSystemClipboard();
-                javafx.scene.input.ClipboardContent content = new javafx.scene.input.ClipboardContent();
-                content.putString(msg.getText());
-                clipboard.setContent(content);
-            });
-            MenuItem deleteItem = new MenuItem("Delete");
-            deleteItem.setOnAction(e -> {
-                chat.getMessages().remove(msg);
-                com.sim800l.util.DataManager.saveChats(chatMap);
-                loadChat(phoneNumber);
-            });
-            contextMenu.getItems().addAll(copyItem, deleteItem);
-            messageBox.setOnContextMenuRequested(event -> {
-                contextMenu.show(messageBox, event.getScreenX(), event.getScreenY());
-            });
-            
-            messageBox.getChildren().addAll(messageLabel, timeLabel);
-            
-            HBox messageRow = new HBox();
-            if (msg.isOutgoing()) {
-                messageRow.setAlignment(Pos.CENTER_RIGHT);
-                messageBox.getStyleClass().add("sent-message");
-                messageBox.setStyle("-fx-background-color: " + Theme.outgoingBubble() + "; -fx-background-radius: 12; -fx-padding: 10;");
-                messageLabel.setStyle("-fx-text-fill: white;");
-            } else {
-                messageRow.setAlignment(Pos.CENTER_LEFT);
-                messageBox.getStyleClass().add("received-message");
-                messageBox.setStyle("-fx-background-color: " + Theme.incomingBubble() + "; -fx-background-radius: 12; -fx-padding: 10;");
-                messageLabel.setStyle("-fx-text-fill: " + Theme.incomingBubbleText() + ";");
-            }
-            messageRow.getChildren().add(messageBox);
-            
-            messageArea.getChildren().add(messageRow);
+        // The last page only, older ones are read while scrolling up
+        historyPager.open(chat);
+    }
+    
+    private void deleteMessage(int viewIndex) {
+        ChatItem chat = chatMap.get(currentPhoneNumber);
+        int index = historyPager.toChatIndex(viewIndex);
+        if (chat == null || viewIndex < 0 || index >= chat.getMessageCount()) {
+            return;
         }
+        // Also updates the chat's summary
+        com.sim800l.util.DataManager.deleteMessage(chat, index);
+        historyPager.remove(viewIndex);
+        if (highlightedMessage >= index) {
+            highlightedMessage = highlightedMessage == index ? -1 : highlightedMessage - 1;
+        }
+        chatListView.refresh();
+    }
+
+    private void updateSearch(String query) {
+        boolean searching = query != null && !query.trim().isEmpty();
+        if (searching) {
+            searchResultsView.getItems().setAll(com.sim800l.util.DataManager.searchMessages(query, 100));
+        } else {
+            searchResultsView.getItems().clear();
+        }
+        searchResultsView.setVisible(searching);
+        searchResultsView.setManaged(searching);
+        chatListView.setVisible(!searching);
+        chatListView.setManaged(!searching);
+    }
+
+    private void openSearchHit(SearchHit hit) {
+        ChatItem chat = chatMap.get(hit.getPhoneNumber());
+        if (chat == null) {
+            return;
+        }
+        searchField.clear();
+        if (chat == chatListView.getSelectionModel().getSelectedItem()) {
+            loadChat(chat.getPhoneNumber());
+        } else {
+            chatListView.getSelectionModel().select(chat);
+        }
+        chatListView.scrollTo(chat);
         
-        Platform.runLater(() -> messageScrollPane.setVvalue(1.0));
+        int index = hit.getMessageIndex();
+        if (index >= chat.getMessageCount()) {
+            return;
+        }
+        highlightedMessage = index;
+        int viewIndex = historyPager.toViewIndex(index);
+        if (viewIndex < 0) {
+            // Older than the last page
+            historyPager.openAt(chat, index);
+        } else {
+            messageList.scrollTo(viewIndex);
+        }
+        messageList.refresh();
     }
 
     private void showAlert(String message) {
@@ -516,9 +763,13 @@ public class SIM800LApp extends Application {
         logArea.setEditable(false);
         logArea.setFont(Font.font("Monospace", 12));
         logArea.setWrapText(false);
-        logArea.setStyle("-fx-cursor: text;"); // Make it selectable
+        logArea.getStyleClass().add("log-area"); // Make it selectable
         VBox.setVgrow(logArea, Priority.ALWAYS);
         
+        Label duplicatesLabel = new Label();
+        duplicatesLabel.setFont(Font.font("Inter", 11));
+        duplicatesLabel.setText("Duplicate SMS dropped: " + serialManager.getDuplicateCount());
+        
         // Update log every 500ms
         logUpdateTimeline = new javafx.animation.Timeline(
             new javafx.animation.KeyFrame(
@@ -527,6 +778,7 @@ public class SIM800LApp extends Application {
                     String logs = serialManager.getLogs();
                     logArea.setText(logs);
                     logArea.setScrollTop(Double.MAX_VALUE);
+                    duplicatesLabel.setText("Duplicate SMS dropped: " + serialManager.getDuplicateCount());
                 }
             )
         );
@@ -551,7 +803,7 @@ public class SIM800LApp extends Application {
         
         buttonBox.getChildren().addAll(clearButton, refreshButton);
         
-        root.getChildren().addAll(titleLabel, logArea, buttonBox);
+        root.getChildren().addAll(titleLabel, logArea, duplicatesLabel, buttonBox);
         
         Scene scene = new Scene(root, 700, 500);
         applyThemeToScene(scene);
@@ -569,20 +821,13 @@ public class SIM800LApp extends Application {
         logViewerStage.show();
     }
     
+    // One stylesheet swap, nodes are styled by their style classes
     private void applyThemeToScene(Scene scene) {
-        String css = generateThemeCSS();
-        scene.getRoot().setStyle(css);
-    }
-    
-    private String generateThemeCSS() {
-        return "-fx-base: " + Theme.primaryBg() + ";" +
-               "-fx-background: " + Theme.secondaryBg() + ";" +
-               "-fx-control-inner-background: " + Theme.tertiaryBg() + ";" +
-               "-fx-text-fill: " + Theme.primaryText() + ";";
+        scene.getStylesheets().setAll(Theme.stylesheet());
     }
     
     private String getDisplayName(String phoneNumber) {
-        com.sim800l.model.Contact contact = contacts.get(phoneNumber);
+        com.sim800l.model.Contact contact = contacts.get(PhoneNumbers.canonical(phoneNumber));
         return contact != null ? contact.getName() : phoneNumber;
     }
     
@@ -638,13 +883,14 @@ public class SIM800LApp extends Application {
             com.sim800l.model.Contact selected = contactsList.getSelectionModel().getSelectedItem();
             if (selected != null) {
                 contacts.remove(selected.getPhoneNumber());
+                contactIndex.remove(selected.getPhoneNumber());
                 com.sim800l.util.DataManager.saveContacts(contacts);
                 contactsList.getItems().remove(selected);
                 
                 // Update chat list if this contact has a chat
                 if (chatMap.containsKey(selected.getPhoneNumber())) {
                     chatMap.get(selected.getPhoneNumber()).setName(null);
-                    com.sim800l.util.DataManager.saveChats(chatMap);
+                    com.sim800l.util.DataManager.renameChat(chatMap.get(selected.getPhoneNumber()), null);
                     chatListView.refresh();
                     
                     // Update header if this chat is currently open
@@ -682,7 +928,7 @@ public class SIM800LApp extends Application {
         
         TextField phoneField = new TextField();
         phoneField.setPromptText("Phone Number");
-        phoneField.setStyle("-fx-text-fill: " + Theme.inputText() + "; -fx-prompt-text-fill: " + Theme.mutedText() + ";");
+        phoneField.getStyleClass().add("input-field");
         if (existingPhone != null) {
             phoneField.setText(existingPhone);
             phoneField.setEditable(false);
@@ -690,16 +936,16 @@ public class SIM800LApp extends Application {
         
         TextField nameField = new TextField();
         nameField.setPromptText("Name");
-        nameField.setStyle("-fx-text-fill: " + Theme.inputText() + "; -fx-prompt-text-fill: " + Theme.mutedText() + ";");
+        nameField.getStyleClass().add("input-field");
         
         TextField emailField = new TextField();
         emailField.setPromptText("Email (optional)");
-        emailField.setStyle("-fx-text-fill: " + Theme.inputText() + "; -fx-prompt-text-fill: " + Theme.mutedText() + ";");
+        emailField.getStyleClass().add("input-field");
         
         TextArea notesArea = new TextArea();
         notesArea.setPromptText("Notes (optional)");
         notesArea.setPrefRowCount(3);
-        notesArea.setStyle("-fx-text-fill: " + Theme.inputText() + "; -fx-prompt-text-fill: " + Theme.mutedText() + ";");
+        notesArea.getStyleClass().add("input-field");
         
         // Load existing contact data
         if (existingPhone != null && contacts.containsKey(existingPhone)) {
@@ -712,7 +958,7 @@ public class SIM800LApp extends Application {
         HBox buttonBox = new HBox(10);
         Button saveButton = new Button("Save");
         saveButton.setOnAction(e -> {
-            String phone = phoneField.getText().trim();
+            String phone = PhoneNumbers.canonical(phoneField.getText());
             String name = nameField.getText().trim();
             
             if (phone.isEmpty() || name.isEmpty()) {
@@ -725,12 +971,13 @@ public class SIM800LApp extends Application {
             contact.setNotes(notesArea.getText().trim());
             
             contacts.put(phone, contact);
+            contactIndex.add(contact);
             com.sim800l.util.DataManager.saveContacts(contacts);
             
             // Update chat name if exists
             if (chatMap.containsKey(phone)) {
                 chatMap.get(phone).setName(name);
-                com.sim800l.util.DataManager.saveChats(chatMap);
+                com.sim800l.util.DataManager.renameChat(chatMap.get(phone), name);
                 chatListView.refresh();
                 
                 // Update header if this chat is currently open
@@ -778,18 +1025,18 @@ public class SIM800LApp extends Application {
         Label titleLabel = new Label("Send message to:");
         titleLabel.setFont(Font.font("Inter", FontWeight.BOLD, 16));
         
-        // Phone number input
+        // Phone number input, also filters the contacts below
         TextField phoneField = new TextField();
-        phoneField.setPromptText("Phone Number (e.g., +989123456789)");
-        phoneField.setStyle("-fx-text-fill: " + Theme.inputText() + "; -fx-prompt-text-fill: " + Theme.mutedText() + ";");
+        phoneField.setPromptText("Phone number or contact name");
+        phoneField.getStyleClass().add("input-field");
         
         // Show contacts for quick selection
         Label orLabel = new Label("Or select from contacts:");
         orLabel.setFont(Font.font("Inter", 11));
-        orLabel.setStyle("-fx-text-fill: " + Theme.secondaryText() + ";");
+        orLabel.getStyleClass().add("secondary-label");
         
         ListView<com.sim800l.model.Contact> contactsList = new ListView<>();
-        contactsList.getItems().addAll(contacts.values());
+        contactsList.getItems().setAll(contactIndex.search("", 50));
         contactsList.setPrefHeight(150);
         contactsList.setCellFactory(param -> new ListCell<com.sim800l.model.Contact>() {
             @Override
@@ -810,10 +1057,23 @@ public class SIM800LApp extends Application {
             }
         });
         
+        // Best matches for what has been typed so far
+        phoneField.textProperty().addListener((obs, oldVal, newVal) -> {
+            com.sim800l.model.Contact selected = contactsList.getSelectionModel().getSelectedItem();
+            if (selected == null || !selected.getPhoneNumber().equals(newVal)) {
+                contactsList.getItems().setAll(contactIndex.search(newVal, 50));
+            }
+        });
+        
         HBox buttonBox = new HBox(10);
         Button startButton = new Button("Start Chat");
         startButton.setOnAction(e -> {
-            String phone = phoneField.getText().trim();
+            String typed = phoneField.getText();
+            if (typed.chars().anyMatch(Character::isLetter) && !contactsList.getItems().isEmpty()) {
+                // A name was typed, take the best match
+                typed = contactsList.getItems().get(0).getPhoneNumber();
+            }
+            String phone = PhoneNumbers.canonical(typed);
             
             if (phone.isEmpty()) {
                 showAlert("Phone number is required!");
@@ -825,12 +1085,7 @@ public class SIM800LApp extends Application {
             loadChat(phone);
             
             // Select the chat in list
-            for (ChatItem item : chatItems) {
-                if (item.getPhoneNumber().equals(phone)) {
-                    chatListView.getSelectionModel().select(item);
-                    break;
-                }
-            }
+            chatListView.getSelectionModel().select(chatMap.get(phone));
             
             newMessageDialogStage.close();
         });
@@ -847,6 +1102,349 @@ public class SIM800LApp extends Application {
         newMessageDialogStage.show();
     }
 
+    private void showBroadcastDialog() {
+        if (broadcastDialogStage != null && broadcastDialogStage.isShowing()) {
+            broadcastDialogStage.toFront();
+            broadcastDialogStage.requestFocus();
+            return;
+        }
+
+        broadcastDialogStage = new Stage();
+        broadcastDialogStage.setTitle("Broadcast");
+
+        VBox root = new VBox(12);
+        root.setPadding(new Insets(20));
+
+        Label titleLabel = new Label("Send one message to many recipients");
+        titleLabel.setFont(Font.font("Inter", FontWeight.BOLD, 16));
+
+        // Recipient source
+        ToggleGroup sourceGroup = new ToggleGroup();
+        RadioButton allContactsRadio = new RadioButton("All contacts");
+        allContactsRadio.setToggleGroup(sourceGroup);
+        allContactsRadio.setSelected(true);
+        RadioButton filterRadio = new RadioButton("Contacts matching:");
+        filterRadio.setToggleGroup(sourceGroup);
+        TextField filterField = new TextField();
+        filterField.setPromptText("Name, number or notes");
+        filterField.disableProperty().bind(filterRadio.selectedProperty().not());
+        RadioButton csvRadio = new RadioButton("CSV file (phone,name):");
+        csvRadio.setToggleGroup(sourceGroup);
+        Button csvButton = new Button("Choose...");
+        csvButton.disableProperty().bind(csvRadio.selectedProperty().not());
+        File[] csvFile = new File[1];
+        csvButton.setOnAction(e -> {
+            FileChooser chooser = new FileChooser();
+            chooser.getExtensionFilters().add(new FileChooser.ExtensionFilter("CSV files", "*.csv", "*.txt"));
+            File file = chooser.showOpenDialog(broadcastDialogStage);
+            if (file != null) {
+                csvFile[0] = file;
+                csvButton.setText(file.getName());
+            }
+        });
+
+        HBox filterBox = new HBox(8, filterRadio, filterField);
+        filterBox.setAlignment(Pos.CENTER_LEFT);
+        HBox csvBox = new HBox(8, csvRadio, csvButton);
+        csvBox.setAlignment(Pos.CENTER_LEFT);
+
+        Label templateLabel = new Label("Message ({name} and {phone} are replaced per recipient):");
+        templateLabel.setFont(Font.font("Inter", 11));
+        templateLabel.getStyleClass().add("secondary-label");
+        TextArea templateArea = new TextArea();
+        templateArea.setWrapText(true);
+        templateArea.setPrefRowCount(5);
+
+        Label progressLabel = new Label();
+        progressLabel.setFont(Font.font("Inter", 11));
+        progressLabel.getStyleClass().add("muted-label");
+
+        HBox buttonBox = new HBox(10);
+        Button sendAllButton = new Button("Send");
+        Button cancelButton = new Button("Cancel Sending");
+        cancelButton.setDisable(true);
+
+        // Sent, failed and waiting counts since the broadcast started, until
+        // the queue is done; Send stays disabled so nothing is queued twice
+        long[] baseline = new long[2];
+        int[] cancelled = new int[1];
+        javafx.animation.Timeline queuePoll = new javafx.animation.Timeline();
+        queuePoll.getKeyFrames().add(new javafx.animation.KeyFrame(javafx.util.Duration.millis(500), e -> {
+            int pending = serialManager.getOutboundPendingCount();
+            String status = String.format("Sent %d, failed %d, %d waiting",
+                serialManager.getOutboundSentCount() - baseline[0],
+                serialManager.getOutboundFailedCount() - baseline[1], pending);
+            if (cancelled[0] > 0) {
+                status += ", " + cancelled[0] + " cancelled";
+            }
+            progressLabel.setText(status);
+            if (pending == 0) {
+                queuePoll.stop();
+                sendAllButton.setDisable(false);
+                cancelButton.setDisable(true);
+            }
+        }));
+        queuePoll.setCycleCount(javafx.animation.Animation.INDEFINITE);
+        Runnable watchQueue = () -> {
+            sendAllButton.setDisable(true);
+            cancelButton.setDisable(false);
+            queuePoll.play();
+        };
+        cancelButton.setOnAction(e -> cancelled[0] += serialManager.cancelOutbound());
+
+        sendAllButton.setOnAction(e -> {
+            if (!serialManager.isConnected()) {
+                showAlert("Not connected to modem!");
+                return;
+            }
+            String template = templateArea.getText();
+            if (template.trim().isEmpty()) {
+                showAlert("Message is required!");
+                return;
+            }
+
+            List<com.sim800l.model.Contact> recipients;
+            if (csvRadio.isSelected()) {
+                if (csvFile[0] == null) {
+                    showAlert("Choose a CSV file first!");
+                    return;
+                }
+                try (FileReader reader = new FileReader(csvFile[0], StandardCharsets.UTF_8)) {
+                    recipients = BroadcastEngine.readCsv(reader);
+                } catch (IOException ex) {
+                    showAlert("Cannot read CSV file: " + ex.getMessage());
+                    return;
+                }
+            } else if (filterRadio.isSelected()) {
+                String query = filterField.getText().trim().toLowerCase();
+                recipients = BroadcastEngine.select(contacts.values(), c ->
+                    c.getName().toLowerCase().contains(query)
+                        || c.getPhoneNumber().contains(query)
+                        || c.getNotes().toLowerCase().contains(query));
+            } else {
+                recipients = new ArrayList<>(contacts.values());
+            }
+            if (recipients.isEmpty()) {
+                showAlert("No recipients selected!");
+                return;
+            }
+
+            sendAllButton.setDisable(true);
+            baseline[0] = serialManager.getOutboundSentCount();
+            baseline[1] = serialManager.getOutboundFailedCount();
+            cancelled[0] = 0;
+            progressLabel.setText("Encoding for " + recipients.size() + " recipients...");
+            BroadcastEngine engine = new BroadcastEngine(serialManager);
+            Thread broadcastThread = new Thread(() -> {
+                try {
+                    int queued = engine.broadcast(recipients, template, (done, failed, total, perSecond) ->
+                        Platform.runLater(() -> progressLabel.setText(String.format(
+                            "Encoded %d/%d (%d invalid), %.0f/s", done + failed, total, failed, perSecond))));
+                    Platform.runLater(() -> {
+                        progressLabel.setText(queued + " messages queued");
+                        watchQueue.run();
+                    });
+                } catch (IllegalArgumentException ex) {
+                    Platform.runLater(() -> {
+                        progressLabel.setText("");
+                        sendAllButton.setDisable(false);
+                        showAlert(ex.getMessage());
+                    });
+                }
+            });
+            broadcastThread.setDaemon(true);
+            broadcastThread.start();
+        });
+
+        Button closeButton = new Button("Close");
+        closeButton.setOnAction(e -> broadcastDialogStage.close());
+
+        buttonBox.getChildren().addAll(sendAllButton, cancelButton, closeButton);
+        root.getChildren().addAll(titleLabel, allContactsRadio, filterBox, csvBox,
+            templateLabel, templateArea, progressLabel, buttonBox);
+
+        // A broadcast from an earlier dialog may still be sending
+        if (serialManager.getOutboundPendingCount() > 0) {
+            baseline[0] = serialManager.getOutboundSentCount();
+            baseline[1] = serialManager.getOutboundFailedCount();
+            watchQueue.run();
+        }
+        broadcastDialogStage.setOnHidden(e -> queuePoll.stop());
+
+        Scene scene = new Scene(root, 460, 430);
+        applyThemeToScene(scene);
+        broadcastDialogStage.setScene(scene);
+        broadcastDialogStage.show();
+    }
+
+    private void showTransferDialog() {
+        if (transferDialogStage != null && transferDialogStage.isShowing()) {
+            transferDialogStage.toFront();
+            transferDialogStage.requestFocus();
+            return;
+        }
+
+        transferDialogStage = new Stage();
+        transferDialogStage.setTitle("Import / Export");
+
+        VBox root = new VBox(12);
+        root.setPadding(new Insets(20));
+
+        Label titleLabel = new Label("Move messages and contacts in and out as CSV or JSONL");
+        titleLabel.setFont(Font.font("Inter", FontWeight.BOLD, 14));
+
+        ToggleGroup kindGroup = new ToggleGroup();
+        RadioButton messagesRadio = new RadioButton("Messages (phone, direction, timestamp, text)");
+        messagesRadio.setToggleGroup(kindGroup);
+        messagesRadio.setSelected(true);
+        RadioButton contactsRadio = new RadioButton("Contacts (phone, name, email, notes)");
+        contactsRadio.setToggleGroup(kindGroup);
+
+        Label progressLabel = new Label();
+        progressLabel.setFont(Font.font("Inter", 11));
+        progressLabel.getStyleClass().add("muted-label");
+        progressLabel.setWrapText(true);
+
+        HBox buttonBox = new HBox(10);
+        Button exportButton = new Button("Export...");
+        Button importButton = new Button("Import...");
+        Button closeButton = new Button("Close");
+        closeButton.setOnAction(e -> transferDialogStage.close());
+
+        com.sim800l.util.DataTransfer.ProgressListener progress = (records, perSecond) ->
+            Platform.runLater(() -> progressLabel.setText(String.format("%,d records, %,.0f/s", records, perSecond)));
+
+        exportButton.setOnAction(e -> {
+            boolean messages = messagesRadio.isSelected();
+            FileChooser chooser = transferChooser(messages ? "messages" : "contacts");
+            File file = chooser.showSaveDialog(transferDialogStage);
+            if (file == null) {
+                return;
+            }
+            List<com.sim800l.model.Contact> snapshot = new ArrayList<>(contacts.values());
+            runTransfer(exportButton, importButton, progressLabel, () -> {
+                long count = messages
+                    ? com.sim800l.util.DataManager.exportMessages(file, progress)
+                    : com.sim800l.util.DataManager.exportContacts(snapshot, file, progress);
+                return () -> progressLabel.setText(String.format("Exported %,d records to %s", count, file.getName()));
+            });
+        });
+
+        importButton.setOnAction(e -> {
+            boolean messages = messagesRadio.isSelected();
+            File file = transferChooser(messages ? "messages" : "contacts").showOpenDialog(transferDialogStage);
+            if (file == null) {
+                return;
+            }
+            List<com.sim800l.model.Contact> snapshot = new ArrayList<>(contacts.values());
+            runTransfer(exportButton, importButton, progressLabel, () -> {
+                com.sim800l.util.DataTransfer.Result result = messages
+                    ? com.sim800l.util.DataManager.importMessages(file, progress)
+                    : com.sim800l.util.DataManager.importContacts(snapshot, file, progress);
+                return () -> {
+                    if (messages) {
+                        applyImportedMessages(result.getPhoneNumbers());
+                    } else {
+                        applyImportedContacts(result.getContacts());
+                    }
+                    progressLabel.setText(String.format("Read %,d records: %,d added, %,d %s, %,d unreadable",
+                        result.getRead(), result.getAdded(), result.getDuplicates(),
+                        messages ? "already present" : "updated", result.getSkipped()));
+                };
+            });
+        });
+
+        buttonBox.getChildren().addAll(exportButton, importButton, closeButton);
+        root.getChildren().addAll(titleLabel, messagesRadio, contactsRadio, progressLabel, buttonBox);
+
+        Scene scene = new Scene(root, 460, 240);
+        applyThemeToScene(scene);
+        transferDialogStage.setScene(scene);
+        transferDialogStage.show();
+    }
+
+    private FileChooser transferChooser(String name) {
+        FileChooser chooser = new FileChooser();
+        chooser.setInitialFileName(name + ".csv");
+        chooser.getExtensionFilters().addAll(
+            new FileChooser.ExtensionFilter("CSV files", "*.csv"),
+            new FileChooser.ExtensionFilter("JSON Lines files", "*.jsonl"));
+        return chooser;
+    }
+
+    /**
+     * Work for a background thread that returns what to do on the FX thread
+     */
+    private interface TransferTask {
+        Runnable run() throws IOException;
+    }
+
+    private void runTransfer(Button exportButton, Button importButton, Label progressLabel, TransferTask task) {
+        exportButton.setDisable(true);
+        importButton.setDisable(true);
+        progressLabel.setText("Working...");
+        Thread transferThread = new Thread(() -> {
+            Runnable done;
+            try {
+                done = task.run();
+            } catch (IOException | RuntimeException ex) {
+                // Anything else would end the thread with the buttons still disabled
+                done = () -> {
+                    progressLabel.setText("");
+                    showAlert("Transfer failed: " + ex.getMessage());
+                };
+            }
+            Runnable finish = done;
+            Platform.runLater(() -> {
+                finish.run();
+                exportButton.setDisable(false);
+                importButton.setDisable(false);
+            });
+        }, "data-transfer");
+        transferThread.setDaemon(true);
+        transferThread.start();
+    }
+
+    private void applyImportedMessages(Set<String> phoneNumbers) {
+        for (String phone : phoneNumbers) {
+            ChatItem chat = chatMap.get(phone);
+            if (chat == null) {
+                chat = com.sim800l.util.DataManager.getChat(phone);
+                if (chat == null) {
+                    continue;
+                }
+                chatMap.put(phone, chat);
+                chatItems.touch(chat);
+            }
+            if (phone.equals(currentPhoneNumber)) {
+                loadChat(phone);
+            }
+        }
+        chatListView.refresh();
+    }
+
+    private void applyImportedContacts(Map<String, com.sim800l.model.Contact> imported) {
+        for (com.sim800l.model.Contact contact : imported.values()) {
+            String phone = contact.getPhoneNumber();
+            contacts.put(phone, contact);
+            contactIndex.add(contact);
+            ChatItem chat = chatMap.get(phone);
+            if (chat != null && !contact.getName().equals(chat.getName())) {
+                chat.setName(contact.getName());
+                com.sim800l.util.DataManager.renameChat(chat, contact.getName());
+                if (phone.equals(currentPhoneNumber)) {
+                    chatHeaderLabel.setText(contact.getName());
+                }
+            }
+        }
+        com.sim800l.util.DataManager.saveContacts(contacts);
+        chatListView.refresh();
+        if (contactsManagerStage != null && contactsManagerStage.isShowing()) {
+            contactsManagerStage.close();
+            showContactsManager();
+        }
+    }
+
     @Override
     public void stop() {
         // متوقف کردن timeline لاگ
@@ -863,6 +1461,8 @@ public class SIM800LApp extends Application {
         if (serialManager != null && serialManager.isConnected()) {
             serialManager.disconnect();
         }
+        
+        com.sim800l.util.DataManager.close();
     }
 
     public static void main(String[] args) {
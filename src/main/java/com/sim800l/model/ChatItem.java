@@ -1,7 +1,8 @@
 package com.sim800l.model;
 
 import java.io.Serializable;
-import java.util.ArrayList;
+import java.time.ZoneId;
+import java.util.Collections;
 import java.util.List;
 
 public class ChatItem implements Serializable {
@@ -9,14 +10,23 @@ public class ChatItem implements Serializable {
     
     private String phoneNumber;
     private String name;
+    // Histories are kept in the store (see MessageStore); only set in chats
+    // read from the old serialized chats.dat, for the migration
     private List<MessageItem> messages;
     private int unreadCount;
+    // Summary of the history in the store
+    private int messageCount;
+    private MessageItem lastMessage;
+    // Chat list line for lastMessage, formatted once when it changes
+    private transient String lastPreview;
+    private transient String lastTime;
+    private transient long lastActivity;
     
     public ChatItem(String phoneNumber) {
         this.phoneNumber = phoneNumber;
         this.name = phoneNumber;
-        this.messages = new ArrayList<>();
         this.unreadCount = 0;
+        setLastMessage(null);
     }
     
     public String getPhoneNumber() {
@@ -31,8 +41,27 @@ public class ChatItem implements Serializable {
         this.name = name;
     }
     
-    public List<MessageItem> getMessages() {
-        return messages;
+    /**
+     * Messages of a chat read from chats.dat, empty for any other chat
+     */
+    public List<MessageItem> getLegacyMessages() {
+        return messages != null ? messages : Collections.emptyList();
+    }
+    
+    /**
+     * Message count and last message of the history in the store
+     */
+    public void setSummary(int messageCount, MessageItem lastMessage) {
+        this.messageCount = messageCount;
+        setLastMessage(lastMessage);
+    }
+    
+    public int getMessageCount() {
+        return messageCount;
+    }
+    
+    public MessageItem getLastMessageItem() {
+        return lastMessage;
     }
     
     public int getUnreadCount() {
@@ -47,24 +76,57 @@ public class ChatItem implements Serializable {
         this.unreadCount++;
     }
     
+    /**
+     * Count a message added to the end of the history, it becomes the last one
+     */
     public void addMessage(MessageItem message) {
-        messages.add(message);
+        messageCount++;
+        setLastMessage(message);
     }
     
+    private void setLastMessage(MessageItem message) {
+        if (message == lastMessage && lastPreview != null) {
+            return;
+        }
+        lastMessage = message;
+        if (message == null) {
+            lastPreview = "Start a new conversation";
+            lastTime = "";
+            lastActivity = 0;
+            return;
+        }
+        String prefix = message.isOutgoing() ? "You: " : "";
+        String text = message.getText();
+        lastPreview = prefix + (text.length() > 40 ? text.substring(0, 40) + "..." : text);
+        lastTime = message.getTime();
+        lastActivity = message.getTimestamp().atZone(ZoneId.systemDefault()).toInstant().toEpochMilli();
+    }
+    
+    /**
+     * Preview of the last message for the chat list, cached
+     */
     public String getLastMessage() {
-        if (messages.isEmpty()) {
-            return "Start a new conversation";
+        if (lastPreview == null) {
+            // Read from the old serialized format
+            setLastMessage(lastMessage);
         }
-        MessageItem last = messages.get(messages.size() - 1);
-        String prefix = last.isOutgoing() ? "You: " : "";
-        String text = last.getText();
-        return prefix + (text.length() > 40 ? text.substring(0, 40) + "..." : text);
+        return lastPreview;
     }
     
     public String getLastTime() {
-        if (messages.isEmpty()) {
-            return "";
+        if (lastPreview == null) {
+            setLastMessage(lastMessage);
+        }
+        return lastTime;
+    }
+    
+    /**
+     * Epoch millis of the last message, 0 without messages
+     */
+    public long getLastActivity() {
+        if (lastPreview == null) {
+            setLastMessage(lastMessage);
         }
-        return messages.get(messages.size() - 1).getTime();
+        return lastActivity;
     }
 }
@@ -0,0 +1,80 @@
+package com.sim800l.model;
+
+import java.time.OffsetDateTime;
+
+/**
+ * A received SMS as decoded from an SMS-DELIVER PDU (or a text mode +CMT)
+ */
+public class IncomingSms {
+
+    private final String sender;
+    private final String text;
+    private final String serviceCenter;
+    private final OffsetDateTime timestamp;
+    private final int dataCodingScheme;
+    private final int concatReference;
+    private final int concatTotal;
+    private final int concatSequence;
+
+    public IncomingSms(String sender, String text, String serviceCenter, OffsetDateTime timestamp,
+                       int dataCodingScheme, int concatReference, int concatTotal, int concatSequence) {
+        this.sender = sender;
+        this.text = text;
+        this.serviceCenter = serviceCenter;
+        this.timestamp = timestamp;
+        this.dataCodingScheme = dataCodingScheme;
+        this.concatReference = concatReference;
+        this.concatTotal = concatTotal;
+        this.concatSequence = concatSequence;
+    }
+
+    public IncomingSms(String sender, String text, OffsetDateTime timestamp) {
+        this(sender, text, "", timestamp, 0, 0, 1, 1);
+    }
+
+    public String getSender() {
+        return sender;
+    }
+
+    public String getText() {
+        return text;
+    }
+
+    public String getServiceCenter() {
+        return serviceCenter;
+    }
+
+    /**
+     * Service centre timestamp (SCTS) with the network's UTC offset
+     */
+    public OffsetDateTime getTimestamp() {
+        return timestamp;
+    }
+
+    public int getDataCodingScheme() {
+        return dataCodingScheme;
+    }
+
+    public boolean isConcatenated() {
+        return concatTotal > 1;
+    }
+
+    public int getConcatReference() {
+        return concatReference;
+    }
+
+    public int getConcatTotal() {
+        return concatTotal;
+    }
+
+    public int getConcatSequence() {
+        return concatSequence;
+    }
+
+    /**
+     * Copy with different text, used when joining concatenated parts
+     */
+    public IncomingSms withText(String newText) {
+        return new IncomingSms(sender, newText, serviceCenter, timestamp, dataCodingScheme, 0, 1, 1);
+    }
+}
@@ -13,9 +13,13 @@ public class MessageItem implements Serializable {
     private static final DateTimeFormatter TIME_FORMATTER = DateTimeFormatter.ofPattern("HH:mm");
     
     public MessageItem(String text, boolean outgoing) {
+        this(text, outgoing, LocalDateTime.now());
+    }
+    
+    public MessageItem(String text, boolean outgoing, LocalDateTime timestamp) {
         this.text = text;
         this.outgoing = outgoing;
-        this.timestamp = LocalDateTime.now();
+        this.timestamp = timestamp != null ? timestamp : LocalDateTime.now();
     }
     
     public String getText() {
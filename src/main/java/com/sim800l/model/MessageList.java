@@ -0,0 +1,171 @@
+package com.sim800l.model;
+
+import java.io.Serializable;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.RandomAccess;
+
+/**
+ * A page of a chat history read from the store (see
+ * MessageStore.readMessages), stored by column: epoch millis in a long[],
+ * flags in a byte[] and each text as a byte[] (Latin-1 when it fits,
+ * UTF-16 otherwise). That is about 30 bytes per message plus the text,
+ * instead of a MessageItem, a String and a LocalDateTime (three objects)
+ * each.
+ *
+ * get() builds a MessageItem view on every call; getText(), isOutgoing()
+ * and getEpochMillis() read single columns without one.
+ */
+public class MessageList extends AbstractList<MessageItem> implements RandomAccess, Serializable {
+    private static final long serialVersionUID = 1L;
+
+    private static final byte FLAG_OUTGOING = 0x01;
+    // Text bytes are UTF-16 big-endian rather than Latin-1
+    private static final byte FLAG_UTF16 = 0x02;
+    private static final byte[] EMPTY = new byte[0];
+
+    private long[] times;
+    private byte[] flags;
+    private byte[][] texts;
+    private int size;
+
+    public MessageList() {
+        this(8);
+    }
+
+    public MessageList(int capacity) {
+        capacity = Math.max(capacity, 1);
+        times = new long[capacity];
+        flags = new byte[capacity];
+        texts = new byte[capacity][];
+    }
+
+    public MessageList(Collection<MessageItem> messages) {
+        this(messages.size());
+        addAll(messages);
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    @Override
+    public MessageItem get(int index) {
+        checkIndex(index);
+        return new MessageItem(getText(index), isOutgoing(index), toLocal(times[index]));
+    }
+
+    public String getText(int index) {
+        checkIndex(index);
+        byte[] bytes = texts[index];
+        if ((flags[index] & FLAG_UTF16) == 0) {
+            // Latin-1, String keeps it compact as well
+            char[] chars = new char[bytes.length];
+            for (int i = 0; i < bytes.length; i++) {
+                chars[i] = (char) (bytes[i] & 0xFF);
+            }
+            return new String(chars);
+        }
+        char[] chars = new char[bytes.length / 2];
+        for (int i = 0; i < chars.length; i++) {
+            chars[i] = (char) (((bytes[2 * i] & 0xFF) << 8) | (bytes[2 * i + 1] & 0xFF));
+        }
+        return new String(chars);
+    }
+
+    public boolean isOutgoing(int index) {
+        checkIndex(index);
+        return (flags[index] & FLAG_OUTGOING) != 0;
+    }
+
+    public long getEpochMillis(int index) {
+        checkIndex(index);
+        return times[index];
+    }
+
+    @Override
+    public void add(int index, MessageItem message) {
+        if (index < 0 || index > size) {
+            throw new IndexOutOfBoundsException("Index: " + index + ", size: " + size);
+        }
+        if (size == times.length) {
+            int capacity = size + (size >> 1) + 1;
+            times = Arrays.copyOf(times, capacity);
+            flags = Arrays.copyOf(flags, capacity);
+            texts = Arrays.copyOf(texts, capacity);
+        }
+        System.arraycopy(times, index, times, index + 1, size - index);
+        System.arraycopy(flags, index, flags, index + 1, size - index);
+        System.arraycopy(texts, index, texts, index + 1, size - index);
+        String text = message.getText();
+        boolean latin1 = true;
+        for (int i = 0; i < text.length() && latin1; i++) {
+            latin1 = text.charAt(i) <= 0xFF;
+        }
+        times[index] = toEpochMillis(message.getTimestamp());
+        flags[index] = (byte) ((message.isOutgoing() ? FLAG_OUTGOING : 0) | (latin1 ? 0 : FLAG_UTF16));
+        texts[index] = latin1 ? latin1Bytes(text) : utf16Bytes(text);
+        size++;
+        modCount++;
+    }
+
+    @Override
+    public MessageItem remove(int index) {
+        MessageItem removed = get(index);
+        System.arraycopy(times, index + 1, times, index, size - index - 1);
+        System.arraycopy(flags, index + 1, flags, index, size - index - 1);
+        System.arraycopy(texts, index + 1, texts, index, size - index - 1);
+        size--;
+        texts[size] = null;
+        modCount++;
+        return removed;
+    }
+
+    @Override
+    public void clear() {
+        Arrays.fill(texts, 0, size, null);
+        size = 0;
+        modCount++;
+    }
+
+    private void checkIndex(int index) {
+        if (index < 0 || index >= size) {
+            throw new IndexOutOfBoundsException("Index: " + index + ", size: " + size);
+        }
+    }
+
+    private static byte[] latin1Bytes(String text) {
+        if (text.isEmpty()) {
+            return EMPTY;
+        }
+        byte[] bytes = new byte[text.length()];
+        for (int i = 0; i < bytes.length; i++) {
+            bytes[i] = (byte) text.charAt(i);
+        }
+        return bytes;
+    }
+
+    // Code units as they are, so lone surrogates survive as well
+    private static byte[] utf16Bytes(String text) {
+        byte[] bytes = new byte[text.length() * 2];
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            bytes[2 * i] = (byte) (c >> 8);
+            bytes[2 * i + 1] = (byte) c;
+        }
+        return bytes;
+    }
+
+    private static long toEpochMillis(LocalDateTime timestamp) {
+        return timestamp.atZone(ZoneId.systemDefault()).toInstant().toEpochMilli();
+    }
+
+    private static LocalDateTime toLocal(long epochMillis) {
+        return LocalDateTime.ofInstant(Instant.ofEpochMilli(epochMillis), ZoneId.systemDefault());
+    }
+}
@@ -0,0 +1,32 @@
+package com.sim800l.model;
+
+/**
+ * A message found by a history search
+ */
+public class SearchHit {
+
+    private final String phoneNumber;
+    private final int messageIndex;
+    private final MessageItem message;
+
+    public SearchHit(String phoneNumber, int messageIndex, MessageItem message) {
+        this.phoneNumber = phoneNumber;
+        this.messageIndex = messageIndex;
+        this.message = message;
+    }
+
+    public String getPhoneNumber() {
+        return phoneNumber;
+    }
+
+    /**
+     * Index of the message in its chat's history
+     */
+    public int getMessageIndex() {
+        return messageIndex;
+    }
+
+    public MessageItem getMessage() {
+        return message;
+    }
+}
@@ -0,0 +1,194 @@
+package com.sim800l.serial;
+
+import com.sim800l.model.Contact;
+import com.sim800l.util.PDUEncoder;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Predicate;
+
+/**
+ * Sends one message to many recipients. The user data is encoded once (or
+ * once per distinct text when the template is personalised), per-recipient
+ * PDUs are built in parallel on a fork-join pool, and the results are handed
+ * to the outbound queue in batches.
+ */
+public class BroadcastEngine {
+
+    public static final String NAME_PLACEHOLDER = "{name}";
+    public static final String PHONE_PLACEHOLDER = "{phone}";
+
+    private static final int BATCH_SIZE = 256;
+
+    /**
+     * Progress callback, invoked from pool threads after each batch
+     */
+    public interface ProgressListener {
+        void onProgress(int queued, int failed, int total, double perSecond);
+    }
+
+    private final SerialPortManager serialManager;
+    private final ForkJoinPool pool;
+
+    public BroadcastEngine(SerialPortManager serialManager) {
+        this(serialManager, ForkJoinPool.commonPool());
+    }
+
+    public BroadcastEngine(SerialPortManager serialManager, ForkJoinPool pool) {
+        this.serialManager = serialManager;
+        this.pool = pool;
+    }
+
+    /**
+     * Contacts matching a filter, e.g. by name or notes
+     */
+    public static List<Contact> select(Collection<Contact> contacts, Predicate<Contact> filter) {
+        List<Contact> result = new ArrayList<>();
+        for (Contact contact : contacts) {
+            if (filter.test(contact)) {
+                result.add(contact);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Read recipients from CSV lines of "phone[,name]". A header line and
+     * lines without a phone number are skipped.
+     */
+    public static List<Contact> readCsv(Reader source) throws IOException {
+        List<Contact> result = new ArrayList<>();
+        BufferedReader reader = new BufferedReader(source);
+        String line;
+        while ((line = reader.readLine()) != null) {
+            int comma = line.indexOf(',');
+            String phone = unquote(comma < 0 ? line : line.substring(0, comma));
+            String name = comma < 0 ? "" : unquote(line.substring(comma + 1));
+            if (phone.isEmpty() || !Character.isDigit(phone.charAt(phone.length() - 1))) {
+                continue;
+            }
+            result.add(new Contact(phone, name.isEmpty() ? phone : name));
+        }
+        return result;
+    }
+
+    private static String unquote(String field) {
+        String value = field.trim();
+        if (value.length() >= 2 && value.startsWith("\"") && value.endsWith("\"")) {
+            value = value.substring(1, value.length() - 1).trim();
+        }
+        return value;
+    }
+
+    /**
+     * Encode the template for every recipient and queue the results.
+     * Blocks until everything is queued; sending continues in the background.
+     * @return Number of recipients queued
+     * @throws IllegalArgumentException if the message cannot be encoded at all
+     */
+    public int broadcast(List<Contact> recipients, String template, ProgressListener listener) {
+        if (template == null || template.trim().isEmpty()) {
+            throw new IllegalArgumentException("Message cannot be empty");
+        }
+
+        boolean personalised = template.contains(NAME_PLACEHOLDER) || template.contains(PHONE_PLACEHOLDER);
+        // Fail fast on a message that is too long before fanning out
+        PDUEncoder.EncodedMessage shared = personalised ? null : PDUEncoder.encodeUserData(template);
+
+        BroadcastTask task = new BroadcastTask(recipients, template, shared, listener);
+        pool.invoke(task);
+        return task.queued.get();
+    }
+
+    private final class BroadcastTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final List<Contact> recipients;
+        private final String template;
+        private final PDUEncoder.EncodedMessage shared;
+        private final ProgressListener listener;
+        private final int from;
+        private final int to;
+
+        // Shared by all subtasks
+        private final Map<String, PDUEncoder.EncodedMessage> encodedTexts;
+        private final AtomicInteger queued;
+        private final AtomicInteger failed;
+        private final long startNanos;
+
+        BroadcastTask(List<Contact> recipients, String template, PDUEncoder.EncodedMessage shared,
+                      ProgressListener listener) {
+            this(recipients, template, shared, listener, 0, recipients.size(),
+                new ConcurrentHashMap<>(), new AtomicInteger(), new AtomicInteger(), System.nanoTime());
+        }
+
+        private BroadcastTask(List<Contact> recipients, String template, PDUEncoder.EncodedMessage shared,
+                              ProgressListener listener, int from, int to,
+                              Map<String, PDUEncoder.EncodedMessage> encodedTexts,
+                              AtomicInteger queued, AtomicInteger failed, long startNanos) {
+            this.recipients = recipients;
+            this.template = template;
+            this.shared = shared;
+            this.listener = listener;
+            this.from = from;
+            this.to = to;
+            this.encodedTexts = encodedTexts;
+            this.queued = queued;
+            this.failed = failed;
+            this.startNanos = startNanos;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from > BATCH_SIZE) {
+                int mid = (from + to) >>> 1;
+                invokeAll(
+                    new BroadcastTask(recipients, template, shared, listener, from, mid,
+                        encodedTexts, queued, failed, startNanos),
+                    new BroadcastTask(recipients, template, shared, listener, mid, to,
+                        encodedTexts, queued, failed, startNanos));
+                return;
+            }
+
+            List<OutboundMessage> batch = new ArrayList<>(to - from);
+            int batchFailed = 0;
+            for (int i = from; i < to; i++) {
+                Contact recipient = recipients.get(i);
+                try {
+                    String text = shared != null ? template : render(recipient);
+                    PDUEncoder.EncodedMessage userData = shared != null
+                        ? shared
+                        : encodedTexts.computeIfAbsent(text, PDUEncoder::encodeUserData);
+                    batch.add(new OutboundMessage(recipient.getPhoneNumber(), text,
+                        PDUEncoder.encodePDU(recipient.getPhoneNumber(), userData)));
+                } catch (IllegalArgumentException e) {
+                    batchFailed++;
+                }
+            }
+            serialManager.enqueue(batch);
+
+            int queuedNow = queued.addAndGet(batch.size());
+            int failedNow = failed.addAndGet(batchFailed);
+            if (listener != null) {
+                double seconds = (System.nanoTime() - startNanos) / 1e9;
+                listener.onProgress(queuedNow, failedNow, recipients.size(),
+                    seconds > 0 ? (queuedNow + failedNow) / seconds : 0);
+            }
+        }
+
+        private String render(Contact recipient) {
+            return template
+                .replace(NAME_PLACEHOLDER, recipient.getName())
+                .replace(PHONE_PLACEHOLDER, recipient.getPhoneNumber());
+        }
+    }
+}
@@ -0,0 +1,77 @@
+package com.sim800l.serial;
+
+import com.sim800l.model.IncomingSms;
+import com.sim800l.util.PhoneNumbers;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Drops received SMS that were already delivered, e.g. sent again by the
+ * modem after a reconnect or read both from +CMT and from SIM storage.
+ * A message is identified by a 64-bit hash of its sender, service centre
+ * timestamp and text. The last CAPACITY messages are remembered for at
+ * most WINDOW_MILLIS, so memory stays fixed whatever the traffic.
+ */
+public class DuplicateFilter {
+
+    public static final int CAPACITY = 4096;
+    public static final long WINDOW_MILLIS = 48L * 60 * 60 * 1000;
+
+    // Fingerprint to arrival time, oldest first
+    private final Map<Long, Long> seen = new LinkedHashMap<Long, Long>(CAPACITY * 2) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Long, Long> eldest) {
+            return size() > CAPACITY;
+        }
+    };
+    private final AtomicLong suppressed = new AtomicLong();
+
+    /**
+     * @return True if the message was seen within the window; it is
+     * remembered otherwise
+     */
+    public synchronized boolean isDuplicate(IncomingSms sms, long now) {
+        Iterator<Long> arrivals = seen.values().iterator();
+        while (arrivals.hasNext() && arrivals.next() < now - WINDOW_MILLIS) {
+            arrivals.remove();
+        }
+        Long fingerprint = fingerprint(sms);
+        if (seen.containsKey(fingerprint)) {
+            suppressed.incrementAndGet();
+            return true;
+        }
+        seen.put(fingerprint, now);
+        return false;
+    }
+
+    /**
+     * Messages dropped as duplicates since startup
+     */
+    public long getSuppressedCount() {
+        return suppressed.get();
+    }
+
+    /**
+     * 64-bit FNV-1a hash of the canonical sender, the timestamp's instant
+     * to the second and the text
+     */
+    private static long fingerprint(IncomingSms sms) {
+        long hash = 0xCBF29CE484222325L;
+        String sender = PhoneNumbers.canonical(sms.getSender());
+        for (int i = 0; i < sender.length(); i++) {
+            hash = (hash ^ sender.charAt(i)) * 0x100000001B3L;
+        }
+        long seconds = sms.getTimestamp().toEpochSecond();
+        for (int shift = 0; shift < 64; shift += 8) {
+            hash = (hash ^ ((seconds >>> shift) & 0xFF)) * 0x100000001B3L;
+        }
+        String text = sms.getText();
+        for (int i = 0; i < text.length(); i++) {
+            hash = (hash ^ text.charAt(i)) * 0x100000001B3L;
+        }
+        return hash;
+    }
+}
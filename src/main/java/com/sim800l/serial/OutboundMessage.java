@@ -0,0 +1,32 @@
+package com.sim800l.serial;
+
+import com.sim800l.util.PDUEncoder;
+
+import java.util.List;
+
+/**
+ * A fully encoded SMS waiting in the outbound queue
+ */
+public class OutboundMessage {
+    private final String phoneNumber;
+    private final String text;
+    private final List<PDUEncoder.PDUResult> pdus;
+    
+    public OutboundMessage(String phoneNumber, String text, List<PDUEncoder.PDUResult> pdus) {
+        this.phoneNumber = phoneNumber;
+        this.text = text;
+        this.pdus = pdus;
+    }
+    
+    public String getPhoneNumber() {
+        return phoneNumber;
+    }
+    
+    public String getText() {
+        return text;
+    }
+    
+    public List<PDUEncoder.PDUResult> getPdus() {
+        return pdus;
+    }
+}
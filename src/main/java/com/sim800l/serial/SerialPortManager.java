@@ -1,18 +1,60 @@
 package com.sim800l.serial;
 
 import com.fazecast.jSerialComm.SerialPort;
+import com.sim800l.model.IncomingSms;
+import com.sim800l.util.HexCodec;
 import com.sim800l.util.MessageEncoder;
+import com.sim800l.util.PDUEncoder;
+import com.sim800l.util.SmsDeliverDecoder;
+import com.sim800l.util.SmsEncoding;
 
 import java.nio.charset.StandardCharsets;
-import java.util.function.BiConsumer;
+import java.time.DateTimeException;
+import java.time.OffsetDateTime;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
 
 public class SerialPortManager {
     private SerialPort serialPort;
     private Thread readerThread;
-    private boolean isConnected;
+    private volatile boolean isConnected;
     private static final int BAUD_RATE = 9600;
-    private BiConsumer<String, String> messageReceivedCallback;
+    private Consumer<IncomingSms> messageReceivedCallback;
+    private final SmsDeliverDecoder deliverDecoder = new SmsDeliverDecoder();
+    private final DuplicateFilter duplicateFilter = new DuplicateFilter();
+    // Parts of concatenated messages waiting for the rest, oldest dropped first
+    private final Map<String, IncomingSms[]> pendingParts = new LinkedHashMap<String, IncomingSms[]>() {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, IncomingSms[]> eldest) {
+            return size() > 32;
+        }
+    };
+    // Pre-encoded messages (e.g. broadcasts), drained by the sender thread
+    private final BlockingQueue<OutboundMessage> outboundQueue = new LinkedBlockingQueue<>();
+    private final AtomicLong outboundSent = new AtomicLong();
+    private final AtomicLong outboundFailed = new AtomicLong();
+    // Queued plus the one being sent
+    private final AtomicInteger outboundPending = new AtomicInteger();
+    private Thread senderThread;
+    private Consumer<OutboundMessage> messageSentCallback;
+    // Serializes AT command exchanges between the UI and the sender thread
+    private final Object portLock = new Object();
     private StringBuilder responseBuffer = new StringBuilder();
+    // Modem output not yet split into lines, and the +CMT header waiting for
+    // its body; shared by everything that reads the port (guarded by lineBuffer)
+    private final StringBuilder lineBuffer = new StringBuilder();
+    private String pendingSender;
+    private OffsetDateTime pendingTimestamp;
+    private boolean pendingPdu;
     private volatile boolean pauseReading = false;
     private StringBuilder logBuffer = new StringBuilder();
     
@@ -20,10 +62,17 @@ public class SerialPortManager {
         this.isConnected = false;
     }
     
-    public void setMessageReceivedCallback(BiConsumer<String, String> callback) {
+    public void setMessageReceivedCallback(Consumer<IncomingSms> callback) {
         this.messageReceivedCallback = callback;
     }
     
+    /**
+     * Called from the sender thread after a queued message went out
+     */
+    public void setMessageSentCallback(Consumer<OutboundMessage> callback) {
+        this.messageSentCallback = callback;
+    }
+    
     public boolean connect(String portName) {
         if (portName == null || portName.isEmpty()) {
             addLog("Connect failed: No port specified");
@@ -55,9 +104,9 @@ public class SerialPortManager {
             return false;
         }
         
-        // Configure SMS to text mode
-        addLog("Setting text mode...");
-        sendCommandWithResponse("AT+CMGF=1", "OK", 2000);
+        // Configure SMS to PDU mode so incoming messages arrive as SMS-DELIVER PDUs
+        addLog("Setting PDU mode...");
+        sendCommandWithResponse("AT+CMGF=0", "OK", 2000);
         
         // Configure character set for receiving
         addLog("Setting character set...");
@@ -69,6 +118,7 @@ public class SerialPortManager {
         
         addLog("Starting reader thread...");
         startReaderThread();
+        startSenderThread();
         addLog("Connected successfully!");
         return true;
     }
@@ -84,6 +134,13 @@ public class SerialPortManager {
                 // Ignore
             }
         }
+        if (senderThread != null && senderThread.isAlive()) {
+            senderThread.interrupt();
+        }
+        // Nothing queued survives a disconnect: it fails, so broadcast
+        // progress completes and a reconnect does not send stale messages.
+        // A message being sent fails on the closed port by itself.
+        failOutbound();
         if (serialPort != null && serialPort.isOpen()) {
             serialPort.closePort();
             addLog("Port closed");
@@ -103,57 +160,130 @@ public class SerialPortManager {
         
         addLog("Testing connection...");
         
-        // Pause reader thread temporarily to avoid conflict
-        pauseReading = true;
-        sleep(200); // Give reader thread time to pause
-        
-        try {
-            // Clear any pending data
-            while (serialPort.bytesAvailable() > 0) {
-                byte[] buffer = new byte[serialPort.bytesAvailable()];
-                serialPort.readBytes(buffer, buffer.length);
-            }
-            
-            // Send AT command
-            sendCommand("AT");
-            
-            // Wait for OK response directly
-            StringBuilder response = new StringBuilder();
-            long startTime = System.currentTimeMillis();
+        // Not while the sender thread or an interactive send is talking to the modem
+        synchronized (portLock) {
+            // Pause reader thread temporarily to avoid conflict
+            pauseReading = true;
+            sleep(200); // Give reader thread time to pause
             
-            while (System.currentTimeMillis() - startTime < 3000) {
-                if (serialPort.bytesAvailable() > 0) {
-                    byte[] buffer = new byte[serialPort.bytesAvailable()];
-                    int numRead = serialPort.readBytes(buffer, buffer.length);
-                    if (numRead > 0) {
-                        String data = new String(buffer, 0, numRead, StandardCharsets.UTF_8);
-                        response.append(data);
-                        addLog("Test RX: " + data.trim());
-                        
-                        if (response.toString().contains("OK")) {
-                            addLog("Test successful!");
-                            return true;
-                        }
-                        
-                        if (response.toString().contains("ERROR")) {
-                            addLog("Test failed: ERROR received");
-                            return false;
+            try {
+                // Clear any pending data, URCs in it still reach the parser
+                while (serialPort.bytesAvailable() > 0) {
+                    readAvailable("RX: ");
+                }
+                
+                // Send AT command
+                sendCommand("AT");
+                
+                // Wait for OK response directly
+                StringBuilder response = new StringBuilder();
+                long startTime = System.currentTimeMillis();
+                
+                while (System.currentTimeMillis() - startTime < 3000) {
+                    if (serialPort.bytesAvailable() > 0) {
+                        String data = readAvailable("Test RX: ");
+                        if (!data.isEmpty()) {
+                            response.append(data);
+                            
+                            if (response.toString().contains("OK")) {
+                                addLog("Test successful!");
+                                return true;
+                            }
+                            
+                            if (response.toString().contains("ERROR")) {
+                                addLog("Test failed: ERROR received");
+                                return false;
+                            }
                         }
                     }
+                    sleep(50);
                 }
-                sleep(50);
+                
+                addLog("Test failed: Timeout (received: " + response.toString().trim() + ")");
+                return false;
+            } finally {
+                // Resume reader thread
+                pauseReading = false;
+                addLog("Reader thread resumed");
             }
-            
-            addLog("Test failed: Timeout (received: " + response.toString().trim() + ")");
-            return false;
-        } finally {
-            // Resume reader thread
-            pauseReading = false;
-            addLog("Reader thread resumed");
         }
     }
     
     public void sendSMS(String phoneNumber, String message) {
+        synchronized (portLock) {
+            sendSMSLocked(phoneNumber, message);
+        }
+    }
+    
+    /**
+     * Add encoded messages to the outbound queue; they are sent in order
+     * by the sender thread while connected, and fail at once otherwise
+     */
+    public void enqueue(Collection<OutboundMessage> messages) {
+        outboundPending.addAndGet(messages.size());
+        outboundQueue.addAll(messages);
+        // Also catches a disconnect that drained the queue meanwhile
+        if (!isConnected) {
+            failOutbound();
+        }
+    }
+    
+    /**
+     * Drop the messages still waiting in the outbound queue; the one
+     * being sent, if any, is finished
+     *
+     * @return The number of messages dropped
+     */
+    public int cancelOutbound() {
+        int dropped = drainOutbound();
+        if (dropped > 0) {
+            addLog("Cancelled " + dropped + " queued SMS");
+        }
+        return dropped;
+    }
+    
+    private void failOutbound() {
+        int dropped = drainOutbound();
+        if (dropped > 0) {
+            outboundFailed.addAndGet(dropped);
+            addLog(dropped + " queued SMS failed: not connected");
+        }
+    }
+    
+    private int drainOutbound() {
+        List<OutboundMessage> dropped = new ArrayList<>();
+        outboundQueue.drainTo(dropped);
+        outboundPending.addAndGet(-dropped.size());
+        return dropped.size();
+    }
+    
+    public int getOutboundQueueSize() {
+        return outboundQueue.size();
+    }
+    
+    /**
+     * @return Messages queued or being sent, 0 once the queue is done
+     */
+    public int getOutboundPendingCount() {
+        return outboundPending.get();
+    }
+    
+    public long getOutboundSentCount() {
+        return outboundSent.get();
+    }
+    
+    public long getOutboundFailedCount() {
+        return outboundFailed.get();
+    }
+    
+    /**
+     * Received messages dropped because they had already been delivered
+     */
+    public long getDuplicateCount() {
+        return duplicateFilter.getSuppressedCount();
+    }
+    
+    private void sendSMSLocked(String phoneNumber, String message) {
         if (!isConnected()) {
             throw new RuntimeException("Not connected to serial port");
         }
@@ -174,25 +304,24 @@ public class SerialPortManager {
             throw new IllegalArgumentException("Message cannot be empty");
         }
         
-        // Check message length (SMS max is 160 for 7-bit, 70 for UCS2)
-        // Use codePointCount for proper emoji handling
+        // Pick the encoding with the fewest segments (GSM 7-bit, national
+        // language shift tables or UCS2) and check the concatenation limit
         boolean isAscii = MessageEncoder.isAscii(message);
-        int actualLength = message.codePointCount(0, message.length());
-        int maxLength = isAscii ? 160 : 70;
-        if (actualLength > maxLength) {
-            throw new IllegalArgumentException("Message too long. Max " + maxLength + " characters for " + 
-                (isAscii ? "English" : "Unicode") + " messages. Current: " + actualLength);
+        SmsEncoding encoding = SmsEncoding.choose(message);
+        if (encoding.segments > SmsEncoding.MAX_SEGMENTS) {
+            throw new IllegalArgumentException("Message too long. Max " + SmsEncoding.MAX_SEGMENTS +
+                " segments. Current: " + encoding.segments + " (" + encoding.describe() + ")");
         }
         
         addLog("Sending SMS to: " + sanitizedPhone);
         addLog("Message: " + message);
         
-        // Detect language and choose encoding
-        if (isAscii) {
+        // Single-part ASCII goes through text mode, everything else as PDUs
+        if (isAscii && encoding.segments == 1) {
             addLog("Detected: English/ASCII - Using 7-bit encoding");
             sendSMS_TextMode(sanitizedPhone, message);
         } else {
-            addLog("Detected: Unicode (Persian/Arabic/etc) - Using PDU mode");
+            addLog("Detected: " + encoding.describe() + ", " + encoding.segments + " segment(s) - Using PDU mode");
             sendSMS_PDUMode(sanitizedPhone, message);
         }
     }
@@ -211,6 +340,11 @@ public class SerialPortManager {
             // Remove any CR/LF to prevent command injection
             String sanitizedMessage = message.replaceAll("[\r\n]", " ");
             
+            // Switch to text mode for sending
+            if (!sendCommandWithResponse("AT+CMGF=1", "OK", 2000)) {
+                throw new RuntimeException("Failed to set text mode");
+            }
+            
             // Use GSM mode
             if (!sendCommandWithResponse("AT+CSCS=\"GSM\"", "OK", 2000)) {
                 throw new RuntimeException("Failed to set GSM mode");
@@ -231,11 +365,7 @@ public class SerialPortManager {
                 
                 while (System.currentTimeMillis() - startTime < 5000) {
                     if (serialPort.bytesAvailable() > 0) {
-                        byte[] buffer = new byte[serialPort.bytesAvailable()];
-                        serialPort.readBytes(buffer, buffer.length);
-                        String data = new String(buffer, StandardCharsets.UTF_8);
-                        response.append(data);
-                        addLog("CMD RX: " + data.trim());
+                        response.append(readAvailable("CMD RX: "));
                         
                         if (response.toString().contains(">")) {
                             addLog("Response received: >");
@@ -265,11 +395,7 @@ public class SerialPortManager {
                 
                 while (System.currentTimeMillis() - startTime < 30000) {
                     if (serialPort.bytesAvailable() > 0) {
-                        byte[] buffer = new byte[serialPort.bytesAvailable()];
-                        serialPort.readBytes(buffer, buffer.length);
-                        String data = new String(buffer, StandardCharsets.UTF_8);
-                        response.append(data);
-                        addLog("CMD RX: " + data.trim());
+                        response.append(readAvailable("CMD RX: "));
                         
                         if (response.toString().contains("OK")) {
                             addLog("SMS sent successfully!");
@@ -288,11 +414,21 @@ public class SerialPortManager {
             } finally {
                 pauseReading = false;
             }
+            
+            // Back to PDU mode for receiving
+            sleep(100);
+            sendCommandWithResponse("AT+CMGF=0", "OK", 2000);
         } catch (Exception e) {
             addLog("Error sending SMS: " + e.getMessage());
             // Try to recover
             sendCommand("\u001B"); // ESC to cancel
             sleep(500);
+            // Try to switch back to PDU mode
+            try {
+                sendCommandWithResponse("AT+CMGF=0", "OK", 2000);
+            } catch (Exception ex) {
+                // Ignore
+            }
             throw e;
         }
     }
@@ -307,104 +443,95 @@ public class SerialPortManager {
                 throw new RuntimeException("Failed to set PDU mode");
             }
             
-            // Encode message to PDU
-            com.sim800l.util.PDUEncoder.PDUResult pduResult = com.sim800l.util.PDUEncoder.encodePDU(phoneNumber, message);
-            String pduString = pduResult.pdu;
-            int tpduLength = pduResult.tpduLength;
+            // Encode message to PDU, one per segment
+            List<PDUEncoder.PDUResult> pduResults = PDUEncoder.encodePDU(phoneNumber, message);
             
-            addLog("PDU: " + pduString);
-            addLog("TPDU Length: " + tpduLength);
+            for (int i = 0; i < pduResults.size(); i++) {
+                addLog("Segment " + (i + 1) + "/" + pduResults.size());
+                sendPDU(pduResults.get(i));
+            }
+        } catch (Exception e) {
+            addLog("Error sending SMS via PDU: " + e.getMessage());
+            // Try to recover
+            sendCommand("\u001B"); // ESC to cancel
+            sleep(500);
+            throw e;
+        }
+    }
+    
+    /**
+     * Submit one PDU with AT+CMGS (modem must already be in PDU mode)
+     */
+    private void sendPDU(PDUEncoder.PDUResult pduResult) {
+        String pduString = pduResult.pdu;
+        int tpduLength = pduResult.tpduLength;
+        
+        addLog("PDU: " + pduString);
+        addLog("TPDU Length: " + tpduLength);
+        
+        // Pause reader thread
+        pauseReading = true;
+        sleep(100);
+        
+        try {
+            // Send AT+CMGS command with TPDU length
+            sendCommand("AT+CMGS=" + tpduLength);
             
-            // Pause reader thread
-            pauseReading = true;
-            sleep(100);
+            // Wait for ">" prompt
+            addLog("Waiting for: >");
+            long startTime = System.currentTimeMillis();
+            StringBuilder response = new StringBuilder();
             
-            try {
-                // Send AT+CMGS command with TPDU length
-                sendCommand("AT+CMGS=" + tpduLength);
-                
-                // Wait for ">" prompt
-                addLog("Waiting for: >");
-                long startTime = System.currentTimeMillis();
-                StringBuilder response = new StringBuilder();
-                
-                while (System.currentTimeMillis() - startTime < 5000) {
-                    if (serialPort.bytesAvailable() > 0) {
-                        byte[] buffer = new byte[serialPort.bytesAvailable()];
-                        serialPort.readBytes(buffer, buffer.length);
-                        String data = new String(buffer, StandardCharsets.UTF_8);
-                        response.append(data);
-                        addLog("CMD RX: " + data.trim());
-                        
-                        if (response.toString().contains(">")) {
-                            addLog("Response received: >");
-                            break;
-                        }
+            while (System.currentTimeMillis() - startTime < 5000) {
+                if (serialPort.bytesAvailable() > 0) {
+                    response.append(readAvailable("CMD RX: "));
+                    
+                    if (response.toString().contains(">")) {
+                        addLog("Response received: >");
+                        break;
                     }
-                    sleep(50);
-                }
-                
-                if (!response.toString().contains(">")) {
-                    throw new RuntimeException("No prompt received for PDU");
                 }
-                
-                addLog("Sending PDU string...");
-                // Send PDU string as ASCII (it's hex string)
-                byte[] pduBytes = pduString.getBytes(StandardCharsets.US_ASCII);
-                serialPort.writeBytes(pduBytes, pduBytes.length);
-                sleep(100);
-                
-                addLog("Sending Ctrl+Z...");
-                // Send Ctrl+Z to submit
-                serialPort.writeBytes(new byte[]{26}, 1);
-                
-                // Wait for OK response
-                startTime = System.currentTimeMillis();
-                response = new StringBuilder();
-                
-                while (System.currentTimeMillis() - startTime < 30000) {
-                    if (serialPort.bytesAvailable() > 0) {
-                        byte[] buffer = new byte[serialPort.bytesAvailable()];
-                        serialPort.readBytes(buffer, buffer.length);
-                        String data = new String(buffer, StandardCharsets.UTF_8);
-                        response.append(data);
-                        addLog("CMD RX: " + data.trim());
-                        
-                        if (response.toString().contains("OK")) {
-                            addLog("SMS sent successfully via PDU mode!");
-                            break;
-                        }
-                        if (response.toString().contains("ERROR")) {
-                            throw new RuntimeException("PDU message not sent - ERROR response");
-                        }
+                sleep(50);
+            }
+            
+            if (!response.toString().contains(">")) {
+                throw new RuntimeException("No prompt received for PDU");
+            }
+            
+            addLog("Sending PDU string...");
+            // Send PDU string as ASCII (it's hex string)
+            byte[] pduBytes = pduString.getBytes(StandardCharsets.US_ASCII);
+            serialPort.writeBytes(pduBytes, pduBytes.length);
+            sleep(100);
+            
+            addLog("Sending Ctrl+Z...");
+            // Send Ctrl+Z to submit
+            serialPort.writeBytes(new byte[]{26}, 1);
+            
+            // Wait for OK response
+            startTime = System.currentTimeMillis();
+            response = new StringBuilder();
+            
+            while (System.currentTimeMillis() - startTime < 30000) {
+                if (serialPort.bytesAvailable() > 0) {
+                    response.append(readAvailable("CMD RX: "));
+                    
+                    if (response.toString().contains("OK")) {
+                        addLog("SMS sent successfully via PDU mode!");
+                        break;
+                    }
+                    if (response.toString().contains("ERROR")) {
+                        throw new RuntimeException("PDU message not sent - ERROR response");
                     }
-                    sleep(100);
-                }
-                
-                if (!response.toString().contains("OK")) {
-                    throw new RuntimeException("PDU message not sent - timeout");
                 }
-                
-                // Switch back to text mode for receiving
-                pauseReading = false;
                 sleep(100);
-                sendCommandWithResponse("AT+CMGF=1", "OK", 2000);
-                
-            } finally {
-                pauseReading = false;
             }
-        } catch (Exception e) {
-            addLog("Error sending SMS via PDU: " + e.getMessage());
-            // Try to switch back to text mode
-            try {
-                sendCommandWithResponse("AT+CMGF=1", "OK", 2000);
-            } catch (Exception ex) {
-                // Ignore
+            
+            if (!response.toString().contains("OK")) {
+                throw new RuntimeException("PDU message not sent - timeout");
             }
-            // Try to recover
-            sendCommand("\u001B"); // ESC to cancel
-            sleep(500);
-            throw e;
+        } finally {
+            pauseReading = false;
         }
     }
     
@@ -418,54 +545,53 @@ public class SerialPortManager {
     }
     
     private boolean sendCommandWithResponse(String command, String expectedResponse, int timeoutMs) {
-        responseBuffer.setLength(0);
-        
-        // Pause reader thread to avoid conflict
-        pauseReading = true;
-        sleep(100);
-        
-        try {
-            // Clear any pending data
-            while (serialPort.bytesAvailable() > 0) {
-                byte[] buffer = new byte[serialPort.bytesAvailable()];
-                serialPort.readBytes(buffer, buffer.length);
-            }
+        // Reentrant: also called by sends that already hold the lock
+        synchronized (portLock) {
+            responseBuffer.setLength(0);
             
-            sendCommand(command);
-            addLog("Waiting for: " + expectedResponse);
-            
-            // Read response directly
-            StringBuilder localBuffer = new StringBuilder();
-            long startTime = System.currentTimeMillis();
+            // Pause reader thread to avoid conflict
+            pauseReading = true;
+            sleep(100);
             
-            while (System.currentTimeMillis() - startTime < timeoutMs) {
-                if (serialPort.bytesAvailable() > 0) {
-                    byte[] buffer = new byte[serialPort.bytesAvailable()];
-                    int numRead = serialPort.readBytes(buffer, buffer.length);
-                    if (numRead > 0) {
-                        String data = new String(buffer, 0, numRead, StandardCharsets.UTF_8);
-                        localBuffer.append(data);
-                        addLog("CMD RX: " + data.trim());
-                        
-                        if (localBuffer.toString().contains(expectedResponse)) {
-                            addLog("Response received: OK");
-                            return true;
-                        }
-                        
-                        if (localBuffer.toString().contains("ERROR")) {
-                            addLog("ERROR response received");
-                            return false;
+            try {
+                // Clear any pending data, URCs in it still reach the parser
+                while (serialPort.bytesAvailable() > 0) {
+                    readAvailable("RX: ");
+                }
+                
+                sendCommand(command);
+                addLog("Waiting for: " + expectedResponse);
+                
+                // Read response directly
+                StringBuilder localBuffer = new StringBuilder();
+                long startTime = System.currentTimeMillis();
+                
+                while (System.currentTimeMillis() - startTime < timeoutMs) {
+                    if (serialPort.bytesAvailable() > 0) {
+                        String data = readAvailable("CMD RX: ");
+                        if (!data.isEmpty()) {
+                            localBuffer.append(data);
+                            
+                            if (localBuffer.toString().contains(expectedResponse)) {
+                                addLog("Response received: OK");
+                                return true;
+                            }
+                            
+                            if (localBuffer.toString().contains("ERROR")) {
+                                addLog("ERROR response received");
+                                return false;
+                            }
                         }
                     }
+                    sleep(50);
                 }
-                sleep(50);
+                
+                addLog("Timeout waiting for: " + expectedResponse);
+                return false;
+            } finally {
+                // Resume reader thread
+                pauseReading = false;
             }
-            
-            addLog("Timeout waiting for: " + expectedResponse);
-            return false;
-        } finally {
-            // Resume reader thread
-            pauseReading = false;
         }
     }
     
@@ -484,12 +610,9 @@ public class SerialPortManager {
             
             while (System.currentTimeMillis() - startTime < timeoutMs) {
                 if (serialPort.bytesAvailable() > 0) {
-                    byte[] buffer = new byte[serialPort.bytesAvailable()];
-                    int numRead = serialPort.readBytes(buffer, buffer.length);
-                    if (numRead > 0) {
-                        String data = new String(buffer, 0, numRead, StandardCharsets.UTF_8);
+                    String data = readAvailable("Wait RX: ");
+                    if (!data.isEmpty()) {
                         localBuffer.append(data);
-                        addLog("Wait RX: " + data.trim());
                         
                         if (localBuffer.toString().contains(expectedResponse)) {
                             return true;
@@ -514,50 +637,56 @@ public class SerialPortManager {
         }
     }
     
+    private void startSenderThread() {
+        senderThread = new Thread(() -> {
+            while (isConnected && !Thread.currentThread().isInterrupted()) {
+                OutboundMessage message;
+                try {
+                    message = outboundQueue.take();
+                } catch (InterruptedException e) {
+                    break;
+                }
+                
+                synchronized (portLock) {
+                    try {
+                        addLog("Queued SMS to: " + message.getPhoneNumber() + " (" + outboundQueue.size() + " left)");
+                        for (PDUEncoder.PDUResult pdu : message.getPdus()) {
+                            sendPDU(pdu);
+                        }
+                        outboundSent.incrementAndGet();
+                        outboundPending.decrementAndGet();
+                    } catch (Exception e) {
+                        addLog("Error sending queued SMS to " + message.getPhoneNumber() + ": " + e.getMessage());
+                        outboundFailed.incrementAndGet();
+                        outboundPending.decrementAndGet();
+                        sendCommand("\u001B"); // ESC to cancel
+                        sleep(500);
+                        continue;
+                    }
+                }
+                
+                if (messageSentCallback != null) {
+                    messageSentCallback.accept(message);
+                }
+            }
+        });
+        senderThread.setDaemon(true);
+        senderThread.start();
+    }
+    
     private void startReaderThread() {
         readerThread = new Thread(() -> {
-            StringBuilder buffer = new StringBuilder();
-            String pendingSender = null;
-            
             while (isConnected && !Thread.interrupted()) {
                 try {
-                    // Check if reading is paused (e.g., during test connection)
+                    // Paused while a command reads its response; URCs read meanwhile
+                    // go through the same parser, see readAvailable
                     if (pauseReading) {
                         Thread.sleep(100);
                         continue;
                     }
                     
                     if (serialPort.bytesAvailable() > 0) {
-                        byte[] readBuffer = new byte[serialPort.bytesAvailable()];
-                        int numRead = serialPort.readBytes(readBuffer, readBuffer.length);
-                        if (numRead > 0) {
-                            String data = new String(readBuffer, 0, numRead, StandardCharsets.UTF_8);
-                            buffer.append(data);
-                            addLog("Reader RX: " + data.trim());
-                        }
-                        
-                        // Process complete lines
-                        while (buffer.indexOf("\r\n") != -1) {
-                            int lineEnd = buffer.indexOf("\r\n");
-                            String line = buffer.substring(0, lineEnd).trim();
-                            buffer.delete(0, lineEnd + 2);
-                            
-                            if (line.startsWith("+CMT:")) {
-                                // Incoming message header
-                                pendingSender = parseSender(line);
-                                addLog("Incoming SMS from: " + pendingSender);
-                            } else if (pendingSender != null && !line.isEmpty() && !line.equals("OK")) {
-                                // Message body
-                                String decodedMessage = MessageEncoder.decode(line);
-                                addLog("SMS Body: " + decodedMessage);
-                                if (messageReceivedCallback != null) {
-                                    final String sender = pendingSender;
-                                    final String msg = decodedMessage;
-                                    messageReceivedCallback.accept(sender, msg);
-                                }
-                                pendingSender = null;
-                            }
-                        }
+                        readAvailable("Reader RX: ");
                     }
                     Thread.sleep(100);
                 } catch (InterruptedException e) {
@@ -571,6 +700,129 @@ public class SerialPortManager {
         readerThread.start();
     }
     
+    /**
+     * Read whatever the modem has sent and feed it to the line parser, so
+     * an incoming +CMT is handled whether the reader thread or a command
+     * waiting for its response reads it
+     * @return The data read, empty if there was none
+     */
+    private String readAvailable(String logPrefix) {
+        int available = serialPort.bytesAvailable();
+        if (available <= 0) {
+            return "";
+        }
+        byte[] readBuffer = new byte[available];
+        int numRead = serialPort.readBytes(readBuffer, readBuffer.length);
+        if (numRead <= 0) {
+            return "";
+        }
+        String data = new String(readBuffer, 0, numRead, StandardCharsets.UTF_8);
+        addLog(logPrefix + data.trim());
+        processLines(data);
+        return data;
+    }
+    
+    /**
+     * Pick incoming messages out of the modem output; command responses
+     * and echoes in it are skipped
+     */
+    private void processLines(String data) {
+        synchronized (lineBuffer) {
+            lineBuffer.append(data);
+            
+            // Process complete lines
+            int lineEnd;
+            while ((lineEnd = lineBuffer.indexOf("\r\n")) != -1) {
+                if (pendingPdu && lineEnd > 0) {
+                    // PDU line: decode in place from the line buffer
+                    pendingPdu = false;
+                    try {
+                        IncomingSms sms = deliverDecoder.decode(lineBuffer, 0, lineEnd);
+                        addLog("Incoming SMS from: " + sms.getSender() + " at " + sms.getTimestamp());
+                        addLog("SMS Body: " + sms.getText());
+                        deliver(sms);
+                    } catch (IllegalArgumentException e) {
+                        addLog("Invalid PDU: " + e.getMessage());
+                    }
+                    lineBuffer.delete(0, lineEnd + 2);
+                    continue;
+                }
+                
+                String line = lineBuffer.substring(0, lineEnd).trim();
+                lineBuffer.delete(0, lineEnd + 2);
+                
+                if (line.startsWith("+CMT:")) {
+                    if (isPduHeader(line)) {
+                        // PDU mode: +CMT: [<alpha>],<length>
+                        pendingPdu = true;
+                    } else {
+                        // Text mode: +CMT: "<oa>",[<alpha>],"<scts>"
+                        pendingSender = parseSender(line);
+                        pendingTimestamp = parseTimestamp(line);
+                        addLog("Incoming SMS from: " + pendingSender);
+                    }
+                } else if (pendingSender != null && !line.isEmpty() && !line.equals("OK")) {
+                    // Message body
+                    String decodedMessage = MessageEncoder.decode(line);
+                    addLog("SMS Body: " + decodedMessage);
+                    deliver(new IncomingSms(pendingSender, decodedMessage, pendingTimestamp));
+                    pendingSender = null;
+                }
+            }
+        }
+    }
+    
+    /**
+     * PDU mode headers end in the TPDU length, text mode ones in the quoted timestamp
+     */
+    private boolean isPduHeader(String cmtLine) {
+        int comma = cmtLine.lastIndexOf(',');
+        if (comma < 0 || comma == cmtLine.length() - 1) {
+            return false;
+        }
+        for (int i = comma + 1; i < cmtLine.length(); i++) {
+            char c = cmtLine.charAt(i);
+            if (c < '0' || c > '9') {
+                return false;
+            }
+        }
+        return true;
+    }
+    
+    /**
+     * Pass a message to the callback, joining concatenated parts first
+     */
+    private void deliver(IncomingSms sms) {
+        if (sms.isConcatenated()) {
+            String key = sms.getSender() + "/" + sms.getConcatReference();
+            IncomingSms[] parts = pendingParts.get(key);
+            if (parts == null || parts.length != sms.getConcatTotal()) {
+                parts = new IncomingSms[sms.getConcatTotal()];
+                pendingParts.put(key, parts);
+            }
+            parts[sms.getConcatSequence() - 1] = sms;
+            
+            StringBuilder text = new StringBuilder();
+            for (IncomingSms part : parts) {
+                if (part == null) {
+                    addLog("Waiting for remaining parts of message " + key);
+                    return;
+                }
+                text.append(part.getText());
+            }
+            pendingParts.remove(key);
+            sms = parts[0].withText(text.toString());
+        }
+        
+        if (duplicateFilter.isDuplicate(sms, System.currentTimeMillis())) {
+            addLog("Duplicate SMS from " + sms.getSender() + " dropped (" + duplicateFilter.getSuppressedCount() + " so far)");
+            return;
+        }
+        if (messageReceivedCallback != null) {
+            messageReceivedCallback.accept(sms);
+        }
+    }
+    
     private String parseSender(String cmtLine) {
         try {
             // Format: +CMT: "+1234567890","","21/01/05,12:30:45+00"
@@ -584,18 +836,8 @@ public class SerialPortManager {
                 }
                 
                 // Check if it's hex-encoded UCS2 (without regex)
-                boolean isHex = sender.length() % 4 == 0 && sender.length() > 0;
-                if (isHex) {
-                    for (int i = 0; i < sender.length(); i++) {
-                        char c = sender.charAt(i);
-                        if (!((c >= '0' && c <= '9') || (c >= 'A' && c <= 'F') || (c >= 'a' && c <= 'f'))) {
-                            isHex = false;
-                            break;
-                        }
-                    }
-                    if (isHex) {
-                        return MessageEncoder.decodeUCS2(sender);
-                    }
+                if (sender.length() % 4 == 0 && HexCodec.isHex(sender)) {
+                    return MessageEncoder.decodeUCS2(sender);
                 }
                 return sender;
             }
@@ -605,6 +847,32 @@ public class SerialPortManager {
         return "Unknown";
     }
     
+    /**
+     * Service centre timestamp of a text mode header, "yy/MM/dd,HH:mm:ss+zz"
+     * with the zone in quarter hours; the local time if it is missing
+     */
+    private OffsetDateTime parseTimestamp(String cmtLine) {
+        String[] parts = cmtLine.split("\"");
+        String scts = parts[parts.length - 1];
+        if (parts.length >= 4 && scts.length() >= 20 && scts.charAt(8) == ',') {
+            try {
+                int quarters = Integer.parseInt(scts.substring(17));
+                return OffsetDateTime.of(
+                    2000 + Integer.parseInt(scts.substring(0, 2)),
+                    Integer.parseInt(scts.substring(3, 5)),
+                    Integer.parseInt(scts.substring(6, 8)),
+                    Integer.parseInt(scts.substring(9, 11)),
+                    Integer.parseInt(scts.substring(12, 14)),
+                    Integer.parseInt(scts.substring(15, 17)),
+                    0,
+                    ZoneOffset.ofTotalSeconds(quarters * 15 * 60));
+            } catch (NumberFormatException | DateTimeException e) {
+                addLog("Invalid SMS timestamp: " + scts);
+            }
+        }
+        return OffsetDateTime.now();
+    }
+    
     private void sleep(int milliseconds) {
         try {
             Thread.sleep(milliseconds);
@@ -0,0 +1,308 @@
+package com.sim800l.ui;
+
+import com.sim800l.model.ChatItem;
+import javafx.collections.ObservableListBase;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * Chats for the chat list, most recent activity first. Kept in a treap
+ * (a balanced tree with subtree sizes) keyed by last-activity time, so
+ * moving a chat to the top, finding a chat's index and getting the chat
+ * at an index are O(log n). A move is reported as one permutation, which
+ * keeps the list's selection on the moved chat.
+ */
+public class ChatList extends ObservableListBase<ChatItem> {
+
+    private final Map<ChatItem, Long> keys = new HashMap<>();
+    private final Random priorities = new Random();
+    private Node root;
+    private long newest = Long.MIN_VALUE;
+
+    /**
+     * Chats ordered by the time of their last message
+     */
+    public ChatList(Collection<ChatItem> chats) {
+        for (ChatItem chat : chats) {
+            long key = chat.getLastActivity();
+            keys.put(chat, key);
+            root = insert(root, new Node(chat, key, priorities.nextInt()));
+            newest = Math.max(newest, key);
+        }
+    }
+
+    @Override
+    public ChatItem get(int index) {
+        if (index < 0 || index >= size()) {
+            throw new IndexOutOfBoundsException("Index: " + index + ", size: " + size());
+        }
+        Node node = root;
+        while (true) {
+            int left = size(node.left);
+            if (index < left) {
+                node = node.left;
+            } else if (index == left) {
+                return node.chat;
+            } else {
+                index -= left + 1;
+                node = node.right;
+            }
+        }
+    }
+
+    @Override
+    public int size() {
+        return size(root);
+    }
+
+    @Override
+    public boolean contains(Object o) {
+        return keys.containsKey(o);
+    }
+
+    @Override
+    public int indexOf(Object o) {
+        Long key = keys.get(o);
+        return key != null ? rank(key, ((ChatItem) o).getPhoneNumber()) : -1;
+    }
+
+    @Override
+    public int lastIndexOf(Object o) {
+        return indexOf(o);
+    }
+
+    /**
+     * Move a chat to the top, adding it if it is not in the list
+     */
+    public void touch(ChatItem chat) {
+        long key = Math.max(System.currentTimeMillis(), newest + 1);
+        newest = key;
+        Long old = keys.put(chat, key);
+        beginChange();
+        if (old == null) {
+            root = insert(root, new Node(chat, key, priorities.nextInt()));
+            nextAdd(0, 1);
+        } else {
+            int from = rank(old, chat.getPhoneNumber());
+            root = delete(root, old, chat.getPhoneNumber());
+            root = insert(root, new Node(chat, key, priorities.nextInt()));
+            if (from == 0) {
+                nextUpdate(0);
+            } else {
+                // The chat goes to 0, the ones above it down by one
+                int[] permutation = new int[from + 1];
+                for (int i = 0; i < from; i++) {
+                    permutation[i] = i + 1;
+                }
+                nextPermutation(0, from + 1, permutation);
+            }
+        }
+        endChange();
+    }
+
+    /**
+     * Move several chats to the top, the last one first, as one add for
+     * the new chats and one permutation for the rest
+     */
+    public void touchAll(List<ChatItem> chats) {
+        Map<ChatItem, Long> touched = new LinkedHashMap<>();
+        for (ChatItem chat : chats) {
+            touched.remove(chat);
+            touched.put(chat, 0L);
+        }
+        long base = Math.max(System.currentTimeMillis(), newest + 1);
+        for (Map.Entry<ChatItem, Long> entry : touched.entrySet()) {
+            entry.setValue(base++);
+        }
+        newest = base - 1;
+
+        int added = 0;
+        for (Map.Entry<ChatItem, Long> entry : touched.entrySet()) {
+            if (!keys.containsKey(entry.getKey())) {
+                keys.put(entry.getKey(), entry.getValue());
+                root = insert(root, new Node(entry.getKey(), entry.getValue(), priorities.nextInt()));
+                added++;
+            }
+        }
+        if (added > 0) {
+            beginChange();
+            nextAdd(0, added);
+            endChange();
+        }
+
+        // Chats above the lowest moved one are the only ones that move
+        int end = 0;
+        for (Map.Entry<ChatItem, Long> entry : touched.entrySet()) {
+            Long old = keys.get(entry.getKey());
+            if (!old.equals(entry.getValue())) {
+                end = Math.max(end, rank(old, entry.getKey().getPhoneNumber()) + 1);
+            }
+        }
+        if (end == 0) {
+            return;
+        }
+        List<ChatItem> before = new ArrayList<>(subList(0, end));
+        for (Map.Entry<ChatItem, Long> entry : touched.entrySet()) {
+            ChatItem chat = entry.getKey();
+            Long old = keys.put(chat, entry.getValue());
+            if (!old.equals(entry.getValue())) {
+                root = delete(root, old, chat.getPhoneNumber());
+                root = insert(root, new Node(chat, entry.getValue(), priorities.nextInt()));
+            }
+        }
+        int[] permutation = new int[end];
+        boolean moved = false;
+        for (int i = 0; i < end; i++) {
+            permutation[i] = indexOf(before.get(i));
+            moved |= permutation[i] != i;
+        }
+        beginChange();
+        if (moved) {
+            nextPermutation(0, end, permutation);
+        } else {
+            for (ChatItem chat : touched.keySet()) {
+                int index = indexOf(chat);
+                if (index < end) {
+                    nextUpdate(index);
+                }
+            }
+        }
+        endChange();
+    }
+
+    @Override
+    public boolean remove(Object o) {
+        Long key = keys.remove(o);
+        if (key == null) {
+            return false;
+        }
+        ChatItem chat = (ChatItem) o;
+        int index = rank(key, chat.getPhoneNumber());
+        root = delete(root, key, chat.getPhoneNumber());
+        beginChange();
+        nextRemove(index, chat);
+        endChange();
+        return true;
+    }
+
+    // Newer first, then by phone number so every chat has its own place
+    private static int compare(Node node, long key, String phoneNumber) {
+        int byKey = Long.compare(key, node.key);
+        return byKey != 0 ? byKey : node.chat.getPhoneNumber().compareTo(phoneNumber);
+    }
+
+    // Number of chats before (key, phoneNumber)
+    private int rank(long key, String phoneNumber) {
+        int rank = 0;
+        Node node = root;
+        while (node != null) {
+            int c = compare(node, key, phoneNumber);
+            if (c < 0) {
+                rank += size(node.left) + 1;
+                node = node.right;
+            } else if (c == 0) {
+                return rank + size(node.left);
+            } else {
+                node = node.left;
+            }
+        }
+        return rank;
+    }
+
+    private static Node insert(Node node, Node added) {
+        if (node == null) {
+            return added;
+        }
+        if (added.priority > node.priority) {
+            Node[] parts = split(node, added.key, added.chat.getPhoneNumber());
+            added.left = parts[0];
+            added.right = parts[1];
+            return update(added);
+        }
+        if (compare(node, added.key, added.chat.getPhoneNumber()) < 0) {
+            node.right = insert(node.right, added);
+        } else {
+            node.left = insert(node.left, added);
+        }
+        return update(node);
+    }
+
+    private static Node delete(Node node, long key, String phoneNumber) {
+        if (node == null) {
+            return null;
+        }
+        int c = compare(node, key, phoneNumber);
+        if (c == 0) {
+            return merge(node.left, node.right);
+        }
+        if (c < 0) {
+            node.right = delete(node.right, key, phoneNumber);
+        } else {
+            node.left = delete(node.left, key, phoneNumber);
+        }
+        return update(node);
+    }
+
+    // Nodes before (key, phoneNumber) and the rest
+    private static Node[] split(Node node, long key, String phoneNumber) {
+        if (node == null) {
+            return new Node[2];
+        }
+        if (compare(node, key, phoneNumber) < 0) {
+            Node[] parts = split(node.right, key, phoneNumber);
+            node.right = parts[0];
+            parts[0] = update(node);
+            return parts;
+        }
+        Node[] parts = split(node.left, key, phoneNumber);
+        node.left = parts[1];
+        parts[1] = update(node);
+        return parts;
+    }
+
+    // All of a before all of b
+    private static Node merge(Node a, Node b) {
+        if (a == null) {
+            return b;
+        }
+        if (b == null) {
+            return a;
+        }
+        if (a.priority > b.priority) {
+            a.right = merge(a.right, b);
+            return update(a);
+        }
+        b.left = merge(a, b.left);
+        return update(b);
+    }
+
+    private static Node update(Node node) {
+        node.size = size(node.left) + size(node.right) + 1;
+        return node;
+    }
+
+    private static int size(Node node) {
+        return node != null ? node.size : 0;
+    }
+
+    private static final class Node {
+        final ChatItem chat;
+        final long key;
+        final int priority;
+        int size = 1;
+        Node left;
+        Node right;
+
+        Node(ChatItem chat, long key, int priority) {
+            this.chat = chat;
+            this.key = key;
+            this.priority = priority;
+        }
+    }
+}
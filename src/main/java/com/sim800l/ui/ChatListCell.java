@@ -6,38 +6,38 @@ import javafx.geometry.Pos;
 import javafx.scene.control.Label;
 import javafx.scene.control.ListCell;
 import javafx.scene.layout.*;
-import javafx.scene.paint.Color;
 import javafx.scene.shape.Circle;
 import javafx.scene.text.Font;
 import javafx.scene.text.FontWeight;
 
+/**
+ * Chat list row. The nodes are built once per cell and updateItem only
+ * sets texts and the badge; colours come from the theme stylesheet.
+ */
 public class ChatListCell extends ListCell<ChatItem> {
     
-    @Override
-    protected void updateItem(ChatItem chat, boolean empty) {
-        super.updateItem(chat, empty);
-        
-        if (empty || chat == null) {
-            setGraphic(null);
-            setText(null);
-            setStyle("-fx-background-color: transparent;");
-            return;
-        }
-        
-        HBox content = new HBox(10);
+    private static final Font NAME_FONT = Font.font("Inter", FontWeight.SEMI_BOLD, 13);
+    private static final Font TIME_FONT = Font.font("Inter", FontWeight.NORMAL, 11);
+    private static final Font PREVIEW_FONT = Font.font("Inter", FontWeight.NORMAL, 12);
+    
+    private final HBox content = new HBox(10);
+    private final Circle avatar = new Circle(18);
+    private final Label initial = new Label();
+    private final Label nameLabel = new Label();
+    private final Label timeLabel = new Label();
+    private final Label lastMsg = new Label();
+    private final StackPane badgePane = new StackPane(new Circle(8));
+    
+    public ChatListCell() {
         content.setPadding(new Insets(10, 12, 10, 12));
         content.setAlignment(Pos.CENTER_LEFT);
+        content.getStyleClass().add("chat-row");
         
         // Avatar - small and minimal
-        Circle avatar = new Circle(18);
-        avatar.setFill(Color.web(Theme.accent()));
-        
-        StackPane avatarPane = new StackPane(avatar);
-        String displayName = chat.getName() != null ? chat.getName() : chat.getPhoneNumber();
-        Label initial = new Label(displayName.substring(0, 1).toUpperCase());
-        initial.setFont(Font.font("Inter", FontWeight.SEMI_BOLD, 13));
-        initial.setTextFill(Color.WHITE);
-        avatarPane.getChildren().add(initial);
+        avatar.getStyleClass().add("avatar");
+        initial.setFont(NAME_FONT);
+        initial.getStyleClass().add("avatar-initial");
+        StackPane avatarPane = new StackPane(avatar, initial);
         
         // Chat info
         VBox chatInfo = new VBox(4);
@@ -46,51 +46,50 @@ public class ChatListCell extends ListCell<ChatItem> {
         HBox nameRow = new HBox(8);
         nameRow.setAlignment(Pos.CENTER_LEFT);
         
-        Label nameLabel = new Label(displayName);
-        nameLabel.setFont(Font.font("Inter", FontWeight.SEMI_BOLD, 13));
-        nameLabel.setTextFill(Color.web(Theme.primaryText()));
+        nameLabel.setFont(NAME_FONT);
+        nameLabel.getStyleClass().add("chat-name");
         
         Region spacer = new Region();
         HBox.setHgrow(spacer, Priority.ALWAYS);
         
-        Label timeLabel = new Label(chat.getLastTime());
-        timeLabel.setFont(Font.font("Inter", FontWeight.NORMAL, 11));
-        timeLabel.setTextFill(Color.web(Theme.mutedText()));
+        timeLabel.setFont(TIME_FONT);
+        timeLabel.getStyleClass().add("chat-time");
         
         nameRow.getChildren().addAll(nameLabel, spacer, timeLabel);
         
-        Label lastMsg = new Label(chat.getLastMessage());
-        lastMsg.setFont(Font.font("Inter", FontWeight.NORMAL, 12));
-        lastMsg.setTextFill(Color.web(Theme.secondaryText()));
+        lastMsg.setFont(PREVIEW_FONT);
+        lastMsg.getStyleClass().add("chat-preview");
         lastMsg.setMaxWidth(200);
         
         chatInfo.getChildren().addAll(nameRow, lastMsg);
         HBox.setHgrow(chatInfo, Priority.ALWAYS);
         
-        content.getChildren().addAll(avatarPane, chatInfo);
+        // Unread badge - minimal, hidden without unread messages
+        badgePane.getChildren().get(0).getStyleClass().add("unread-badge");
+        badgePane.managedProperty().bind(badgePane.visibleProperty());
         
-        // Unread badge - minimal
-        if (chat.getUnreadCount() > 0) {
-            Circle badge = new Circle(8);
-            badge.setFill(Color.web(Theme.error()));
-            StackPane badgePane = new StackPane(badge);
-            content.getChildren().add(badgePane);
-        }
+        content.getChildren().addAll(avatarPane, chatInfo, badgePane);
         
-        setGraphic(content);
         setText(null);
-        setStyle("-fx-background-color: transparent; -fx-padding: 2;");
+        getStyleClass().add("chat-cell");
+    }
+    
+    @Override
+    protected void updateItem(ChatItem chat, boolean empty) {
+        super.updateItem(chat, empty);
         
-        // Simple hover effect
-        setOnMouseEntered(e -> {
-            content.setStyle(
-                "-fx-background-color: " + Theme.tertiaryBg() + ";" +
-                "-fx-background-radius: 6;"
-            );
-        });
+        if (empty || chat == null) {
+            setGraphic(null);
+            return;
+        }
         
-        setOnMouseExited(e -> {
-            content.setStyle("-fx-background-color: transparent;");
-        });
+        String displayName = chat.getName() != null ? chat.getName() : chat.getPhoneNumber();
+        initial.setText(displayName.isEmpty() ? "" : displayName.substring(0, 1).toUpperCase());
+        nameLabel.setText(displayName);
+        timeLabel.setText(chat.getLastTime());
+        lastMsg.setText(chat.getLastMessage());
+        badgePane.setVisible(chat.getUnreadCount() > 0);
+        
+        setGraphic(content);
     }
 }
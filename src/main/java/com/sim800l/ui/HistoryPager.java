@@ -0,0 +1,246 @@
+package com.sim800l.ui;
+
+import com.sim800l.model.ChatItem;
+import com.sim800l.model.MessageItem;
+import com.sim800l.util.DataManager;
+import javafx.application.Platform;
+import javafx.collections.ObservableList;
+import javafx.scene.control.IndexedCell;
+import javafx.scene.control.ListView;
+import javafx.scene.control.skin.VirtualFlow;
+
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Shows a window of at most MAX_PAGES pages of a chat's history in a
+ * ListView instead of the whole history. A chat opens at its last page;
+ * scrolling near the top or bottom reads the next page and adds it
+ * without moving the messages on screen, dropping a page at the other end
+ * when the window is full. All pages, the first one included, are read
+ * from the store on a background thread; the list is empty until the
+ * first one arrives.
+ *
+ * View indexes (in the list) and chat indexes (in the history) differ by
+ * the window start, see toChatIndex() and toViewIndex(). Used from the FX
+ * thread.
+ */
+public class HistoryPager {
+
+    public static final int PAGE_SIZE = 200;
+    public static final int MAX_PAGES = 3;
+    // Share of the scroll range from an edge at which the next page is read
+    private static final double EDGE = 0.05;
+
+    private final ListView<MessageItem> view;
+    private final ObservableList<MessageItem> items;
+    private final ExecutorService reader = Executors.newSingleThreadExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "history-pager");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private ChatItem chat;
+    // Chat indexes of the window, end exclusive
+    private int start;
+    private int end;
+    // Changed by every window change, so a page read before one is dropped
+    private int generation;
+    private boolean loading;
+    private boolean checkPending;
+    // First page of open() or openAt() not read yet; the chat index to scroll to, -1 for the end
+    private boolean opening;
+    private int openTarget;
+
+    public HistoryPager(ListView<MessageItem> view) {
+        this.view = view;
+        this.items = view.getItems();
+        view.skinProperty().addListener((obs, oldSkin, newSkin) -> {
+            VirtualFlow<?> flow = flow();
+            if (flow != null) {
+                flow.positionProperty().addListener((o, oldPosition, newPosition) -> scheduleCheck());
+            }
+        });
+    }
+
+    /**
+     * Show the last page of a chat once it is read
+     */
+    public void open(ChatItem chat) {
+        openWindow(chat, chat.getMessageCount() - PAGE_SIZE, -1);
+    }
+
+    /**
+     * Show the page around a message of a chat once it is read, scrolled
+     * to the message
+     */
+    public void openAt(ChatItem chat, int chatIndex) {
+        openWindow(chat, chatIndex - PAGE_SIZE / 2, chatIndex);
+    }
+
+    public void close() {
+        chat = null;
+        start = 0;
+        end = 0;
+        generation++;
+        loading = false;
+        opening = false;
+        items.clear();
+    }
+
+    /**
+     * Add a message just added to the open chat, if the window shows the
+     * newest messages
+     *
+     * @return True if it was added; the window then still ends at the newest message
+     */
+    public boolean append(MessageItem message) {
+        if (opening) {
+            if (openTarget < 0) {
+                // The page being read may not have it yet
+                openWindow(chat, chat.getMessageCount() - PAGE_SIZE, -1);
+            }
+            return false;
+        }
+        if (chat == null || end != chat.getMessageCount() - 1) {
+            return false;
+        }
+        generation++;
+        items.add(message);
+        end++;
+        int excess = items.size() - PAGE_SIZE * MAX_PAGES;
+        if (excess > 0) {
+            items.remove(0, excess);
+            start += excess;
+        }
+        return true;
+    }
+
+    /**
+     * Remove a message from the window after it was deleted from the chat
+     */
+    public void remove(int viewIndex) {
+        generation++;
+        items.remove(viewIndex);
+        end--;
+    }
+
+    public int toChatIndex(int viewIndex) {
+        return start + viewIndex;
+    }
+
+    /**
+     * @return -1 if the message is outside the window
+     */
+    public int toViewIndex(int chatIndex) {
+        return chatIndex >= start && chatIndex < end ? chatIndex - start : -1;
+    }
+
+    private void openWindow(ChatItem chat, int from, int target) {
+        this.chat = chat;
+        int count = chat.getMessageCount();
+        start = Math.max(0, Math.min(from, count - PAGE_SIZE));
+        end = start;
+        generation++;
+        items.clear();
+        opening = true;
+        openTarget = target;
+        loading = true;
+        int readingStart = start;
+        int readingGeneration = generation;
+        reader.execute(() -> {
+            List<MessageItem> page = DataManager.readMessages(chat, readingStart, readingStart + PAGE_SIZE);
+            Platform.runLater(() -> {
+                if (chat != this.chat || readingGeneration != generation) {
+                    return;
+                }
+                loading = false;
+                opening = false;
+                generation++;
+                items.setAll(page);
+                end = start + page.size();
+                int viewIndex = target < 0 ? items.size() - 1 : toViewIndex(target);
+                if (viewIndex >= 0) {
+                    view.scrollTo(viewIndex);
+                }
+                scheduleCheck();
+            });
+        });
+    }
+
+    // Once per pulse, after the scroll position has settled
+    private void scheduleCheck() {
+        if (!checkPending) {
+            checkPending = true;
+            Platform.runLater(() -> {
+                checkPending = false;
+                checkEdges();
+            });
+        }
+    }
+
+    private void checkEdges() {
+        VirtualFlow<?> flow = flow();
+        if (chat == null || loading || flow == null || items.isEmpty()) {
+            return;
+        }
+        if (flow.getPosition() <= EDGE && start > 0) {
+            readPage(Math.max(0, start - PAGE_SIZE), start, true);
+        } else if (flow.getPosition() >= 1 - EDGE && end < chat.getMessageCount()) {
+            readPage(end, end + PAGE_SIZE, false);
+        }
+    }
+
+    private void readPage(int from, int to, boolean older) {
+        ChatItem reading = chat;
+        int readingGeneration = generation;
+        loading = true;
+        reader.execute(() -> {
+            List<MessageItem> page = DataManager.readMessages(reading, from, to);
+            Platform.runLater(() -> {
+                loading = false;
+                if (reading == chat && readingGeneration == generation && !page.isEmpty()) {
+                    addPage(page, older);
+                }
+                scheduleCheck();
+            });
+        });
+    }
+
+    private void addPage(List<MessageItem> page, boolean older) {
+        VirtualFlow<?> flow = flow();
+        IndexedCell<?> first = flow != null ? flow.getFirstVisibleCell() : null;
+        int anchor = first != null ? first.getIndex() : 0;
+        double offset = first != null ? first.getLayoutY() : 0;
+        generation++;
+        int limit = PAGE_SIZE * MAX_PAGES;
+        if (older) {
+            items.addAll(0, page);
+            start -= page.size();
+            anchor += page.size();
+            if (items.size() > limit) {
+                items.remove(limit, items.size());
+                end = start + limit;
+            }
+        } else {
+            items.addAll(page);
+            end += page.size();
+            int excess = items.size() - limit;
+            if (excess > 0) {
+                items.remove(0, excess);
+                start += excess;
+                anchor -= excess;
+            }
+        }
+        // Put the message that was at the top back where it was
+        view.scrollTo(Math.max(0, anchor));
+        if (flow != null && offset != 0) {
+            view.layout();
+            flow.scrollPixels(-offset);
+        }
+    }
+
+    private VirtualFlow<?> flow() {
+        return (VirtualFlow<?>) view.lookup(".virtual-flow");
+    }
+}
@@ -0,0 +1,88 @@
+package com.sim800l.ui;
+
+import com.sim800l.model.MessageItem;
+import javafx.geometry.Pos;
+import javafx.scene.control.Label;
+import javafx.scene.control.ListCell;
+import javafx.scene.layout.HBox;
+import javafx.scene.layout.VBox;
+import javafx.scene.text.Font;
+
+import java.util.function.IntPredicate;
+
+/**
+ * Message bubble in the chat view. The bubble is built once per cell and
+ * reused for whichever message the list scrolls into it; its look comes
+ * from style classes in the theme stylesheet, only swapped when the
+ * direction or highlight changes.
+ */
+public class MessageCell extends ListCell<MessageItem> {
+
+    private final HBox row = new HBox();
+    private final VBox bubble = new VBox(4);
+    private final Label messageLabel = new Label();
+    private final Label timeLabel = new Label();
+    private final IntPredicate highlighted;
+    // Direction and highlight the style classes are set for, -1 before the first message
+    private int styled = -1;
+
+    /**
+     * @param highlighted Whether the message at a list index is marked, e.g. a search hit
+     */
+    public MessageCell(IntPredicate highlighted) {
+        this.highlighted = highlighted;
+
+        bubble.getStyleClass().add("message-box");
+        bubble.setMaxWidth(500);
+
+        // Label instead of TextField for better emoji support
+        messageLabel.setFont(Font.font("System", 13));
+        messageLabel.getStyleClass().add("message-text");
+        messageLabel.setWrapText(true);
+        messageLabel.setMaxWidth(480);
+
+        timeLabel.setFont(Font.font("Inter", 10));
+        timeLabel.getStyleClass().add("time-label");
+
+        bubble.getChildren().addAll(messageLabel, timeLabel);
+        row.getChildren().add(bubble);
+
+        // Width comes from the list, not from the text
+        setPrefWidth(0);
+        getStyleClass().add("message-cell");
+
+        // The list's shared context menu acts on the selected message
+        setOnContextMenuRequested(e -> {
+            if (!isEmpty()) {
+                getListView().getSelectionModel().select(getIndex());
+            }
+        });
+    }
+
+    @Override
+    protected void updateItem(MessageItem message, boolean empty) {
+        super.updateItem(message, empty);
+        setText(null);
+        if (empty || message == null) {
+            setGraphic(null);
+            return;
+        }
+
+        messageLabel.setText(message.getText());
+        timeLabel.setText(message.getTime());
+
+        boolean outgoing = message.isOutgoing();
+        boolean marked = highlighted.test(getIndex());
+        int state = (outgoing ? 1 : 0) | (marked ? 2 : 0);
+        if (state != styled) {
+            row.setAlignment(outgoing ? Pos.CENTER_RIGHT : Pos.CENTER_LEFT);
+            bubble.getStyleClass().removeAll("sent-message", "received-message", "highlighted");
+            bubble.getStyleClass().add(outgoing ? "sent-message" : "received-message");
+            if (marked) {
+                bubble.getStyleClass().add("highlighted");
+            }
+            styled = state;
+        }
+        setGraphic(row);
+    }
+}
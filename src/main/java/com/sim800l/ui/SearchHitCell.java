@@ -0,0 +1,82 @@
+package com.sim800l.ui;
+
+import com.sim800l.model.MessageItem;
+import com.sim800l.model.SearchHit;
+import javafx.geometry.Insets;
+import javafx.geometry.Pos;
+import javafx.scene.control.Label;
+import javafx.scene.control.ListCell;
+import javafx.scene.layout.*;
+import javafx.scene.text.Font;
+import javafx.scene.text.FontWeight;
+
+import java.time.format.DateTimeFormatter;
+import java.util.function.Function;
+
+/**
+ * Search result row, built once per cell like ChatListCell; updateItem
+ * only sets the texts.
+ */
+public class SearchHitCell extends ListCell<SearchHit> {
+    
+    private static final DateTimeFormatter DATE_FORMATTER = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm");
+    private static final Font NAME_FONT = Font.font("Inter", FontWeight.SEMI_BOLD, 12);
+    private static final Font TIME_FONT = Font.font("Inter", FontWeight.NORMAL, 10);
+    private static final Font TEXT_FONT = Font.font("Inter", FontWeight.NORMAL, 12);
+    
+    private final Function<String, String> displayName;
+    private final VBox content = new VBox(4);
+    private final Label nameLabel = new Label();
+    private final Label timeLabel = new Label();
+    private final Label textLabel = new Label();
+    
+    public SearchHitCell(Function<String, String> displayName) {
+        this.displayName = displayName;
+        
+        content.setPadding(new Insets(8, 12, 8, 12));
+        content.getStyleClass().add("chat-row");
+        
+        HBox nameRow = new HBox(8);
+        nameRow.setAlignment(Pos.CENTER_LEFT);
+        
+        nameLabel.setFont(NAME_FONT);
+        nameLabel.getStyleClass().add("chat-name");
+        
+        Region spacer = new Region();
+        HBox.setHgrow(spacer, Priority.ALWAYS);
+        
+        timeLabel.setFont(TIME_FONT);
+        timeLabel.getStyleClass().add("chat-time");
+        
+        nameRow.getChildren().addAll(nameLabel, spacer, timeLabel);
+        
+        textLabel.setFont(TEXT_FONT);
+        textLabel.getStyleClass().add("chat-preview");
+        textLabel.setWrapText(true);
+        textLabel.setMaxWidth(220);
+        
+        content.getChildren().addAll(nameRow, textLabel);
+        
+        setText(null);
+        getStyleClass().add("chat-cell");
+    }
+    
+    @Override
+    protected void updateItem(SearchHit hit, boolean empty) {
+        super.updateItem(hit, empty);
+        
+        if (empty || hit == null) {
+            setGraphic(null);
+            return;
+        }
+        
+        MessageItem message = hit.getMessage();
+        nameLabel.setText(displayName.apply(hit.getPhoneNumber()));
+        timeLabel.setText(message.getTimestamp().format(DATE_FORMATTER));
+        String text = message.getText();
+        textLabel.setText((message.isOutgoing() ? "You: " : "")
+            + (text.length() > 80 ? text.substring(0, 80) + "..." : text));
+        
+        setGraphic(content);
+    }
+}
@@ -1,7 +1,16 @@
 package com.sim800l.ui;
 
-import javafx.scene.paint.Color;
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+import java.util.EnumMap;
+import java.util.Map;
 
+/**
+ * Colour palette for the two modes, and a stylesheet per mode built from
+ * it. Nodes carry style classes rather than inline styles, so switching
+ * the theme is one stylesheet swap per scene; JavaFX parses each of the
+ * two stylesheets once and caches it by URL.
+ */
 public class Theme {
     
     public enum Mode {
@@ -9,6 +18,8 @@ public class Theme {
     }
     
     private static Mode currentMode = Mode.DARK;
+    // data: URL of each mode's stylesheet, built on first use
+    private static final Map<Mode, String> stylesheets = new EnumMap<>(Mode.class);
     
     // Background colors
     public static String primaryBg() {
@@ -97,6 +108,54 @@ public class Theme {
         return currentMode == Mode.DARK ? "#4a9eff" : "#0969da";
     }
     
+    /**
+     * Stylesheet URL for the current mode, for Scene.getStylesheets()
+     */
+    public static String stylesheet() {
+        return stylesheets.computeIfAbsent(currentMode, mode -> "data:text/css;base64,"
+            + Base64.getEncoder().encodeToString(css().getBytes(StandardCharsets.UTF_8)));
+    }
+    
+    // Style classes used by the application, in the current mode's colours
+    private static String css() {
+        return ".root {"
+            + " -fx-base: " + primaryBg() + ";"
+            + " -fx-background: " + secondaryBg() + ";"
+            + " -fx-control-inner-background: " + tertiaryBg() + ";"
+            + " -fx-text-fill: " + primaryText() + "; }\n"
+            // Message view
+            + ".message-area { -fx-background-color: transparent; -fx-background-insets: 0; -fx-padding: 5; }\n"
+            + ".message-cell { -fx-background-color: transparent; -fx-padding: 5 10 5 10; }\n"
+            + ".message-box { -fx-background-radius: 12; -fx-padding: 10; }\n"
+            + ".sent-message { -fx-background-color: " + outgoingBubble() + "; }\n"
+            + ".sent-message .message-text { -fx-text-fill: white; }\n"
+            + ".sent-message .time-label { -fx-text-fill: rgba(255, 255, 255, 0.7); }\n"
+            + ".received-message { -fx-background-color: " + incomingBubble() + "; }\n"
+            + ".received-message .message-text { -fx-text-fill: " + incomingBubbleText() + "; }\n"
+            + ".received-message .time-label { -fx-text-fill: " + mutedText() + "; }\n"
+            + ".message-box.highlighted { -fx-border-color: " + accent() + "; -fx-border-width: 2; -fx-border-radius: 12; }\n"
+            // Chat list and search results
+            + ".chat-cell { -fx-background-color: transparent; -fx-padding: 2; }\n"
+            + ".chat-row:hover { -fx-background-color: " + tertiaryBg() + "; -fx-background-radius: 6; }\n"
+            + ".chat-name { -fx-text-fill: " + primaryText() + "; }\n"
+            + ".chat-time { -fx-text-fill: " + mutedText() + "; }\n"
+            + ".chat-preview { -fx-text-fill: " + secondaryText() + "; }\n"
+            + ".avatar { -fx-fill: " + accent() + "; }\n"
+            + ".avatar-initial { -fx-text-fill: white; }\n"
+            + ".unread-badge { -fx-fill: " + error() + "; }\n"
+            // Inputs and labels
+            + ".input-field { -fx-text-fill: " + inputText() + "; -fx-prompt-text-fill: " + mutedText() + "; }\n"
+            + ".secondary-label { -fx-text-fill: " + secondaryText() + "; }\n"
+            + ".muted-label { -fx-text-fill: " + mutedText() + "; }\n"
+            + ".error-label { -fx-text-fill: " + error() + "; }\n"
+            + ".log-area { -fx-cursor: text; }\n"
+            // Connection status, the same in both modes
+            + ".status-idle { -fx-text-fill: #999; }\n"
+            + ".status-ok { -fx-text-fill: #4CAF50; }\n"
+            + ".status-error { -fx-text-fill: #f44336; }\n"
+            + ".status-warning { -fx-text-fill: #FFA500; }\n";
+    }
+    
     // Methods
     public static Mode getMode() {
         return currentMode;
@@ -0,0 +1,61 @@
+package com.sim800l.ui;
+
+import javafx.application.Platform;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Consumer;
+
+/**
+ * Collects events from any thread and hands them to the FX thread in
+ * batches: the first event of a batch schedules one drain BATCH_MILLIS
+ * later, and everything submitted until then is applied by that drain.
+ * A burst of events costs one FX task instead of one each.
+ */
+public class UpdatePump<T> {
+
+    public static final long BATCH_MILLIS = 33;
+
+    // One timer thread for all pumps, it only posts drains
+    private static final ScheduledExecutorService TIMER = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "update-pump");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private final Consumer<List<T>> apply;
+    private final ConcurrentLinkedQueue<T> pending = new ConcurrentLinkedQueue<>();
+    private final AtomicBoolean scheduled = new AtomicBoolean();
+
+    /**
+     * @param apply Called on the FX thread with each batch, in submit order
+     */
+    public UpdatePump(Consumer<List<T>> apply) {
+        this.apply = apply;
+    }
+
+    public void submit(T event) {
+        pending.add(event);
+        if (scheduled.compareAndSet(false, true)) {
+            TIMER.schedule(() -> Platform.runLater(this::drain), BATCH_MILLIS, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    private void drain() {
+        // Events submitted from here on start the next batch
+        scheduled.set(false);
+        List<T> batch = new ArrayList<>();
+        T event;
+        while ((event = pending.poll()) != null) {
+            batch.add(event);
+        }
+        if (!batch.isEmpty()) {
+            apply.accept(batch);
+        }
+    }
+}
@@ -0,0 +1,156 @@
+package com.sim800l.util;
+
+import com.sim800l.model.Contact;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+/**
+ * Prefix index over contacts for recipient autocomplete. A contact is
+ * found by the start of its full name, of any word of its name (folded as
+ * in {@link SearchIndex}) or of its number. Numbers in the default country
+ * are indexed without the country code and queries are brought to the
+ * same form, so "+98912", "0912" and "912" all find +98912...
+ *
+ * Kept up to date with add() and remove(); a lookup is a sorted map range
+ * walk that stops after limit contacts. Used from the FX thread.
+ */
+public class ContactIndex {
+
+    // Sorted for prefix ranges, several contacts can share a key
+    private final TreeMap<String, List<Contact>> keys = new TreeMap<>();
+    // Contacts by phone number and the keys they were added under, for remove()
+    private final Map<String, Contact> contacts = new HashMap<>();
+    private final Map<String, List<String>> keysOf = new HashMap<>();
+
+    public ContactIndex() {
+    }
+
+    public ContactIndex(Iterable<Contact> contacts) {
+        for (Contact contact : contacts) {
+            add(contact);
+        }
+    }
+
+    /**
+     * Add a contact, replacing the one with the same phone number
+     */
+    public void add(Contact contact) {
+        remove(contact.getPhoneNumber());
+        List<String> added = keysFor(contact);
+        for (String key : added) {
+            keys.computeIfAbsent(key, k -> new ArrayList<>(1)).add(contact);
+        }
+        contacts.put(contact.getPhoneNumber(), contact);
+        keysOf.put(contact.getPhoneNumber(), added);
+    }
+
+    public void remove(String phoneNumber) {
+        Contact contact = contacts.remove(phoneNumber);
+        if (contact == null) {
+            return;
+        }
+        for (String key : keysOf.remove(phoneNumber)) {
+            List<Contact> sharing = keys.get(key);
+            sharing.remove(contact);
+            if (sharing.isEmpty()) {
+                keys.remove(key);
+            }
+        }
+    }
+
+    public int size() {
+        return contacts.size();
+    }
+
+    /**
+     * Up to limit contacts with a name, name word or number starting with
+     * the query, in key order; all contacts (up to limit) for an empty query
+     */
+    public List<Contact> search(String query, int limit) {
+        String prefix = queryKey(query);
+        Set<Contact> found = new LinkedHashSet<>();
+        Map<String, List<Contact>> range = prefix.isEmpty() ? keys : keys.subMap(prefix, prefix + Character.MAX_VALUE);
+        for (List<Contact> sharing : range.values()) {
+            for (Contact contact : sharing) {
+                found.add(contact);
+                if (found.size() == limit) {
+                    return new ArrayList<>(found);
+                }
+            }
+        }
+        return new ArrayList<>(found);
+    }
+
+    private static List<String> keysFor(Contact contact) {
+        List<String> result = new ArrayList<>();
+        String name = nameKey(contact.getName());
+        if (!name.isEmpty()) {
+            result.add(name);
+        }
+        for (String word : SearchIndex.tokenize(contact.getName())) {
+            // The full name already covers its first word
+            if (!name.startsWith(word)) {
+                addNew(result, word);
+            }
+        }
+        String phone = PhoneNumbers.canonical(contact.getPhoneNumber());
+        addNew(result, phone.startsWith("+") ? numberKey(phone.substring(1)) : nameKey(phone));
+        return result;
+    }
+
+    // International number digits without the default country code
+    private static String numberKey(String digits) {
+        return digits.startsWith(PhoneNumbers.DEFAULT_COUNTRY_CODE)
+            ? digits.substring(PhoneNumbers.DEFAULT_COUNTRY_CODE.length())
+            : digits;
+    }
+
+    private static void addNew(List<String> keys, String key) {
+        if (!key.isEmpty() && !keys.contains(key)) {
+            keys.add(key);
+        }
+    }
+
+    /**
+     * Number key for something that looks like a number (national numbers
+     * lose the 0), the folded text otherwise
+     */
+    private static String queryKey(String query) {
+        String trimmed = query.trim();
+        boolean number = !trimmed.isEmpty();
+        for (int i = 0; i < trimmed.length() && number; i++) {
+            char c = trimmed.charAt(i);
+            number = Character.isDigit(c) || c == '+' || c == ' ' || c == '-' || c == '(' || c == ')';
+        }
+        if (number) {
+            String normalized = PhoneNumbers.normalize(trimmed);
+            if (normalized.startsWith("+")) {
+                return numberKey(normalized.substring(1));
+            }
+            return normalized.startsWith("0") ? normalized.substring(1) : normalized;
+        }
+        return nameKey(trimmed);
+    }
+
+    // Folded text with runs of spaces and punctuation made one space
+    private static String nameKey(String text) {
+        String folded = SearchIndex.normalize(text);
+        StringBuilder key = new StringBuilder(folded.length());
+        for (int i = 0; i < folded.length(); i++) {
+            char c = folded.charAt(i);
+            if (Character.isLetterOrDigit(c)) {
+                key.append(c);
+            } else if (key.length() > 0 && key.charAt(key.length() - 1) != ' ') {
+                key.append(' ');
+            }
+        }
+        int end = key.length();
+        return end > 0 && key.charAt(end - 1) == ' ' ? key.substring(0, end - 1) : key.toString();
+    }
+}
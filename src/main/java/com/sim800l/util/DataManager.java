@@ -2,14 +2,33 @@ package com.sim800l.util;
 
 import com.sim800l.model.ChatItem;
 import com.sim800l.model.Contact;
+import com.sim800l.model.MessageItem;
+import com.sim800l.model.SearchHit;
 
 import java.io.*;
+import java.nio.channels.FileChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
 import java.util.*;
 
 public class DataManager {
     private static final String DATA_DIR = System.getProperty("user.home") + "/.sim800l";
-    private static final String CHATS_FILE = DATA_DIR + "/chats.dat";
-    private static final String CONTACTS_FILE = DATA_DIR + "/contacts.dat";
+    private static final String INDEX_FILE = DATA_DIR + "/chats.idx";
+    private static final String CONTACTS_FILE = DATA_DIR + "/contacts.bin";
+    private static final String JOURNAL_DIR = DATA_DIR + "/journal";
+    
+    private static final MessageJournal JOURNAL = new MessageJournal(new File(JOURNAL_DIR));
+    private static final PersistenceService PERSISTENCE = new PersistenceService(JOURNAL, contacts -> {
+        try {
+            writeContacts(contacts, new File(CONTACTS_FILE));
+        } catch (IOException e) {
+            System.err.println("Error saving contacts: " + e.getMessage());
+        }
+    });
+    private static final MessageStore STORE = new MessageStore(JOURNAL, PERSISTENCE, new File(INDEX_FILE));
     
     static {
         // Create data directory if it doesn't exist
@@ -17,115 +36,174 @@ public class DataManager {
         if (!dir.exists()) {
             dir.mkdirs();
         }
+        // Convert storage files from older versions
+        StorageMigrator.migrate(dir);
+        PERSISTENCE.start();
     }
     
-    // Save chats
-    public static void saveChats(Map<String, ChatItem> chatMap) {
-        try (ObjectOutputStream oos = new ObjectOutputStream(new FileOutputStream(CHATS_FILE))) {
-            oos.writeObject(chatMap);
-        } catch (IOException e) {
-            System.err.println("Error saving chats: " + e.getMessage());
-        }
+    // Load chat summaries; histories are read a page at a time with readMessages
+    public static Map<String, ChatItem> loadChats() {
+        return STORE.open();
     }
     
-    // Load chats with security checks
-    @SuppressWarnings("unchecked")
-    public static Map<String, ChatItem> loadChats() {
-        File file = new File(CHATS_FILE);
-        if (!file.exists()) {
-            return new HashMap<>();
-        }
-        
-        // Check file size to prevent DoS (max 10MB)
-        if (file.length() > 10 * 1024 * 1024) {
-            System.err.println("Chats file too large - possible corruption");
-            return new HashMap<>();
-        }
-        
-        try (ObjectInputStream ois = new ObjectInputStream(new FileInputStream(file))) {
-            Object obj = ois.readObject();
-            
-            // Validate type before casting
-            if (!(obj instanceof Map)) {
-                System.err.println("Invalid chats file format");
-                return new HashMap<>();
-            }
-            
-            Map<?, ?> rawMap = (Map<?, ?>) obj;
-            Map<String, ChatItem> result = new HashMap<>();
-            
-            // Validate each entry
-            for (Map.Entry<?, ?> entry : rawMap.entrySet()) {
-                if (entry.getKey() instanceof String && entry.getValue() instanceof ChatItem) {
-                    result.put((String) entry.getKey(), (ChatItem) entry.getValue());
-                }
-            }
-            
-            return result;
-        } catch (IOException | ClassNotFoundException e) {
-            System.err.println("Error loading chats: " + e.getMessage());
-            return new HashMap<>();
-        }
+    // Messages from index to end (exclusive) without loading the whole history
+    public static List<MessageItem> readMessages(ChatItem chat, int from, int to) {
+        return STORE.readMessages(chat.getPhoneNumber(), from, to);
+    }
+    
+    // Journaled changes, one small append each, written behind by the persistence thread
+    public static void appendMessage(ChatItem chat, MessageItem message) {
+        STORE.appendMessage(chat, message);
+    }
+    
+    public static void deleteMessage(ChatItem chat, int index) {
+        STORE.deleteMessage(chat, index);
+    }
+    
+    public static void renameChat(ChatItem chat, String name) {
+        STORE.renameChat(chat, name);
+    }
+    
+    // Ranked full-text search over all chats
+    public static List<SearchHit> searchMessages(String query, int limit) {
+        return STORE.search(query, limit);
+    }
+    
+    public static ChatItem getChat(String phoneNumber) {
+        return STORE.getChat(phoneNumber);
+    }
+    
+    // Streaming CSV/JSONL export and import, see DataTransfer; call from a background thread
+    public static long exportMessages(File file, DataTransfer.ProgressListener listener) throws IOException {
+        return DataTransfer.exportMessages(STORE, file, listener);
+    }
+    
+    public static DataTransfer.Result importMessages(File file, DataTransfer.ProgressListener listener) throws IOException {
+        return DataTransfer.importMessages(STORE, file, listener);
+    }
+    
+    public static long exportContacts(Collection<Contact> contacts, File file, DataTransfer.ProgressListener listener)
+            throws IOException {
+        return DataTransfer.exportContacts(contacts, file, listener);
+    }
+    
+    public static DataTransfer.Result importContacts(Collection<Contact> existing, File file,
+            DataTransfer.ProgressListener listener) throws IOException {
+        return DataTransfer.importContacts(existing, file, listener);
     }
     
-    // Save contacts
+    // Save contacts, coalesced and written behind
     public static void saveContacts(Map<String, Contact> contacts) {
-        try (ObjectOutputStream oos = new ObjectOutputStream(new FileOutputStream(CONTACTS_FILE))) {
-            oos.writeObject(contacts);
-        } catch (IOException e) {
-            System.err.println("Error saving contacts: " + e.getMessage());
-        }
+        PERSISTENCE.saveContacts(contacts);
     }
     
-    // Load contacts with security checks
-    @SuppressWarnings("unchecked")
+    // Load contacts by canonical phone number, skipping invalid entries; numbers
+    // saved in another form are converted and duplicates merged
     public static Map<String, Contact> loadContacts() {
+        Map<String, Contact> result = new HashMap<>();
         File file = new File(CONTACTS_FILE);
         if (!file.exists()) {
-            return new HashMap<>();
-        }
-        
-        // Check file size to prevent DoS (max 10MB)
-        if (file.length() > 10 * 1024 * 1024) {
-            System.err.println("Contacts file too large - possible corruption");
-            return new HashMap<>();
+            return result;
         }
         
-        try (ObjectInputStream ois = new ObjectInputStream(new FileInputStream(file))) {
-            Object obj = ois.readObject();
-            
-            // Validate type before casting
-            if (!(obj instanceof Map)) {
-                System.err.println("Invalid contacts file format");
-                return new HashMap<>();
-            }
-            
-            Map<?, ?> rawMap = (Map<?, ?>) obj;
-            Map<String, Contact> result = new HashMap<>();
-            
-            // Validate each entry
-            for (Map.Entry<?, ?> entry : rawMap.entrySet()) {
-                if (entry.getKey() instanceof String && entry.getValue() instanceof Contact) {
-                    result.put((String) entry.getKey(), (Contact) entry.getValue());
+        boolean changed = false;
+        try (RecordReader reader = new RecordReader(FileChannel.open(file.toPath(), StandardOpenOption.READ))) {
+            reader.readHeader(StorageFormat.KIND_CONTACTS);
+            int type;
+            while ((type = reader.next()) != RecordReader.END) {
+                if (type != StorageFormat.CONTACT) {
+                    continue;
+                }
+                String phone = reader.readText();
+                String name = reader.readText();
+                String email = reader.readText();
+                String notes = reader.readText();
+                try {
+                    String key = PhoneNumbers.canonical(phone);
+                    Contact previous = result.get(key);
+                    if (previous != null) {
+                        // Same number saved twice, keep the first and fill in what it lacks
+                        if (previous.getEmail().isEmpty()) {
+                            previous.setEmail(email);
+                        }
+                        if (previous.getNotes().isEmpty()) {
+                            previous.setNotes(notes);
+                        }
+                        changed = true;
+                        continue;
+                    }
+                    Contact contact = new Contact(key, name);
+                    contact.setEmail(email);
+                    contact.setNotes(notes);
+                    result.put(key, contact);
+                    changed |= !key.equals(phone);
+                } catch (IllegalArgumentException e) {
+                    System.err.println("Skipping invalid contact: " + e.getMessage());
                 }
             }
-            
-            return result;
-        } catch (IOException | ClassNotFoundException e) {
+        } catch (IOException e) {
             System.err.println("Error loading contacts: " + e.getMessage());
-            return new HashMap<>();
+        }
+        if (changed) {
+            saveContacts(result);
+        }
+        return result;
+    }
+    
+    static void writeContacts(Map<String, Contact> contacts, File file) throws IOException {
+        Path temp = tempFor(file);
+        try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+             RecordWriter writer = new RecordWriter(channel, StorageFormat.KIND_CONTACTS)) {
+            for (Contact contact : contacts.values()) {
+                writer.begin(StorageFormat.CONTACT)
+                    .writeText(contact.getPhoneNumber())
+                    .writeText(contact.getName())
+                    .writeText(contact.getEmail())
+                    .writeText(contact.getNotes())
+                    .end();
+            }
+            writer.sync();
+        }
+        replace(temp, file);
+    }
+    
+    static Path tempFor(File file) {
+        return new File(file.getPath() + ".tmp").toPath();
+    }
+    
+    static void replace(Path temp, File target) throws IOException {
+        try {
+            Files.move(temp, target.toPath(), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(temp, target.toPath(), StandardCopyOption.REPLACE_EXISTING);
         }
     }
     
     // Delete chat
     public static void deleteChat(String phoneNumber, Map<String, ChatItem> chatMap) {
         chatMap.remove(phoneNumber);
-        saveChats(chatMap);
+        STORE.deleteChat(phoneNumber);
+    }
+    
+    // Write everything pending and the chat index; called on application exit
+    public static void close() {
+        STORE.stopIndexing();
+        STORE.awaitMaintenance();
+        PERSISTENCE.stop();
+        STORE.writeIndex();
+        JOURNAL.close();
     }
     
     // Clear all data
     public static void clearAllData() {
-        new File(CHATS_FILE).delete();
+        STORE.stopIndexing();
+        STORE.awaitMaintenance();
+        PERSISTENCE.flush();
+        JOURNAL.close();
+        JOURNAL.delete();
+        new File(INDEX_FILE).delete();
         new File(CONTACTS_FILE).delete();
+        STORE.open();
     }
 }
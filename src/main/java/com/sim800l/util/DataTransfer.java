@@ -0,0 +1,695 @@
+package com.sim800l.util;
+
+import com.sim800l.model.Contact;
+import com.sim800l.model.MessageItem;
+
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.time.DateTimeException;
+import java.time.LocalDateTime;
+import java.time.OffsetDateTime;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Streaming export and import of messages and contacts as CSV or JSON
+ * Lines. Records are written and parsed one at a time, so memory use does
+ * not grow with the size of the file or the history.
+ *
+ * Messages have phone, direction ("in" or "out"), timestamp (ISO local
+ * date-time) and text; contacts have phone, name, email and notes. CSV
+ * files start with a header row and quote as in RFC 4180, a file without
+ * a header is read in that column order. JSONL files have one object per
+ * line with the same field names.
+ */
+public final class DataTransfer {
+
+    public enum Format {
+        CSV, JSONL;
+
+        public static Format of(File file) {
+            String name = file.getName().toLowerCase();
+            return name.endsWith(".jsonl") || name.endsWith(".json") ? JSONL : CSV;
+        }
+    }
+
+    /**
+     * Reports records done so far and the current rate
+     */
+    public interface ProgressListener {
+        void onProgress(long records, double perSecond);
+    }
+
+    public static final String[] MESSAGE_FIELDS = {"phone", "direction", "timestamp", "text"};
+    public static final String[] CONTACT_FIELDS = {"phone", "name", "email", "notes"};
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+    private static final int PROGRESS_INTERVAL = 10000;
+
+    private DataTransfer() {
+    }
+
+    public static long exportMessages(MessageStore store, File file, ProgressListener listener) throws IOException {
+        try (Output out = new Output(file, MESSAGE_FIELDS, listener)) {
+            store.forEachMessage((phoneNumber, message) -> out.write(
+                phoneNumber,
+                message.isOutgoing() ? "out" : "in",
+                message.getTimestamp().toString(),
+                message.getText()));
+            return out.count;
+        }
+    }
+
+    public static long exportContacts(Collection<Contact> contacts, File file, ProgressListener listener)
+            throws IOException {
+        try (Output out = new Output(file, CONTACT_FIELDS, listener)) {
+            for (Contact contact : contacts) {
+                out.write(contact.getPhoneNumber(), contact.getName(), contact.getEmail(), contact.getNotes());
+            }
+            return out.count;
+        }
+    }
+
+    /**
+     * Append the messages in a file to their chats, skipping ones already
+     * there, see {@link MessageStore.Importer}
+     */
+    public static Result importMessages(MessageStore store, File file, ProgressListener listener) throws IOException {
+        MessageStore.Importer importer = store.importer();
+        try (Input in = new Input(file, MESSAGE_FIELDS, listener)) {
+            long skipped = 0;
+            String[] record;
+            while ((record = in.next()) != null) {
+                MessageItem message = toMessage(record);
+                if (message == null) {
+                    skipped++;
+                    continue;
+                }
+                importer.add(record[0], message);
+            }
+            importer.finish();
+            return new Result(in.count, importer.getAdded(), importer.getDuplicates(),
+                skipped + in.skipped, importer.getChats(), Collections.emptyMap());
+        } catch (IOException e) {
+            // Keep what was read before the failure
+            importer.finish();
+            throw e;
+        }
+    }
+
+    /**
+     * Read contacts from a file and merge them with the existing ones by
+     * canonical phone number: a known number updates that contact with
+     * the fields the file has, a new one is added under its canonical
+     * number
+     * @return Result with the new and changed contacts, by phone number
+     */
+    public static Result importContacts(Collection<Contact> existing, File file, ProgressListener listener)
+            throws IOException {
+        Map<String, Contact> known = new HashMap<>();
+        for (Contact contact : existing) {
+            known.put(PhoneNumbers.canonical(contact.getPhoneNumber()), contact);
+        }
+        Map<String, Contact> changed = new LinkedHashMap<>();
+        long added = 0;
+        long duplicates = 0;
+        long skipped = 0;
+        try (Input in = new Input(file, CONTACT_FIELDS, listener)) {
+            String[] record;
+            while ((record = in.next()) != null) {
+                String canonical = PhoneNumbers.canonical(record[0]);
+                Contact previous = known.get(canonical);
+                String phoneNumber = previous != null ? previous.getPhoneNumber() : canonical;
+                Contact contact;
+                try {
+                    contact = new Contact(phoneNumber, record[1].trim().isEmpty()
+                        ? (previous != null ? previous.getName() : phoneNumber) : record[1].trim());
+                } catch (IllegalArgumentException e) {
+                    skipped++;
+                    continue;
+                }
+                contact.setEmail(!record[2].isEmpty() || previous == null ? record[2] : previous.getEmail());
+                contact.setNotes(!record[3].isEmpty() || previous == null ? record[3] : previous.getNotes());
+                if (previous == null) {
+                    added++;
+                } else {
+                    duplicates++;
+                }
+                known.put(canonical, contact);
+                changed.put(phoneNumber, contact);
+            }
+            return new Result(in.count, added, duplicates, skipped + in.skipped, changed.keySet(), changed);
+        }
+    }
+
+    private static MessageItem toMessage(String[] record) {
+        if (record[0].trim().isEmpty()) {
+            return null;
+        }
+        String direction = record[1].trim().toLowerCase();
+        boolean outgoing = direction.equals("out") || direction.equals("outgoing") || direction.equals("sent");
+        LocalDateTime timestamp = parseTime(record[2].trim());
+        return timestamp != null ? new MessageItem(record[3], outgoing, timestamp) : null;
+    }
+
+    /**
+     * ISO local or offset date-time, or epoch milliseconds
+     */
+    private static LocalDateTime parseTime(String value) {
+        if (value.isEmpty()) {
+            return null;
+        }
+        try {
+            if (value.chars().allMatch(Character::isDigit)) {
+                return StorageFormat.toLocal(Long.parseLong(value));
+            }
+            if (value.endsWith("Z") || value.lastIndexOf('+') > 0 || value.lastIndexOf('-') > 9) {
+                return OffsetDateTime.parse(value).atZoneSameInstant(ZoneId.systemDefault()).toLocalDateTime();
+            }
+            LocalDateTime exported = parseExported(value);
+            return exported != null ? exported : LocalDateTime.parse(value);
+        } catch (DateTimeException | NumberFormatException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Fast path for the form export writes, yyyy-MM-ddTHH:mm[:ss[.fraction]]
+     * @return Null if the value has another form
+     */
+    private static LocalDateTime parseExported(String value) {
+        int length = value.length();
+        if (length < 16 || value.charAt(4) != '-' || value.charAt(7) != '-' || value.charAt(10) != 'T'
+                || value.charAt(13) != ':' || (length > 16 && (length < 19 || value.charAt(16) != ':'))
+                || (length > 19 && (length < 21 || value.charAt(19) != '.' || length > 29))) {
+            return null;
+        }
+        int nanos = 0;
+        for (int i = 20; i < 29; i++) {
+            nanos = nanos * 10 + (i < length ? digits(value, i, i + 1) : 0);
+        }
+        return LocalDateTime.of(digits(value, 0, 4), digits(value, 5, 7), digits(value, 8, 10),
+            digits(value, 11, 13), digits(value, 14, 16), length > 16 ? digits(value, 17, 19) : 0, nanos);
+    }
+
+    private static int digits(String value, int from, int to) {
+        int result = 0;
+        for (int i = from; i < to; i++) {
+            char c = value.charAt(i);
+            if (c < '0' || c > '9') {
+                throw new NumberFormatException(value);
+            }
+            result = result * 10 + c - '0';
+        }
+        return result;
+    }
+
+    /**
+     * Counts of an import
+     */
+    public static final class Result {
+        private final long read;
+        private final long added;
+        private final long duplicates;
+        private final long skipped;
+        private final Set<String> phoneNumbers;
+        private final Map<String, Contact> contacts;
+
+        Result(long read, long added, long duplicates, long skipped,
+               Set<String> phoneNumbers, Map<String, Contact> contacts) {
+            this.read = read;
+            this.added = added;
+            this.duplicates = duplicates;
+            this.skipped = skipped;
+            this.phoneNumbers = phoneNumbers;
+            this.contacts = contacts;
+        }
+
+        public long getRead() {
+            return read;
+        }
+
+        public long getAdded() {
+            return added;
+        }
+
+        /**
+         * Records already present: messages skipped, contacts updated
+         */
+        public long getDuplicates() {
+            return duplicates;
+        }
+
+        /**
+         * Records that could not be parsed
+         */
+        public long getSkipped() {
+            return skipped;
+        }
+
+        /**
+         * Chats messages were added to, or phone numbers of the contacts
+         */
+        public Set<String> getPhoneNumbers() {
+            return phoneNumbers;
+        }
+
+        /**
+         * New and changed contacts by phone number
+         */
+        public Map<String, Contact> getContacts() {
+            return contacts;
+        }
+    }
+
+    /**
+     * Writes records in the format of the file's extension
+     */
+    private static final class Output implements Closeable {
+        private final Writer out;
+        private final Format format;
+        private final String[] fields;
+        private final ProgressListener listener;
+        private final long started = System.nanoTime();
+        private long count;
+
+        Output(File file, String[] fields, ProgressListener listener) throws IOException {
+            this.out = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(file), StandardCharsets.UTF_8),
+                BUFFER_SIZE);
+            this.format = Format.of(file);
+            this.fields = fields;
+            this.listener = listener;
+            if (format == Format.CSV) {
+                write(fields);
+                count = 0;
+            }
+        }
+
+        void write(String... values) throws IOException {
+            StringBuilder line = new StringBuilder(128);
+            if (format == Format.CSV) {
+                for (int i = 0; i < values.length; i++) {
+                    if (i > 0) {
+                        line.append(',');
+                    }
+                    appendCsv(line, values[i]);
+                }
+            } else {
+                line.append('{');
+                for (int i = 0; i < values.length; i++) {
+                    if (i > 0) {
+                        line.append(',');
+                    }
+                    appendJson(line, fields[i]);
+                    line.append(':');
+                    appendJson(line, values[i]);
+                }
+                line.append('}');
+            }
+            line.append('\n');
+            out.append(line);
+            if (++count % PROGRESS_INTERVAL == 0) {
+                report(listener, count, started);
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            out.close();
+            report(listener, count, started);
+        }
+    }
+
+    private static void appendCsv(StringBuilder line, String value) {
+        if (value == null) {
+            return;
+        }
+        boolean quote = false;
+        for (int i = 0; i < value.length() && !quote; i++) {
+            char c = value.charAt(i);
+            quote = c == ',' || c == '"' || c == '\n' || c == '\r';
+        }
+        if (!quote) {
+            line.append(value);
+            return;
+        }
+        line.append('"');
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == '"') {
+                line.append('"');
+            }
+            line.append(c);
+        }
+        line.append('"');
+    }
+
+    private static void appendJson(StringBuilder line, String value) {
+        line.append('"');
+        String text = value != null ? value : "";
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            switch (c) {
+                case '"':
+                    line.append("\\\"");
+                    break;
+                case '\\':
+                    line.append("\\\\");
+                    break;
+                case '\n':
+                    line.append("\\n");
+                    break;
+                case '\r':
+                    line.append("\\r");
+                    break;
+                case '\t':
+                    line.append("\\t");
+                    break;
+                default:
+                    if (c < 0x20) {
+                        line.append(String.format("\\u%04x", (int) c));
+                    } else {
+                        line.append(c);
+                    }
+                    break;
+            }
+        }
+        line.append('"');
+    }
+
+    private static void report(ProgressListener listener, long count, long started) {
+        if (listener != null) {
+            double seconds = (System.nanoTime() - started) / 1e9;
+            listener.onProgress(count, seconds > 0 ? count / seconds : 0);
+        }
+    }
+
+    /**
+     * Reads records in the format of the file's extension; next() returns
+     * the values of the requested fields in order, "" where missing
+     */
+    private static final class Input implements Closeable {
+        private final Reader in;
+        private final Format format;
+        private final String[] fields;
+        private final ProgressListener listener;
+        private final long started = System.nanoTime();
+        private final char[] buffer = new char[BUFFER_SIZE];
+        private final StringBuilder cell = new StringBuilder();
+        private final List<String> cells = new ArrayList<>();
+        private int position;
+        private int limit;
+        // Column of each field in a CSV file
+        private int[] columns;
+        private long count;
+        private long skipped;
+
+        Input(File file, String[] fields, ProgressListener listener) throws IOException {
+            this.in = new InputStreamReader(new FileInputStream(file), StandardCharsets.UTF_8);
+            this.format = Format.of(file);
+            this.fields = fields;
+            this.listener = listener;
+            if (peek() == '\uFEFF') {
+                position++;
+            }
+        }
+
+        String[] next() throws IOException {
+            String[] values = format == Format.CSV ? nextCsv() : nextJson();
+            if (values != null && ++count % PROGRESS_INTERVAL == 0) {
+                report(listener, count, started);
+            }
+            return values;
+        }
+
+        private String[] nextCsv() throws IOException {
+            while (readCsvRecord()) {
+                if (columns == null) {
+                    columns = new int[fields.length];
+                    boolean header = false;
+                    for (int i = 0; i < fields.length; i++) {
+                        columns[i] = indexOf(cells, fields[i]);
+                        header |= columns[i] >= 0;
+                    }
+                    if (header) {
+                        continue;
+                    }
+                    for (int i = 0; i < fields.length; i++) {
+                        columns[i] = i;
+                    }
+                }
+                if (cells.size() == 1 && cells.get(0).isEmpty()) {
+                    continue;
+                }
+                String[] values = new String[fields.length];
+                for (int i = 0; i < fields.length; i++) {
+                    values[i] = columns[i] >= 0 && columns[i] < cells.size() ? cells.get(columns[i]) : "";
+                }
+                return values;
+            }
+            return null;
+        }
+
+        private static int indexOf(List<String> cells, String field) {
+            for (int i = 0; i < cells.size(); i++) {
+                if (cells.get(i).trim().equalsIgnoreCase(field)) {
+                    return i;
+                }
+            }
+            return -1;
+        }
+
+        /**
+         * Read one CSV record into cells
+         * @return False at the end of the file
+         */
+        private boolean readCsvRecord() throws IOException {
+            cells.clear();
+            cell.setLength(0);
+            if (peek() < 0) {
+                return false;
+            }
+            boolean quoted = false;
+            while (true) {
+                int c = read();
+                if (quoted) {
+                    if (c < 0) {
+                        break;
+                    }
+                    if (c == '"') {
+                        if (peek() == '"') {
+                            position++;
+                            cell.append('"');
+                        } else {
+                            quoted = false;
+                        }
+                    } else {
+                        cell.append((char) c);
+                    }
+                } else if (c == '"' && cell.length() == 0) {
+                    quoted = true;
+                } else if (c == ',') {
+                    cells.add(cell.toString());
+                    cell.setLength(0);
+                } else if (c == '\n' || c < 0) {
+                    break;
+                } else if (c != '\r') {
+                    cell.append((char) c);
+                }
+            }
+            cells.add(cell.toString());
+            return true;
+        }
+
+        private String[] nextJson() throws IOException {
+            while (readLine()) {
+                String line = cell.toString().trim();
+                if (line.isEmpty()) {
+                    continue;
+                }
+                String[] values = new String[fields.length];
+                Arrays.fill(values, "");
+                if (JsonObject.parse(line, fields, values)) {
+                    return values;
+                }
+                skipped++;
+            }
+            return null;
+        }
+
+        private boolean readLine() throws IOException {
+            cell.setLength(0);
+            if (peek() < 0) {
+                return false;
+            }
+            int c;
+            while ((c = read()) >= 0 && c != '\n') {
+                cell.append((char) c);
+            }
+            return true;
+        }
+
+        private int peek() throws IOException {
+            if (position == limit) {
+                limit = in.read(buffer, 0, buffer.length);
+                position = 0;
+                if (limit <= 0) {
+                    limit = 0;
+                    return -1;
+                }
+            }
+            return buffer[position];
+        }
+
+        private int read() throws IOException {
+            int c = peek();
+            if (c >= 0) {
+                position++;
+            }
+            return c;
+        }
+
+        @Override
+        public void close() throws IOException {
+            in.close();
+            report(listener, count, started);
+        }
+    }
+
+    /**
+     * Parser for one flat JSON object per line; nested values are rejected
+     */
+    private static final class JsonObject {
+        private final String text;
+        private int position;
+
+        private JsonObject(String text) {
+            this.text = text;
+        }
+
+        /**
+         * Put the values of the wanted fields into values, by field index
+         * @return False if the line is not a flat JSON object
+         */
+        static boolean parse(String line, String[] fields, String[] values) {
+            JsonObject json = new JsonObject(line);
+            try {
+                json.expect('{');
+                if (json.skipSpace() == '}') {
+                    return true;
+                }
+                while (true) {
+                    json.skipSpace();
+                    String key = json.string();
+                    json.skipSpace();
+                    json.expect(':');
+                    String value = json.value();
+                    for (int i = 0; i < fields.length; i++) {
+                        if (fields[i].equals(key)) {
+                            values[i] = value;
+                        }
+                    }
+                    int c = json.skipSpace();
+                    json.position++;
+                    if (c == '}') {
+                        return true;
+                    }
+                    if (c != ',') {
+                        return false;
+                    }
+                }
+            } catch (IllegalStateException | IndexOutOfBoundsException | NumberFormatException e) {
+                return false;
+            }
+        }
+
+        private int skipSpace() {
+            while (position < text.length() && Character.isWhitespace(text.charAt(position))) {
+                position++;
+            }
+            return position < text.length() ? text.charAt(position) : -1;
+        }
+
+        private void expect(char c) {
+            if (skipSpace() != c) {
+                throw new IllegalStateException();
+            }
+            position++;
+        }
+
+        private String value() {
+            int c = skipSpace();
+            if (c == '"') {
+                return string();
+            }
+            int start = position;
+            while (position < text.length() && ",} \t".indexOf(text.charAt(position)) < 0) {
+                position++;
+            }
+            String literal = text.substring(start, position);
+            if (literal.isEmpty() || c == '{' || c == '[') {
+                throw new IllegalStateException();
+            }
+            return literal.equals("null") ? "" : literal;
+        }
+
+        private String string() {
+            if (text.charAt(position++) != '"') {
+                throw new IllegalStateException();
+            }
+            StringBuilder out = new StringBuilder();
+            while (true) {
+                char c = text.charAt(position++);
+                if (c == '"') {
+                    return out.toString();
+                }
+                if (c != '\\') {
+                    out.append(c);
+                    continue;
+                }
+                char escaped = text.charAt(position++);
+                switch (escaped) {
+                    case 'n':
+                        out.append('\n');
+                        break;
+                    case 'r':
+                        out.append('\r');
+                        break;
+                    case 't':
+                        out.append('\t');
+                        break;
+                    case 'b':
+                        out.append('\b');
+                        break;
+                    case 'f':
+                        out.append('\f');
+                        break;
+                    case 'u':
+                        out.append((char) Integer.parseInt(text.substring(position, position + 4), 16));
+                        position += 4;
+                        break;
+                    default:
+                        out.append(escaped);
+                        break;
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,182 @@
+package com.sim800l.util;
+
+import java.nio.CharBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Keeps running septet/UCS2 counts for the text being typed so the best
+ * encoding can be shown on every keystroke. Each edit only touches the
+ * inserted and removed characters, never the whole text; the text itself
+ * is only read at its ends (for the trim) and near segment boundaries.
+ */
+public class EncodingPlanner {
+
+    // Table combinations in the order SmsEncoding.choose tries them, default first
+    private final int[][] tables;
+    private final int[] septets;
+    private final int[] unsupported;
+    // Characters taking an escape and a septet, which a split never separates
+    private final int[] escaped;
+    private int units;
+    // Each starts a pair of units, which a split never separates
+    private int highSurrogates;
+
+    public EncodingPlanner() {
+        List<int[]> combinations = new ArrayList<>();
+        combinations.add(new int[] { GsmAlphabet.LANGUAGE_DEFAULT, GsmAlphabet.LANGUAGE_DEFAULT });
+        for (int language : GsmAlphabet.NATIONAL_LANGUAGES) {
+            int[][] candidates = {
+                { GsmAlphabet.LANGUAGE_DEFAULT, language },
+                { language, GsmAlphabet.LANGUAGE_DEFAULT },
+                { language, language }
+            };
+            for (int[] candidate : candidates) {
+                if (GsmAlphabet.hasLockingTable(candidate[0]) && GsmAlphabet.hasShiftTable(candidate[1])) {
+                    combinations.add(candidate);
+                }
+            }
+        }
+        this.tables = combinations.toArray(new int[0][]);
+        this.septets = new int[tables.length];
+        this.unsupported = new int[tables.length];
+        this.escaped = new int[tables.length];
+    }
+
+    /**
+     * Start over from the given text
+     */
+    public void reset(CharSequence text) {
+        units = 0;
+        highSurrogates = 0;
+        for (int i = 0; i < tables.length; i++) {
+            septets[i] = 0;
+            unsupported[i] = 0;
+            escaped[i] = 0;
+        }
+        if (text != null) {
+            update(text, 1);
+        }
+    }
+
+    /**
+     * Apply an edit: removed characters are subtracted, added ones counted
+     */
+    public void replace(CharSequence removed, CharSequence added) {
+        if (removed != null) {
+            update(removed, -1);
+        }
+        if (added != null) {
+            update(added, 1);
+        }
+    }
+
+    private void update(CharSequence text, int sign) {
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            units += sign;
+            if (Character.isHighSurrogate(c)) {
+                highSurrogates += sign;
+            }
+            count(c, sign, septets, unsupported, escaped);
+        }
+    }
+
+    private void count(char c, int sign, int[] septets, int[] unsupported, int[] escaped) {
+        for (int t = 0; t < tables.length; t++) {
+            int length = GsmAlphabet.septetLength(c, tables[t][0], tables[t][1]);
+            if (length < 0) {
+                unsupported[t] += sign;
+            } else {
+                septets[t] += sign * length;
+                if (length == 2) {
+                    escaped[t] += sign;
+                }
+            }
+        }
+    }
+
+    /**
+     * Number of characters sent as the user sees them (emoji count once)
+     * @param text The current text, whose edits were all passed in
+     */
+    public int length(CharSequence text) {
+        int start = trimStart(text);
+        return trimEnd(text, start) - start - highSurrogates;
+    }
+
+    /**
+     * Best encoding for the text that is sent (trimmed), using the same
+     * rules as SmsEncoding.choose
+     * @param text The current text, whose edits were all passed in
+     */
+    public SmsEncoding plan(CharSequence text) {
+        int start = trimStart(text);
+        int end = trimEnd(text, start);
+        // Take the whitespace trimmed off both ends out of the counts
+        int[] septets = this.septets.clone();
+        int[] unsupported = this.unsupported.clone();
+        int[] escaped = this.escaped.clone();
+        for (int i = 0; i < start; i++) {
+            count(text.charAt(i), -1, septets, unsupported, escaped);
+        }
+        for (int i = end; i < text.length(); i++) {
+            count(text.charAt(i), -1, septets, unsupported, escaped);
+        }
+        CharSequence sent = CharBuffer.wrap(text, start, end);
+
+        if (unsupported[0] == 0) {
+            return split(sent, SmsEncoding.Scheme.GSM7, tables[0][0], tables[0][1], septets[0], escaped[0]);
+        }
+        SmsEncoding best = split(sent, SmsEncoding.Scheme.UCS2,
+            GsmAlphabet.LANGUAGE_DEFAULT, GsmAlphabet.LANGUAGE_DEFAULT, end - start, highSurrogates);
+        for (int t = 1; t < tables.length; t++) {
+            if (unsupported[t] != 0) {
+                continue;
+            }
+            SmsEncoding candidate = split(sent, SmsEncoding.Scheme.GSM7, tables[t][0], tables[t][1], septets[t], escaped[t]);
+            if (candidate.segments < best.segments) {
+                best = candidate;
+            }
+        }
+        return best;
+    }
+
+    /**
+     * Segments from the length alone while that is exact: a split wastes
+     * at most one septet or unit per boundary, on an escape or surrogate
+     * pair it may not separate. Otherwise the split of SmsEncoding, which
+     * walks the text.
+     */
+    private static SmsEncoding split(CharSequence text, SmsEncoding.Scheme scheme,
+                                     int lockingLanguage, int singleShiftLanguage, int length, int pairs) {
+        SmsEncoding estimate = SmsEncoding.estimate(scheme, lockingLanguage, singleShiftLanguage, length);
+        int capacity = scheme == SmsEncoding.Scheme.GSM7
+            ? SmsEncoding.gsm7Capacity(SmsEncoding.headerOctets(lockingLanguage, singleShiftLanguage, true))
+            : SmsEncoding.ucs2Capacity(SmsEncoding.CONCAT_IE_OCTETS + 1);
+        int segments = estimate.segments;
+        if (segments == 1 || pairs == 0 || length + segments - 1 <= segments * capacity) {
+            return estimate;
+        }
+        return scheme == SmsEncoding.Scheme.GSM7
+            ? SmsEncoding.gsm7(text, lockingLanguage, singleShiftLanguage, length)
+            : SmsEncoding.ucs2(text);
+    }
+
+    // Bounds of the text String.trim() keeps
+    private static int trimStart(CharSequence text) {
+        int start = 0;
+        while (start < text.length() && text.charAt(start) <= ' ') {
+            start++;
+        }
+        return start;
+    }
+
+    private static int trimEnd(CharSequence text, int start) {
+        int end = text.length();
+        while (end > start && text.charAt(end - 1) <= ' ') {
+            end--;
+        }
+        return end;
+    }
+}
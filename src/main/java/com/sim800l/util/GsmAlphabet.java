@@ -0,0 +1,244 @@
+package com.sim800l.util;
+
+import java.util.Arrays;
+
+/**
+ * GSM 7-bit alphabets from 3GPP TS 23.038: the default alphabet with its
+ * extension table, plus the national language locking and single shift
+ * tables we support (Urdu, the only Arabic-script set).
+ */
+public class GsmAlphabet {
+
+    public static final int ESCAPE = 0x1B;
+
+    public static final int LANGUAGE_DEFAULT = 0;
+    public static final int LANGUAGE_URDU = 13;
+
+    /**
+     * National languages tried by the encoder, in order of preference
+     */
+    public static final int[] NATIONAL_LANGUAGES = { LANGUAGE_URDU };
+
+    /**
+     * Opt-in (-Dsim800l.urduLetters=true): encode the Arabic letters kaf
+     * U+0643, heh U+0647 and yeh U+064A, which the Urdu tables lack, as the
+     * Urdu U+06A9, U+06C1 and U+06CC so Persian and Arabic text can use the
+     * Urdu tables instead of UCS2. Recipients then see the Urdu letters.
+     */
+    public static final boolean URDU_LETTERS = Boolean.getBoolean("sim800l.urduLetters");
+
+    // Pairs of a letter missing from the Urdu tables and the Urdu letter sent for it
+    private static final String URDU_SUBSTITUTES = "\u0643\u06A9\u0647\u06C1\u064A\u06CC";
+
+    // Table rows are 32 septets each. 0x1B is the escape to the shift table;
+    // in shift tables a space marks an unused position.
+    private static final String DEFAULT_LOCKING =
+        "@\u00A3$\u00A5\u00E8\u00E9\u00F9\u00EC\u00F2\u00C7\n\u00D8\u00F8\r\u00C5\u00E5\u0394_\u03A6\u0393\u039B\u03A9\u03A0\u03A8\u03A3\u0398\u039E\uFFFF\u00C6\u00E6\u00DF\u00C9" +
+        " !\"#\u00A4%&'()*+,-./0123456789:;<=>?" +
+        "\u00A1ABCDEFGHIJKLMNOPQRSTUVWXYZ\u00C4\u00D6\u00D1\u00DC\u00A7" +
+        "\u00BFabcdefghijklmnopqrstuvwxyz\u00E4\u00F6\u00F1\u00FC\u00E0";
+
+    private static final String DEFAULT_SHIFT =
+        "          \f         ^           " +
+        "        {}     \\            [~] " +
+        "|                               " +
+        "     \u20AC                          ";
+
+    private static final String URDU_LOCKING =
+        "\u0627\u0622\u0628\u067B\u0680\u067E\u06A6\u062A\u06C2\u067F\n\u0679\u067D\r\u067A\u067C\u062B\u062C\u0681\u0684\u0683\u0685\u0686\u0687\u062D\u062E\u062F\uFFFF\u068C\u0688\u0689\u068A" +
+        " !\u068F\u068D\u0630\u0631\u0691\u0693)(\u0699\u0632,\u0696.\u06980123456789:;\u069A\u0633\u0634?" +
+        "\u0635\u0636\u0637\u0638\u0639\u0641\u0642\u06A9\u06AA\u06AB\u06AF\u06B3\u06B1\u0644\u0645\u0646\u06BA\u06BB\u06BC\u0648\u06C4\u06D5\u06C1\u06BE\u0621\u06CC\u06D0\u06D2\u064D\u0650\u064F\u0657" +
+        "\u0654abcdefghijklmnopqrstuvwxyz\u0655\u0651\u0653\u0656\u0670";
+
+    private static final String URDU_SHIFT =
+        "@\u00A3$\u00A5\u00BF\"\u00A4%&'\f*+ -/<=>\u00A1^\u00A1_#*\u0600\u0601 \u06F0\u06F1\u06F2\u06F3" +
+        "\u06F4\u06F5\u06F6\u06F7\u06F8\u06F9\u060C\u060D{}\u060E\u060F\u0610\u0611\u0612\\\u0613\u0614\u061B\u061F\u0640\u0652\u0658\u066B\u066C\u0672\u0673\u06CD[~]\u06D4" +
+        "|ABCDEFGHIJKLMNOPQRSTUVWXYZ     " +
+        "     \u20AC                          ";
+
+    private static final String[] LOCKING_TABLES = new String[LANGUAGE_URDU + 1];
+    private static final String[] SHIFT_TABLES = new String[LANGUAGE_URDU + 1];
+    private static final SeptetMap[] LOCKING_MAPS = new SeptetMap[LANGUAGE_URDU + 1];
+    private static final SeptetMap[] SHIFT_MAPS = new SeptetMap[LANGUAGE_URDU + 1];
+
+    static {
+        LOCKING_TABLES[LANGUAGE_DEFAULT] = DEFAULT_LOCKING;
+        SHIFT_TABLES[LANGUAGE_DEFAULT] = DEFAULT_SHIFT;
+        LOCKING_TABLES[LANGUAGE_URDU] = URDU_LOCKING;
+        SHIFT_TABLES[LANGUAGE_URDU] = URDU_SHIFT;
+
+        for (int language = 0; language < LOCKING_TABLES.length; language++) {
+            if (LOCKING_TABLES[language] != null) {
+                LOCKING_MAPS[language] = SeptetMap.build(LOCKING_TABLES[language], false);
+            }
+            if (SHIFT_TABLES[language] != null) {
+                SHIFT_MAPS[language] = SeptetMap.build(SHIFT_TABLES[language], true);
+            }
+        }
+        if (URDU_LETTERS) {
+            for (int i = 0; i < URDU_SUBSTITUTES.length(); i += 2) {
+                LOCKING_MAPS[LANGUAGE_URDU].alias(URDU_SUBSTITUTES.charAt(i), URDU_SUBSTITUTES.charAt(i + 1));
+            }
+        }
+    }
+
+    public static boolean hasLockingTable(int language) {
+        return language >= 0 && language < LOCKING_MAPS.length && LOCKING_MAPS[language] != null;
+    }
+
+    public static boolean hasShiftTable(int language) {
+        return language >= 0 && language < SHIFT_MAPS.length && SHIFT_MAPS[language] != null;
+    }
+
+    public static String languageName(int language) {
+        switch (language) {
+            case LANGUAGE_DEFAULT:
+                return "Default";
+            case LANGUAGE_URDU:
+                return "Urdu";
+            default:
+                return "Language " + language;
+        }
+    }
+
+    /**
+     * Septets needed for one character: 1 from the locking table, 2 for an
+     * escaped shift table character, or -1 if neither table has it
+     */
+    public static int septetLength(char c, int lockingLanguage, int shiftLanguage) {
+        if (LOCKING_MAPS[lockingLanguage].get(c) >= 0) {
+            return 1;
+        }
+        if (SHIFT_MAPS[shiftLanguage].get(c) >= 0) {
+            return 2;
+        }
+        return -1;
+    }
+
+    /**
+     * Count septets for text with the given tables
+     * @return septet count, or -1 if some character cannot be encoded
+     */
+    public static int countSeptets(CharSequence text, int lockingLanguage, int shiftLanguage) {
+        SeptetMap locking = LOCKING_MAPS[lockingLanguage];
+        SeptetMap shift = SHIFT_MAPS[shiftLanguage];
+        int count = 0;
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if (locking.get(c) >= 0) {
+                count++;
+            } else if (shift.get(c) >= 0) {
+                count += 2;
+            } else {
+                return -1;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Convert text to unpacked septets, shift table characters prefixed by ESCAPE
+     */
+    public static byte[] toSeptets(CharSequence text, int lockingLanguage, int shiftLanguage) {
+        int count = countSeptets(text, lockingLanguage, shiftLanguage);
+        if (count < 0) {
+            throw new IllegalArgumentException("Text cannot be encoded with GSM tables " +
+                lockingLanguage + "/" + shiftLanguage);
+        }
+        SeptetMap locking = LOCKING_MAPS[lockingLanguage];
+        SeptetMap shift = SHIFT_MAPS[shiftLanguage];
+        byte[] septets = new byte[count];
+        int pos = 0;
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            int septet = locking.get(c);
+            if (septet >= 0) {
+                septets[pos++] = (byte) septet;
+            } else {
+                septets[pos++] = ESCAPE;
+                septets[pos++] = (byte) shift.get(c);
+            }
+        }
+        return septets;
+    }
+
+    /**
+     * Character for a septet in the locking table; unknown languages fall
+     * back to the default alphabet
+     */
+    public static char toChar(int septet, int lockingLanguage) {
+        String table = hasLockingTable(lockingLanguage) ? LOCKING_TABLES[lockingLanguage] : DEFAULT_LOCKING;
+        return table.charAt(septet & 0x7F);
+    }
+
+    /**
+     * Character for the septet following an escape; positions the shift
+     * table leaves unused are shown as a space
+     */
+    public static char toShiftChar(int septet, int shiftLanguage) {
+        String table = hasShiftTable(shiftLanguage) ? SHIFT_TABLES[shiftLanguage] : DEFAULT_SHIFT;
+        return table.charAt(septet & 0x7F);
+    }
+
+    /**
+     * Pack septets into octets (LSB first) after fillBits padding bits
+     * @return number of octets written
+     */
+    public static int packSeptets(byte[] septets, int offset, int count, byte[] out, int outOffset, int fillBits) {
+        int bitPos = fillBits;
+        for (int i = 0; i < count; i++) {
+            int septet = septets[offset + i] & 0x7F;
+            int index = outOffset + (bitPos >> 3);
+            int shift = bitPos & 7;
+            out[index] |= (byte) (septet << shift);
+            if (shift > 1) {
+                out[index + 1] |= (byte) (septet >> (8 - shift));
+            }
+            bitPos += 7;
+        }
+        return (bitPos + 7) >> 3;
+    }
+
+    /**
+     * Reverse lookup from character to septet, split into 256-entry pages so
+     * lookups never box or allocate
+     */
+    private static final class SeptetMap {
+        private final byte[][] pages = new byte[256][];
+
+        static SeptetMap build(String table, boolean shiftTable) {
+            SeptetMap map = new SeptetMap();
+            for (int septet = 0; septet < table.length(); septet++) {
+                char c = table.charAt(septet);
+                if (septet == ESCAPE || (shiftTable && c == ' ')) {
+                    continue;
+                }
+                map.put(c, septet);
+            }
+            return map;
+        }
+
+        // Encode c like an existing character; decoding is unaffected
+        void alias(char c, char existing) {
+            put(c, get(existing));
+        }
+
+        private void put(char c, int septet) {
+            byte[] page = pages[c >>> 8];
+            if (page == null) {
+                page = new byte[256];
+                Arrays.fill(page, (byte) -1);
+                pages[c >>> 8] = page;
+            }
+            // Keep the first position for characters listed twice
+            if (page[c & 0xFF] < 0) {
+                page[c & 0xFF] = (byte) septet;
+            }
+        }
+
+        int get(char c) {
+            byte[] page = pages[c >>> 8];
+            return page == null ? -1 : page[c & 0xFF];
+        }
+    }
+}
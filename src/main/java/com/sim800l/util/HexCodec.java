@@ -0,0 +1,112 @@
+package com.sim800l.util;
+
+import java.util.Arrays;
+
+/**
+ * Table-driven hex helpers shared by the encoders and the serial reader.
+ * No regex, no String.format and no per-digit substrings.
+ */
+public class HexCodec {
+
+    private static final char[] DIGITS = "0123456789ABCDEF".toCharArray();
+    private static final byte[] NIBBLES = new byte[128];
+
+    static {
+        Arrays.fill(NIBBLES, (byte) -1);
+        for (int i = 0; i < 10; i++) {
+            NIBBLES['0' + i] = (byte) i;
+        }
+        for (int i = 0; i < 6; i++) {
+            NIBBLES['A' + i] = (byte) (10 + i);
+            NIBBLES['a' + i] = (byte) (10 + i);
+        }
+    }
+
+    /**
+     * Value of a hex digit, or -1 if c is not one
+     */
+    public static int nibble(char c) {
+        return c < 128 ? NIBBLES[c] : -1;
+    }
+
+    public static boolean isHexDigit(char c) {
+        return c < 128 && NIBBLES[c] >= 0;
+    }
+
+    /**
+     * True if text is non-empty and contains only hex digits
+     */
+    public static boolean isHex(CharSequence text) {
+        if (text == null || text.length() == 0) {
+            return false;
+        }
+        for (int i = 0; i < text.length(); i++) {
+            if (!isHexDigit(text.charAt(i))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Append one octet as two uppercase hex digits
+     */
+    public static void appendByte(StringBuilder out, int value) {
+        out.append(DIGITS[(value >> 4) & 0x0F]).append(DIGITS[value & 0x0F]);
+    }
+
+    public static void appendHex(StringBuilder out, byte[] data) {
+        for (byte b : data) {
+            appendByte(out, b);
+        }
+    }
+
+    public static String toHex(byte[] data) {
+        char[] out = new char[data.length * 2];
+        for (int i = 0; i < data.length; i++) {
+            out[i * 2] = DIGITS[(data[i] >> 4) & 0x0F];
+            out[i * 2 + 1] = DIGITS[data[i] & 0x0F];
+        }
+        return new String(out);
+    }
+
+    /**
+     * UTF-16 code units as 4 hex digits each (UCS2 with surrogate pairs)
+     */
+    public static String encodeUtf16(CharSequence text) {
+        char[] out = new char[text.length() * 4];
+        for (int i = 0, pos = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            out[pos++] = DIGITS[(c >> 12) & 0x0F];
+            out[pos++] = DIGITS[(c >> 8) & 0x0F];
+            out[pos++] = DIGITS[(c >> 4) & 0x0F];
+            out[pos++] = DIGITS[c & 0x0F];
+        }
+        return new String(out);
+    }
+
+    /**
+     * Decode groups of 4 hex digits into UTF-16 code units. Non-hex
+     * characters are skipped and a trailing partial group is dropped.
+     * @param maxChars Stop after this many code units
+     */
+    public static String decodeUtf16(CharSequence hex, int maxChars) {
+        char[] out = new char[Math.min(hex.length() / 4, maxChars)];
+        int count = 0;
+        int value = 0;
+        int digits = 0;
+        for (int i = 0; i < hex.length() && count < out.length; i++) {
+            int n = nibble(hex.charAt(i));
+            if (n < 0) {
+                continue;
+            }
+            value = (value << 4) | n;
+            if (++digits == 4) {
+                out[count++] = (char) value;
+                value = 0;
+                digits = 0;
+            }
+        }
+        return new String(out, 0, count);
+    }
+}
@@ -0,0 +1,86 @@
+package com.sim800l.util;
+
+/**
+ * Open-addressing set of longs, 8 bytes per slot instead of a boxed Long
+ * and a map entry per value. Zero is stored out of band.
+ */
+final class LongHashSet {
+
+    private long[] slots;
+    private int size;
+    private boolean hasZero;
+
+    LongHashSet() {
+        this(16);
+    }
+
+    LongHashSet(int expected) {
+        int capacity = 16;
+        while (capacity < expected * 2) {
+            capacity <<= 1;
+        }
+        slots = new long[capacity];
+    }
+
+    /**
+     * @return False if the value was already in the set
+     */
+    boolean add(long value) {
+        if (value == 0) {
+            boolean added = !hasZero;
+            hasZero = true;
+            return added;
+        }
+        if (size * 2 >= slots.length) {
+            grow();
+        }
+        return insert(slots, value);
+    }
+
+    boolean contains(long value) {
+        if (value == 0) {
+            return hasZero;
+        }
+        int mask = slots.length - 1;
+        for (int i = mix(value) & mask; slots[i] != 0; i = (i + 1) & mask) {
+            if (slots[i] == value) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    int size() {
+        return size + (hasZero ? 1 : 0);
+    }
+
+    private boolean insert(long[] table, long value) {
+        int mask = table.length - 1;
+        int i = mix(value) & mask;
+        while (table[i] != 0) {
+            if (table[i] == value) {
+                return false;
+            }
+            i = (i + 1) & mask;
+        }
+        table[i] = value;
+        size++;
+        return true;
+    }
+
+    private void grow() {
+        long[] old = slots;
+        slots = new long[old.length * 2];
+        size = 0;
+        for (long value : old) {
+            if (value != 0) {
+                insert(slots, value);
+            }
+        }
+    }
+
+    private static int mix(long value) {
+        long h = value * 0x9E3779B97F4A7C15L;
+        return (int) (h ^ (h >>> 32));
+    }
+}
@@ -0,0 +1,314 @@
+package com.sim800l.util;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.IntFunction;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Cold tier of the journal: read-only files of Deflate-compressed blocks
+ * of ADD_MESSAGE records, written when journal compaction moves old
+ * messages out of the segments. A block is only inflated when a message
+ * in it is read, and a few recently used blocks are kept.
+ *
+ * Archived positions are negative, so they sort before journal positions
+ * as archived messages are the oldest part of a chat:
+ * sign bit | 23 bit file | 24 bit block offset in the file | 16 bit
+ * record offset in the block.
+ *
+ * <pre>
+ * file  = header (kind ARCHIVE) | block*
+ * block = u32 raw length | u32 compressed length | zlib data of records
+ * </pre>
+ */
+public class MessageArchive {
+
+    // Blocks start below this offset in a file, the position has 24 bits for it
+    public static final int FILE_SIZE = 16 * 1024 * 1024;
+    // Uncompressed records per block, the position has 16 bits for the offset in it
+    public static final int BLOCK_SIZE = 64 * 1024;
+    private static final int CACHED_BLOCKS = 32;
+    static final String SUFFIX = ".arc";
+
+    private final File dir;
+    // Mappings by file number, gaps are null
+    private volatile MappedByteBuffer[] files = new MappedByteBuffer[0];
+    // Inflated blocks by position of their first byte, least recently used first
+    private final Map<Long, ByteBuffer> blocks = new LinkedHashMap<Long, ByteBuffer>(CACHED_BLOCKS, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Long, ByteBuffer> eldest) {
+            return size() > CACHED_BLOCKS;
+        }
+    };
+
+    public MessageArchive(File dir) {
+        this.dir = dir;
+    }
+
+    public static boolean isArchived(long position) {
+        return position < 0;
+    }
+
+    static long position(int file, int block, int offset) {
+        return Long.MIN_VALUE | ((long) file << 40) | ((long) block << 16) | offset;
+    }
+
+    private static int fileOf(long position) {
+        return (int) ((position >>> 40) & 0x7FFFFF);
+    }
+
+    private static int blockOf(long position) {
+        return (int) ((position >>> 16) & 0xFFFFFF);
+    }
+
+    private static int offsetOf(long position) {
+        return (int) (position & 0xFFFF);
+    }
+
+    static File file(File dir, int file) {
+        return new File(dir, String.format("%08d", file) + SUFFIX);
+    }
+
+    /**
+     * Map the archive files in the directory
+     * @param generationDirs Journal generations whose archive files may
+     *                       not be moved in yet, mapped from there
+     */
+    public synchronized void open(List<File> generationDirs) throws IOException {
+        List<File> dirs = new ArrayList<>(generationDirs);
+        dirs.add(0, dir);
+        int count = 0;
+        for (File source : dirs) {
+            String[] names = source.list();
+            for (String name : names != null ? names : new String[0]) {
+                if (name.matches("\\d{8}\\" + SUFFIX)) {
+                    count = Math.max(count, Integer.parseInt(name.substring(0, 8)) + 1);
+                }
+            }
+        }
+        MappedByteBuffer[] mapped = new MappedByteBuffer[count];
+        for (int file = 0; file < count; file++) {
+            File source = null;
+            for (File candidate : dirs) {
+                if (file(candidate, file).exists()) {
+                    source = file(candidate, file);
+                    break;
+                }
+            }
+            if (source == null) {
+                continue;
+            }
+            try (FileChannel channel = FileChannel.open(source.toPath(), StandardOpenOption.READ)) {
+                mapped[file] = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            }
+            new RecordReader(mapped[file].duplicate()).readHeader(StorageFormat.KIND_ARCHIVE);
+        }
+        blocks.clear();
+        files = mapped;
+    }
+
+    public synchronized void close() {
+        blocks.clear();
+        files = new MappedByteBuffer[0];
+    }
+
+    /**
+     * Pass every archived record to the visitor, oldest first
+     */
+    public void scan(MessageJournal.Visitor visitor) throws IOException {
+        MappedByteBuffer[] mapped = files;
+        for (int file = 0; file < mapped.length; file++) {
+            if (mapped[file] == null) {
+                continue;
+            }
+            int block = StorageFormat.HEADER_SIZE;
+            while (block + 8 <= mapped[file].limit()) {
+                ByteBuffer data = inflate(mapped[file], block);
+                RecordReader reader = new RecordReader(data);
+                int type;
+                while ((type = reader.next()) != RecordReader.END) {
+                    visitor.visit(position(file, block, (int) reader.recordStart()), type, reader);
+                }
+                block += 8 + mapped[file].getInt(block + 4);
+            }
+        }
+    }
+
+    /**
+     * The record at an archived position, length prefix included
+     */
+    ByteBuffer record(long position) throws IOException {
+        ByteBuffer data = block(position & ~0xFFFFL);
+        int offset = offsetOf(position);
+        if (offset + 4 > data.limit()) {
+            throw new IOException("Bad archive position " + position);
+        }
+        int size = data.getInt(offset);
+        if (size < 1 || offset + 4 + size > data.limit()) {
+            throw new IOException("Bad record at archive position " + position);
+        }
+        data.limit(offset + 4 + size).position(offset);
+        return data;
+    }
+
+    private ByteBuffer block(long start) throws IOException {
+        synchronized (blocks) {
+            ByteBuffer cached = blocks.get(start);
+            if (cached != null) {
+                return cached.duplicate();
+            }
+        }
+        MappedByteBuffer[] mapped = files;
+        int file = fileOf(start);
+        if (file >= mapped.length || mapped[file] == null) {
+            throw new IOException("Bad archive position " + start);
+        }
+        ByteBuffer data = inflate(mapped[file], blockOf(start));
+        synchronized (blocks) {
+            blocks.put(start, data);
+        }
+        return data.duplicate();
+    }
+
+    private static ByteBuffer inflate(MappedByteBuffer file, int block) throws IOException {
+        if (block < StorageFormat.HEADER_SIZE || block + 8 > file.limit()) {
+            throw new IOException("Bad archive block at " + block);
+        }
+        int rawLength = file.getInt(block);
+        int compressedLength = file.getInt(block + 4);
+        if (rawLength < 0 || compressedLength < 0 || block + 8 + compressedLength > file.limit()) {
+            throw new IOException("Bad archive block at " + block);
+        }
+        ByteBuffer input = file.duplicate();
+        input.limit(block + 8 + compressedLength).position(block + 8);
+        ByteBuffer output = ByteBuffer.allocate(rawLength);
+        Inflater inflater = new Inflater();
+        try {
+            inflater.setInput(input);
+            while (output.hasRemaining() && !inflater.finished()) {
+                if (inflater.inflate(output) == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                    break;
+                }
+            }
+        } catch (DataFormatException e) {
+            throw new IOException("Damaged archive block at " + block);
+        } finally {
+            inflater.end();
+        }
+        if (output.hasRemaining()) {
+            throw new IOException("Short archive block at " + block);
+        }
+        output.flip();
+        return output;
+    }
+
+    /**
+     * Compress records into new archive files in a staging directory,
+     * numbered after the existing ones; the journal moves them in when it
+     * commits the compaction
+     * @param records Record i, length prefix included
+     * @return Archived position of each record
+     */
+    long[] write(File stagingDir, int count, IntFunction<ByteBuffer> records) throws IOException {
+        long[] moved = new long[count];
+        int file = files.length - 1;
+        FileChannel out = null;
+        Deflater deflater = new Deflater(Deflater.BEST_COMPRESSION);
+        byte[] block = new byte[BLOCK_SIZE];
+        int used = 0;
+        int blockStart = 0;
+        try {
+            for (int i = 0; i < count; i++) {
+                ByteBuffer record = records.apply(i);
+                int length = record.remaining();
+                if (used > 0 && used + length > BLOCK_SIZE) {
+                    writeBlock(out, deflater, block, used);
+                    used = 0;
+                }
+                if (used == 0) {
+                    if (out == null || out.position() >= FILE_SIZE) {
+                        finishFile(out);
+                        out = startFile(stagingDir, ++file);
+                    }
+                    blockStart = (int) out.position();
+                }
+                if (used + length > block.length) {
+                    block = Arrays.copyOf(block, used + length);
+                }
+                record.get(block, used, length);
+                moved[i] = position(file, blockStart, used);
+                used += length;
+            }
+            if (used > 0) {
+                writeBlock(out, deflater, block, used);
+            }
+            finishFile(out);
+            out = null;
+        } finally {
+            deflater.end();
+            if (out != null) {
+                out.close();
+            }
+        }
+        return moved;
+    }
+
+    private static FileChannel startFile(File stagingDir, int file) throws IOException {
+        FileChannel channel = FileChannel.open(file(stagingDir, file).toPath(), StandardOpenOption.CREATE,
+            StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+        ByteBuffer header = ByteBuffer.allocate(StorageFormat.HEADER_SIZE);
+        header.putInt(StorageFormat.MAGIC).putShort((short) StorageFormat.VERSION)
+            .put(StorageFormat.KIND_ARCHIVE).put((byte) 0).flip();
+        channel.write(header);
+        return channel;
+    }
+
+    private static void writeBlock(FileChannel out, Deflater deflater, byte[] block, int used) throws IOException {
+        deflater.reset();
+        deflater.setInput(block, 0, used);
+        deflater.finish();
+        ByteBuffer compressed = ByteBuffer.allocate(8 + used + used / 100 + 64);
+        compressed.position(8);
+        while (!deflater.finished()) {
+            if (!compressed.hasRemaining()) {
+                compressed = ByteBuffer.allocate(compressed.capacity() * 2).put(compressed.flip());
+            }
+            deflater.deflate(compressed);
+        }
+        compressed.putInt(0, used).putInt(4, compressed.position() - 8).flip();
+        while (compressed.hasRemaining()) {
+            out.write(compressed);
+        }
+    }
+
+    private static void finishFile(FileChannel out) throws IOException {
+        if (out != null) {
+            out.force(false);
+            out.close();
+        }
+    }
+
+    /**
+     * Total size of the archive files
+     */
+    public long size() {
+        long total = 0;
+        for (MappedByteBuffer file : files) {
+            if (file != null) {
+                total += file.limit();
+            }
+        }
+        return total;
+    }
+}
@@ -0,0 +1,707 @@
+package com.sim800l.util;
+
+import com.sim800l.model.MessageItem;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Append-only log of chat changes. Every new message, message delete, chat
+ * delete and rename is one small record, so the cost of a change does not
+ * depend on how much history is stored. The log is also where message
+ * text lives: the chat index keeps the position of each message record
+ * and histories are read back from here on demand.
+ *
+ * The log is a directory of fixed-size, memory-mapped segment files. A
+ * record never spans segments; when it does not fit, the rest of the
+ * segment stays zero and the record starts the next one. Only the last
+ * segment is mapped writable, earlier ones are sealed and mapped read-only,
+ * so reads are a seek into a mapping and the OS page cache does the
+ * caching. A position is segment << 32 | offset within the segment.
+ *
+ * Records use the {@link StorageFormat} journal layout; each segment
+ * starts with a file header. Records are encoded and given their position
+ * when queued, and written later by the persistence thread.
+ *
+ * Sealed segments can be compacted: selected records are copied into new
+ * segments numbered from 0 in a staging directory. Committing it makes
+ * that directory the current generation: segments below its boundary are
+ * read from there, the rest from the journal directory. Files never
+ * change while they may be mapped; the ones a generation replaces are
+ * deleted by a later open(), once the chat index refers to it. Segment
+ * numbers freed by a compaction stay unused. Old messages can be moved to
+ * the compressed {@link MessageArchive} the same way; reads and scans of
+ * the whole log include it.
+ */
+public class MessageJournal {
+
+    public static final int SEGMENT_SIZE = 16 * 1024 * 1024;
+    // Position of the first record
+    public static final long START = StorageFormat.HEADER_SIZE;
+
+    private static final String SEGMENT_SUFFIX = ".seg";
+    private static final String STAGING_PREFIX = "compact-";
+    private static final String GENERATION_PREFIX = "base-";
+
+    /**
+     * Receives records during a scan
+     */
+    public interface Visitor {
+        void visit(long position, int type, RecordReader record) throws IOException;
+    }
+
+    private final File dir;
+    private final MessageArchive archive;
+    private final RecordWriter encoder = new RecordWriter();
+    // Mappings by segment number, the last one is writable; replaced, never changed, when a segment is added
+    private volatile MappedByteBuffer[] segments = new MappedByteBuffer[0];
+    // End including queued records; only changed by reserve() under the persistence lock
+    private volatile long end;
+    // End of what is on disk
+    private volatile long writtenEnd;
+    // Boundary of the current generation, segments below it are in its directory; 0 if none
+    private volatile int base;
+
+    public MessageJournal(File dir) {
+        this.dir = dir;
+        this.archive = new MessageArchive(dir);
+    }
+
+    public static long position(int segment, int offset) {
+        return ((long) segment << 32) | offset;
+    }
+
+    public static int segmentOf(long position) {
+        return (int) (position >>> 32);
+    }
+
+    public static int offsetOf(long position) {
+        return (int) position;
+    }
+
+    /**
+     * Where a record of the given length goes if the log currently ends at end
+     */
+    private static long place(long end, int length) {
+        if (offsetOf(end) + length > SEGMENT_SIZE) {
+            return position(segmentOf(end) + 1, StorageFormat.HEADER_SIZE);
+        }
+        return end;
+    }
+
+    private static String segmentName(int segment) {
+        return String.format("%08d", segment) + SEGMENT_SUFFIX;
+    }
+
+    private File segmentFile(int segment) {
+        return new File(segment < base ? generationDir(base) : dir, segmentName(segment));
+    }
+
+    /**
+     * Pass every record from position on to the visitor, clear a torn tail
+     * and map the segments
+     * @param from A record position, or START for the whole log, archived
+     *             messages first
+     * @param generation Compaction boundary the caller's positions refer
+     *                   to, 0 for none, or -1 for the newest generation
+     * @throws IOException if a segment is unreadable, from is past the end
+     *                     or the generation is missing
+     */
+    public synchronized void open(long from, int generation, Visitor visitor) throws IOException {
+        close();
+        dir.mkdirs();
+        base = selectGeneration(generation);
+        retire();
+        archive.open(generationDirs(base));
+        if (from == START) {
+            archive.scan(visitor);
+        }
+        // Compaction leaves gaps in the numbering
+        int count = 0;
+        String[] names = dir.list();
+        for (String name : names != null ? names : new String[0]) {
+            if (name.matches("\\d{8}\\" + SEGMENT_SUFFIX)) {
+                count = Math.max(count, Integer.parseInt(name.substring(0, 8)) + 1);
+            }
+        }
+        if (count == 0) {
+            if (from > START) {
+                throw new IOException("Journal is missing");
+            }
+            segments = new MappedByteBuffer[] {createSegment(0)};
+            end = START;
+            writtenEnd = START;
+            return;
+        }
+        if (segmentOf(from) >= count || !segmentFile(segmentOf(from)).exists() || offsetOf(from) > SEGMENT_SIZE) {
+            throw new IOException("Journal is shorter than the index");
+        }
+
+        MappedByteBuffer[] mapped = new MappedByteBuffer[count];
+        int validEnd = 0;
+        for (int segment = 0; segment < count; segment++) {
+            boolean last = segment == count - 1;
+            if (!last && !segmentFile(segment).exists()) {
+                continue;
+            }
+            mapped[segment] = mapSegment(segmentFile(segment), last);
+            if (last && mapped[segment].getInt(0) == 0) {
+                // Crashed while creating the segment
+                mapped[segment] = createSegment(segment);
+            }
+            if (segment < segmentOf(from)) {
+                continue;
+            }
+            ByteBuffer data = mapped[segment].duplicate();
+            new RecordReader(data.duplicate()).readHeader(StorageFormat.KIND_JOURNAL);
+            data.position(segment == segmentOf(from) ? offsetOf(from) : StorageFormat.HEADER_SIZE);
+            RecordReader reader = new RecordReader(data);
+            int type;
+            while ((type = reader.next()) != RecordReader.END) {
+                visitor.visit(position(segment, (int) reader.recordStart()), type, reader);
+            }
+            validEnd = (int) reader.validEnd();
+        }
+
+        MappedByteBuffer active = mapped[count - 1];
+        if (validEnd + 4 <= SEGMENT_SIZE && active.getInt(validEnd) != 0) {
+            System.err.println("Dropping damaged journal tail at " + validEnd);
+            ByteBuffer tail = active.duplicate();
+            tail.position(validEnd);
+            tail.limit(Math.min(SEGMENT_SIZE, validEnd + 4 + StorageFormat.MAX_RECORD));
+            while (tail.hasRemaining()) {
+                tail.put((byte) 0);
+            }
+            active.force();
+        }
+        segments = mapped;
+        end = position(count - 1, validEnd);
+        writtenEnd = end;
+    }
+
+    private int selectGeneration(int wanted) throws IOException {
+        if (wanted > 0 && !generationDir(wanted).isDirectory()) {
+            throw new IOException("Compacted journal segments below " + wanted + " are missing");
+        }
+        int newest = 0;
+        for (int generation : generations()) {
+            newest = Math.max(newest, generation);
+        }
+        return wanted >= 0 ? wanted : newest;
+    }
+
+    /**
+     * Delete what the current generation replaced: older generations,
+     * newer ones that no index refers to and journal segments below the
+     * boundary. Files that cannot be deleted yet are retried next time.
+     */
+    private void retire() {
+        for (int generation : generations()) {
+            File generationDir = generationDir(generation);
+            // Archive files stay valid in later generations
+            if (generation == base || (generation < base && !moveArchiveFiles(generationDir))) {
+                continue;
+            }
+            if (!deleteDir(generationDir)) {
+                System.err.println("Cannot delete old journal generation " + generationDir.getName());
+            }
+        }
+        if (base > 0) {
+            moveArchiveFiles(generationDir(base));
+        }
+        String[] names = dir.list();
+        for (String name : names != null ? names : new String[0]) {
+            if (name.matches("\\d{8}\\" + SEGMENT_SUFFIX) && Integer.parseInt(name.substring(0, 8)) < base
+                    && !new File(dir, name).delete()) {
+                System.err.println("Cannot delete old journal segment " + name);
+            }
+        }
+    }
+
+    /**
+     * @return True if all archive files of the generation are now in the journal directory
+     */
+    private boolean moveArchiveFiles(File generationDir) {
+        File[] files = generationDir.listFiles((d, name) -> name.endsWith(MessageArchive.SUFFIX));
+        for (File file : files != null ? files : new File[0]) {
+            try {
+                Files.move(file.toPath(), new File(dir, file.getName()).toPath());
+            } catch (IOException e) {
+                System.err.println("Cannot move archive file " + file.getName() + ": " + e.getMessage());
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Boundaries of the generation directories
+     */
+    private List<Integer> generations() {
+        List<Integer> generations = new ArrayList<>();
+        String[] names = dir.list();
+        for (String name : names != null ? names : new String[0]) {
+            if (name.matches(GENERATION_PREFIX + "\\d+")) {
+                generations.add(Integer.parseInt(name.substring(GENERATION_PREFIX.length())));
+            }
+        }
+        return generations;
+    }
+
+    /**
+     * Directories of the generations up to the given one, oldest first
+     */
+    private List<File> generationDirs(int upTo) {
+        List<Integer> generations = generations();
+        Collections.sort(generations);
+        List<File> dirs = new ArrayList<>();
+        for (int generation : generations) {
+            if (generation <= upTo) {
+                dirs.add(generationDir(generation));
+            }
+        }
+        return dirs;
+    }
+
+    /**
+     * Boundary of the current generation, 0 if the journal was never compacted
+     */
+    int generation() {
+        return base;
+    }
+
+    private MappedByteBuffer mapSegment(File file, boolean writable) throws IOException {
+        if (file.length() != SEGMENT_SIZE && !writable) {
+            throw new IOException("Journal segment " + file.getName() + " has the wrong size");
+        }
+        if (writable) {
+            try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ,
+                    StandardOpenOption.WRITE)) {
+                return channel.map(FileChannel.MapMode.READ_WRITE, 0, SEGMENT_SIZE);
+            }
+        }
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            return channel.map(FileChannel.MapMode.READ_ONLY, 0, SEGMENT_SIZE);
+        }
+    }
+
+    private MappedByteBuffer createSegment(int segment) throws IOException {
+        try (FileChannel channel = FileChannel.open(segmentFile(segment).toPath(), StandardOpenOption.CREATE,
+                StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, SEGMENT_SIZE);
+            buffer.putInt(0, StorageFormat.MAGIC);
+            buffer.putShort(4, (short) StorageFormat.VERSION);
+            buffer.put(6, StorageFormat.KIND_JOURNAL);
+            buffer.put(7, (byte) 0);
+            buffer.force();
+            return buffer;
+        }
+    }
+
+    public synchronized byte[] encodeMessage(String phoneNumber, MessageItem message) {
+        return encoder.begin(StorageFormat.ADD_MESSAGE)
+            .writeText(phoneNumber)
+            .writeByte(message.isOutgoing() ? StorageFormat.FLAG_OUTGOING : 0)
+            .writeLong(StorageFormat.toEpochMillis(message.getTimestamp()))
+            .writeText(message.getText())
+            .finish();
+    }
+
+    public synchronized byte[] encodeDeleteMessage(String phoneNumber, int index) {
+        return encoder.begin(StorageFormat.DELETE_MESSAGE).writeText(phoneNumber).writeInt(index).finish();
+    }
+
+    public synchronized byte[] encodeDeleteChat(String phoneNumber) {
+        return encoder.begin(StorageFormat.DELETE_CHAT).writeText(phoneNumber).finish();
+    }
+
+    public synchronized byte[] encodeMerge(String phoneNumber, String into) {
+        return encoder.begin(StorageFormat.MERGE_CHAT).writeText(phoneNumber).writeText(into).finish();
+    }
+
+    public synchronized byte[] encodeRename(String phoneNumber, String name) {
+        encoder.begin(StorageFormat.RENAME_CHAT)
+            .writeText(phoneNumber)
+            .writeByte(name != null ? StorageFormat.FLAG_HAS_NAME : 0);
+        if (name != null) {
+            encoder.writeText(name);
+        }
+        return encoder.finish();
+    }
+
+    /**
+     * Position for a record of the given length that will be written next
+     */
+    long reserve(int length) {
+        long position = place(end, length);
+        end = position + length;
+        return position;
+    }
+
+    /**
+     * End including queued records
+     */
+    long reservedEnd() {
+        return end;
+    }
+
+    /**
+     * True if a record of the given length reserved now would be the first
+     * one in a new segment
+     */
+    boolean startsSegment(int length) {
+        return segmentOf(place(end, length)) != segmentOf(end);
+    }
+
+    /**
+     * Write records in reserved order and force them to disk
+     */
+    void write(List<byte[]> records) {
+        MappedByteBuffer[] mapped = segments;
+        if (mapped.length == 0) {
+            System.err.println("Journal is not open, dropping " + records.size() + " records");
+            return;
+        }
+        long position = writtenEnd;
+        try {
+            for (byte[] record : records) {
+                position = place(position, record.length);
+                int segment = segmentOf(position);
+                if (segment == mapped.length) {
+                    mapped = seal();
+                }
+                ByteBuffer target = mapped[segment].duplicate();
+                target.position(offsetOf(position));
+                target.put(record);
+                position += record.length;
+            }
+        } catch (IOException e) {
+            System.err.println("Error writing journal: " + e.getMessage());
+        }
+        mapped[mapped.length - 1].force();
+        writtenEnd = position;
+    }
+
+    /**
+     * Remap the full last segment read-only and add a new writable one
+     */
+    private synchronized MappedByteBuffer[] seal() throws IOException {
+        MappedByteBuffer[] mapped = segments;
+        int last = mapped.length - 1;
+        mapped[last].force();
+        MappedByteBuffer[] grown = Arrays.copyOf(mapped, mapped.length + 1);
+        grown[last] = mapSegment(segmentFile(last), false);
+        grown[last + 1] = createSegment(last + 1);
+        segments = grown;
+        return grown;
+    }
+
+    /**
+     * Position up to which records are on disk
+     */
+    public long writtenEnd() {
+        return writtenEnd;
+    }
+
+    /**
+     * Read the ADD_MESSAGE record at position, straight from the mapping
+     * @throws IOException if there is no message record there
+     */
+    public MessageItem readMessage(long position) throws IOException {
+        RecordReader record = messageRecord(position);
+        record.readText(); // phone number
+        return readMessage(record);
+    }
+
+    /**
+     * Chat of the ADD_MESSAGE record at position
+     */
+    public String readPhoneNumber(long position) throws IOException {
+        return messageRecord(position).readText();
+    }
+
+    /**
+     * Time of the ADD_MESSAGE record at position, in epoch millis
+     */
+    public long readTimestamp(long position) throws IOException {
+        RecordReader record = messageRecord(position);
+        record.readText(); // phone number
+        record.readByte(); // flags
+        return record.readLong();
+    }
+
+    /**
+     * Message of an encoded ADD_MESSAGE record, e.g. one still queued
+     */
+    static MessageItem readMessage(byte[] record) throws IOException {
+        RecordReader reader = messageRecord(record);
+        reader.readText(); // phone number
+        return readMessage(reader);
+    }
+
+    /**
+     * Chat of an encoded ADD_MESSAGE record
+     */
+    static String readPhoneNumber(byte[] record) throws IOException {
+        return messageRecord(record).readText();
+    }
+
+    private static RecordReader messageRecord(byte[] record) throws IOException {
+        RecordReader reader = new RecordReader(ByteBuffer.wrap(record));
+        if (reader.next() != StorageFormat.ADD_MESSAGE) {
+            throw new IOException("Queued record is not a message");
+        }
+        return reader;
+    }
+
+    private RecordReader messageRecord(long position) throws IOException {
+        if (MessageArchive.isArchived(position)) {
+            RecordReader record = new RecordReader(archive.record(position));
+            if (record.next() != StorageFormat.ADD_MESSAGE) {
+                throw new IOException("No message at archive position " + position);
+            }
+            return record;
+        }
+        MappedByteBuffer[] mapped = segments;
+        int segment = segmentOf(position);
+        int offset = offsetOf(position);
+        if (segment >= mapped.length || mapped[segment] == null
+                || offset < StorageFormat.HEADER_SIZE || offset + 4 > SEGMENT_SIZE) {
+            throw new IOException("Bad journal position " + position);
+        }
+        ByteBuffer data = mapped[segment].duplicate();
+        int size = data.getInt(offset);
+        if (size < 1 || size > StorageFormat.MAX_RECORD || offset + 4 + size > SEGMENT_SIZE) {
+            throw new IOException("Bad record at journal position " + position);
+        }
+        data.limit(offset + 4 + size).position(offset);
+        RecordReader record = new RecordReader(data);
+        if (record.next() != StorageFormat.ADD_MESSAGE) {
+            throw new IOException("No message at journal position " + position);
+        }
+        return record;
+    }
+
+    /**
+     * Message fields of an ADD_MESSAGE record, after its phone number
+     */
+    static MessageItem readMessage(RecordReader record) throws IOException {
+        int flags = record.readByte();
+        long epochMillis = record.readLong();
+        String text = record.readText();
+        return new MessageItem(text, (flags & StorageFormat.FLAG_OUTGOING) != 0,
+            StorageFormat.toLocal(epochMillis));
+    }
+
+    /**
+     * Copy records into new, densely packed segments numbered from 0, in
+     * a staging directory; commitCompaction() switches to them. The first
+     * records are written as given, then the records at positions, which
+     * must be ascending and in sealed segments.
+     * @param staging Identifies the staging directory
+     * @return New position of each record in positions
+     */
+    long[] compact(List<byte[]> leading, long[] positions, int staging) throws IOException {
+        File stagingDir = stagingDir(staging);
+        deleteDir(stagingDir);
+        stagingDir.mkdirs();
+        long[] moved = new long[positions.length];
+        MappedByteBuffer[] mapped = segments;
+        int segment = 0;
+        FileChannel out = startStagedSegment(stagingDir, segment);
+        try {
+            for (int i = 0; i < leading.size() + positions.length; i++) {
+                ByteBuffer record;
+                if (i < leading.size()) {
+                    record = ByteBuffer.wrap(leading.get(i));
+                } else {
+                    long position = positions[i - leading.size()];
+                    if (mapped[segmentOf(position)] == null) {
+                        throw new IOException("Bad journal position " + position);
+                    }
+                    record = mapped[segmentOf(position)].duplicate();
+                    int offset = offsetOf(position);
+                    record.limit(offset + 4 + record.getInt(offset)).position(offset);
+                }
+                if (out.position() + record.remaining() > SEGMENT_SIZE) {
+                    finishStagedSegment(out);
+                    out = startStagedSegment(stagingDir, ++segment);
+                }
+                if (i >= leading.size()) {
+                    moved[i - leading.size()] = position(segment, (int) out.position());
+                }
+                while (record.hasRemaining()) {
+                    out.write(record);
+                }
+            }
+            finishStagedSegment(out);
+        } finally {
+            out.close();
+        }
+        return moved;
+    }
+
+    /**
+     * Compress the message records at positions, which must be ascending
+     * and in sealed segments, into archive files in the staging directory
+     * of a compaction; commitCompaction() moves them in
+     * @return Archived position of each record
+     */
+    long[] archive(long[] positions, int staging) throws IOException {
+        File stagingDir = stagingDir(staging);
+        stagingDir.mkdirs();
+        MappedByteBuffer[] mapped = segments;
+        return archive.write(stagingDir, positions.length, i -> {
+            ByteBuffer record = mapped[segmentOf(positions[i])].duplicate();
+            int offset = offsetOf(positions[i]);
+            record.limit(offset + 4 + record.getInt(offset)).position(offset);
+            return record;
+        });
+    }
+
+    /**
+     * Total size of the archive files
+     */
+    public long archiveSize() {
+        return archive.size();
+    }
+
+    private FileChannel startStagedSegment(File stagingDir, int segment) throws IOException {
+        FileChannel channel = FileChannel.open(new File(stagingDir, segmentName(segment)).toPath(),
+            StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+        ByteBuffer header = ByteBuffer.allocate(StorageFormat.HEADER_SIZE);
+        header.putInt(StorageFormat.MAGIC).putShort((short) StorageFormat.VERSION)
+            .put(StorageFormat.KIND_JOURNAL).put((byte) 0).flip();
+        channel.write(header);
+        return channel;
+    }
+
+    private static void finishStagedSegment(FileChannel channel) throws IOException {
+        // Zero padding to full size, sparse where the file system allows
+        channel.write(ByteBuffer.allocate(1), SEGMENT_SIZE - 1);
+        channel.force(false);
+        channel.close();
+    }
+
+    /**
+     * Make the segments and archive files staged by compact() and archive()
+     * the current generation and read from them. The files they replace
+     * are left alone as they may still be mapped; open() deletes them once
+     * the chat index refers to this generation. Reads stay on the old
+     * files if this throws.
+     */
+    synchronized void commitCompaction(int boundary, int outputs) throws IOException {
+        File generationDir = generationDir(boundary);
+        Files.move(stagingDir(boundary).toPath(), generationDir.toPath());
+        MappedByteBuffer[] mapped = segments.clone();
+        for (int segment = 0; segment < boundary && segment < mapped.length; segment++) {
+            mapped[segment] = segment < outputs
+                ? mapSegment(new File(generationDir, segmentName(segment)), false)
+                : null;
+        }
+        archive.open(generationDirs(boundary));
+        base = boundary;
+        segments = mapped;
+    }
+
+    /**
+     * Remove staging directories of compactions that were not committed
+     */
+    synchronized void deleteStaging() {
+        File[] staged = dir.listFiles((d, name) -> name.startsWith(STAGING_PREFIX));
+        if (staged != null) {
+            for (File stagingDir : staged) {
+                deleteDir(stagingDir);
+            }
+        }
+    }
+
+    private File stagingDir(int staging) {
+        return new File(dir, STAGING_PREFIX + staging);
+    }
+
+    private File generationDir(int boundary) {
+        return new File(dir, GENERATION_PREFIX + boundary);
+    }
+
+    /**
+     * @return True if the directory is gone
+     */
+    private static boolean deleteDir(File directory) {
+        File[] files = directory.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+        return directory.delete() || !directory.exists();
+    }
+
+    /**
+     * Total length of the records at the given positions
+     */
+    long recordBytes(long[] positions) {
+        MappedByteBuffer[] mapped = segments;
+        long total = 0;
+        for (long position : positions) {
+            MappedByteBuffer segment = mapped[segmentOf(position)];
+            if (segment != null) {
+                total += 4 + segment.getInt(offsetOf(position));
+            }
+        }
+        return total;
+    }
+
+    /**
+     * Number of segment files below the given segment
+     */
+    int segmentsBefore(int segment) {
+        MappedByteBuffer[] mapped = segments;
+        int count = 0;
+        for (int i = 0; i < segment && i < mapped.length; i++) {
+            if (mapped[i] != null) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Flush the writable segment and drop the mappings; the OS unmaps them
+     * once they are collected
+     */
+    public synchronized void close() {
+        MappedByteBuffer[] mapped = segments;
+        if (mapped.length > 0) {
+            mapped[mapped.length - 1].force();
+        }
+        segments = new MappedByteBuffer[0];
+        archive.close();
+    }
+
+    /**
+     * Delete all segments and archive files; the journal must be closed
+     */
+    public synchronized void delete() {
+        deleteStaging();
+        for (int generation : generations()) {
+            deleteDir(generationDir(generation));
+        }
+        base = 0;
+        File[] files = dir.listFiles((d, name) -> name.endsWith(SEGMENT_SUFFIX) || name.endsWith(MessageArchive.SUFFIX));
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+    }
+}
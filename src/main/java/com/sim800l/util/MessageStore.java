@@ -0,0 +1,981 @@
+package com.sim800l.util;
+
+import com.sim800l.model.ChatItem;
+import com.sim800l.model.MessageItem;
+import com.sim800l.model.MessageList;
+import com.sim800l.model.SearchHit;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Chat index over the message journal. At startup only chat summaries
+ * (name, unread count, message count, last message) and the journal
+ * positions of each chat's messages are loaded, from the index file plus
+ * the journal records written after it. A chat's messages are read from
+ * the journal a page at a time with readMessages() while it is shown
+ * (see HistoryPager); histories are never held in the ChatItems.
+ *
+ * Message text is also kept in a {@link SearchIndex}. It is rebuilt from
+ * the journal by a background thread after open() and updated with every
+ * change from then on.
+ *
+ * Snapshots bound the replay at startup: each time the journal has grown
+ * by SNAPSHOT_SEGMENTS segments, the state as of the start of the new
+ * segment is captured and written as the index by a maintenance thread.
+ * A capture costs one step per chat, not per message: it shares each
+ * chat's position array, which the chat copies before changing it in
+ * place. Flushes and index writes never hold the store's lock.
+ * The segments before it are then compacted if enough of them is dead
+ * (deleted messages, chats and the change records themselves): live
+ * messages are copied into fresh segments and the old ones are dropped.
+ * Messages older than ARCHIVE_DAYS at the start of a chat are moved to
+ * the compressed {@link MessageArchive} instead and count as dead. Reads
+ * switch to the new segments together with the positions, then an index
+ * referring to them is written; until it is, a restart uses the old
+ * segments, which the journal keeps until then.
+ *
+ * Chats are keyed by canonical phone number ({@link PhoneNumbers}). A
+ * chat stored under another form of its number is merged into the
+ * canonical one by open(), with a MERGE_CHAT record; records for the old
+ * number are applied to the merged chat from then on.
+ *
+ * Public methods are called from the FX thread.
+ */
+public class MessageStore {
+
+    // Journal growth between snapshots, -Dsim800l.snapshotMB, rounded up to whole segments
+    public static final int SNAPSHOT_SEGMENTS = (int) Math.max(1,
+        (Long.getLong("sim800l.snapshotMB", 16) * 1024 * 1024 + MessageJournal.SEGMENT_SIZE - 1)
+            / MessageJournal.SEGMENT_SIZE);
+    // Age in days after which compaction moves messages to the archive, -Dsim800l.archiveDays, 0 to keep all
+    public static final long ARCHIVE_DAYS = Long.getLong("sim800l.archiveDays", 365);
+    // Share of the snapshotted segments that must be dead before they are compacted
+    private static final double COMPACT_DEAD_RATIO = 0.25;
+
+    private final MessageJournal journal;
+    private final PersistenceService persistence;
+    private final File indexFile;
+    private final Map<String, Entry> entries = new HashMap<>();
+    // Phone numbers merged into another chat, to the key of that chat
+    private final Map<String, String> aliases = new HashMap<>();
+    private final SearchIndex searchIndex = new SearchIndex();
+    // Bumped by open() to stop indexing and maintenance work for the previous state
+    private volatile int generation;
+    // Set before the journal is closed, so the indexer stops reading it
+    private volatile boolean indexingStopped;
+    // Background readers holding journal positions; compaction must not move them meanwhile
+    private int readers;
+    private final ExecutorService maintenance = Executors.newSingleThreadExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "store-maintenance");
+        thread.setDaemon(true);
+        thread.setPriority(Thread.MIN_PRIORITY);
+        return thread;
+    });
+    private int lastSnapshotSegment;
+    private boolean snapshotPending;
+    // Serializes index writes, which run without holding the store
+    private final Object indexLock = new Object();
+    // Journal generation the positions of the index just read refer to
+    private int indexGeneration;
+
+    public MessageStore(MessageJournal journal, PersistenceService persistence, File indexFile) {
+        this.journal = journal;
+        this.persistence = persistence;
+        this.indexFile = indexFile;
+    }
+
+    /**
+     * Load the index and replay the journal after it; rebuilds from the
+     * whole journal if the index is missing or does not match it
+     * @return Chats by phone number, histories not loaded
+     */
+    public synchronized Map<String, ChatItem> open() {
+        entries.clear();
+        aliases.clear();
+        searchIndex.clear();
+        generation++;
+        long covered = readIndex();
+        journal.deleteStaging();
+        lastSnapshotSegment = covered > 0 ? MessageJournal.segmentOf(covered) : 0;
+        try {
+            if (covered > 0) {
+                journal.open(covered, indexGeneration, this::replay);
+            } else {
+                journal.open(MessageJournal.START, -1, this::replay);
+            }
+        } catch (IOException e) {
+            System.err.println("Rebuilding chat index: " + e.getMessage());
+            entries.clear();
+            aliases.clear();
+            try {
+                journal.open(MessageJournal.START, -1, this::replay);
+            } catch (IOException e2) {
+                System.err.println("Error reading journal: " + e2.getMessage());
+            }
+        }
+
+        for (String phoneNumber : new ArrayList<>(entries.keySet())) {
+            String key = PhoneNumbers.canonical(phoneNumber);
+            if (!key.equals(phoneNumber)) {
+                journal(journal.encodeMerge(phoneNumber, key));
+                merge(phoneNumber, key);
+            }
+        }
+
+        Map<String, ChatItem> chats = new HashMap<>();
+        for (Entry entry : entries.values()) {
+            if (entry.lastDirty) {
+                entry.chat.setSummary(entry.size, entry.size > 0 ? readOrNull(entry.positions[entry.size - 1]) : null);
+                entry.lastDirty = false;
+            }
+            chats.put(entry.chat.getPhoneNumber(), entry.chat);
+        }
+        startIndexing();
+        return chats;
+    }
+
+    private void startIndexing() {
+        List<long[]> snapshot = new ArrayList<>(entries.size());
+        for (Entry entry : entries.values()) {
+            snapshot.add(Arrays.copyOf(entry.positions, entry.size));
+        }
+        int started = generation;
+        indexingStopped = false;
+        readers++;
+        Thread indexer = new Thread(() -> {
+            try {
+                for (long[] positions : snapshot) {
+                    for (long position : positions) {
+                        if (started != generation || indexingStopped) {
+                            return;
+                        }
+                        try {
+                            searchIndex.add(position, readMessage(position).getText());
+                        } catch (IOException e) {
+                            if (started == generation && !indexingStopped) {
+                                System.err.println("Error indexing message: " + e.getMessage());
+                            }
+                        }
+                    }
+                }
+            } finally {
+                release();
+            }
+        }, "search-indexer");
+        indexer.setDaemon(true);
+        indexer.setPriority(Thread.MIN_PRIORITY);
+        indexer.start();
+    }
+
+    /**
+     * Stop indexing before the journal is closed; open() starts over
+     */
+    public void stopIndexing() {
+        indexingStopped = true;
+    }
+
+    private synchronized void release() {
+        readers--;
+    }
+
+    private void replay(long position, int type, RecordReader record) throws IOException {
+        switch (type) {
+            case StorageFormat.ADD_MESSAGE: {
+                Entry entry = entryFor(resolve(record.readText()));
+                MessageItem message = MessageJournal.readMessage(record);
+                if (entry.lastDirty) {
+                    entry.chat.setSummary(entry.size, null);
+                    entry.lastDirty = false;
+                }
+                entry.add(position);
+                summarize(entry, message);
+                break;
+            }
+            case StorageFormat.DELETE_MESSAGE: {
+                Entry entry = entries.get(resolve(record.readText()));
+                int index = record.readInt();
+                if (entry != null && index >= 0 && index < entry.size) {
+                    entry.remove(index);
+                    if (index == entry.size) {
+                        // Last message deleted, look up the new one when done
+                        entry.lastDirty = true;
+                    }
+                    entry.chat.setSummary(entry.size, entry.chat.getLastMessageItem());
+                }
+                break;
+            }
+            case StorageFormat.DELETE_CHAT:
+                entries.remove(resolve(record.readText()));
+                break;
+            case StorageFormat.RENAME_CHAT: {
+                Entry entry = entryFor(resolve(record.readText()));
+                int flags = record.readByte();
+                entry.chat.setName((flags & StorageFormat.FLAG_HAS_NAME) != 0 ? record.readText() : null);
+                break;
+            }
+            case StorageFormat.MERGE_CHAT:
+                merge(record.readText(), record.readText());
+                break;
+            default:
+                // Written by a newer version, skip
+                break;
+        }
+    }
+
+    private String resolve(String phoneNumber) {
+        String key = aliases.get(phoneNumber);
+        return key != null ? key : phoneNumber;
+    }
+
+    /**
+     * Move a chat's messages into another chat, in journal order, and
+     * point its phone number there; the last message is looked up by open()
+     */
+    private void merge(String phoneNumber, String into) {
+        into = resolve(into);
+        if (phoneNumber.equals(into)) {
+            return;
+        }
+        for (Map.Entry<String, String> alias : aliases.entrySet()) {
+            if (alias.getValue().equals(phoneNumber)) {
+                alias.setValue(into);
+            }
+        }
+        aliases.put(phoneNumber, into);
+        Entry source = entries.remove(phoneNumber);
+        if (source == null) {
+            return;
+        }
+        Entry target = entryFor(into);
+        ChatItem chat = target.chat;
+        String name = source.chat.getName();
+        if ((chat.getName() == null || chat.getName().equals(into)) && name != null && !name.equals(phoneNumber)) {
+            chat.setName(name);
+        }
+        chat.setUnreadCount(chat.getUnreadCount() + source.chat.getUnreadCount());
+        target.merge(source);
+        chat.setSummary(target.size, chat.getLastMessageItem());
+        target.lastDirty = true;
+    }
+
+    /**
+     * Update the summary for a message just added to the end of a chat:
+     * the count, and the preview if the message is the newest; imports can
+     * add older ones
+     */
+    private static void summarize(Entry entry, MessageItem added) {
+        MessageItem last = entry.chat.getLastMessageItem();
+        boolean newest = last == null || !added.getTimestamp().isBefore(last.getTimestamp());
+        entry.chat.setSummary(entry.size, newest ? added : last);
+    }
+
+    private Entry entryFor(String phoneNumber) {
+        Entry entry = entries.get(phoneNumber);
+        if (entry == null) {
+            entry = new Entry(new ChatItem(phoneNumber));
+            entries.put(phoneNumber, entry);
+        }
+        return entry;
+    }
+
+    private Entry entryFor(ChatItem chat) {
+        Entry entry = entries.get(chat.getPhoneNumber());
+        if (entry == null) {
+            entry = new Entry(chat);
+            entries.put(chat.getPhoneNumber(), entry);
+        }
+        return entry;
+    }
+
+    /**
+     * Read messages from index to end (exclusive) of a chat's history, one
+     * journal seek each, without loading the rest
+     */
+    public synchronized List<MessageItem> readMessages(String phoneNumber, int from, int to) {
+        Entry entry = entries.get(phoneNumber);
+        if (entry == null) {
+            return new ArrayList<>();
+        }
+        from = Math.max(0, from);
+        to = Math.min(entry.size, to);
+        List<MessageItem> messages = new MessageList(to - from);
+        for (int i = from; i < to; i++) {
+            MessageItem message = readOrNull(entry.positions[i]);
+            if (message != null) {
+                messages.add(message);
+            }
+        }
+        return messages;
+    }
+
+    private MessageItem readOrNull(long position) {
+        try {
+            return readMessage(position);
+        } catch (IOException e) {
+            System.err.println("Error reading message: " + e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * The message at position, from the persistence queue if it is not
+     * written yet; nothing waits for the disk
+     */
+    private MessageItem readMessage(long position) throws IOException {
+        byte[] queued = position >= journal.writtenEnd() ? persistence.queuedRecord(position) : null;
+        return queued != null ? MessageJournal.readMessage(queued) : journal.readMessage(position);
+    }
+
+    private String readPhoneNumber(long position) throws IOException {
+        byte[] queued = position >= journal.writtenEnd() ? persistence.queuedRecord(position) : null;
+        return queued != null ? MessageJournal.readPhoneNumber(queued) : journal.readPhoneNumber(position);
+    }
+
+    public synchronized void appendMessage(ChatItem chat, MessageItem message) {
+        long position = journal(journal.encodeMessage(chat.getPhoneNumber(), message));
+        entryFor(chat).add(position);
+        searchIndex.add(position, message.getText());
+    }
+
+    public synchronized void deleteMessage(ChatItem chat, int index) {
+        Entry entry = entries.get(chat.getPhoneNumber());
+        if (entry == null || index < 0 || index >= entry.size) {
+            return;
+        }
+        journal(journal.encodeDeleteMessage(chat.getPhoneNumber(), index));
+        searchIndex.remove(entry.positions[index]);
+        entry.remove(index);
+        MessageItem last = chat.getLastMessageItem();
+        if (index == entry.size) {
+            List<MessageItem> tail = readMessages(chat.getPhoneNumber(), entry.size - 1, entry.size);
+            last = tail.isEmpty() ? null : tail.get(0);
+        }
+        chat.setSummary(entry.size, last);
+    }
+
+    public synchronized void renameChat(ChatItem chat, String name) {
+        journal(journal.encodeRename(chat.getPhoneNumber(), name));
+        entryFor(chat);
+    }
+
+    public synchronized void deleteChat(String phoneNumber) {
+        journal(journal.encodeDeleteChat(phoneNumber));
+        Entry entry = entries.remove(phoneNumber);
+        if (entry != null) {
+            for (int i = 0; i < entry.size; i++) {
+                searchIndex.remove(entry.positions[i]);
+            }
+        }
+    }
+
+    /**
+     * The chat for a phone number, as created by open() or an import
+     */
+    public synchronized ChatItem getChat(String phoneNumber) {
+        Entry entry = entries.get(phoneNumber);
+        return entry != null ? entry.chat : null;
+    }
+
+    /**
+     * Receives messages from forEachMessage()
+     */
+    public interface MessageVisitor {
+        void visit(String phoneNumber, MessageItem message) throws IOException;
+    }
+
+    /**
+     * Pass every message to the visitor, chat by chat in history order,
+     * reading them one at a time; for exports on a background thread
+     */
+    public void forEachMessage(MessageVisitor visitor) throws IOException {
+        List<String> phoneNumbers;
+        int started;
+        synchronized (this) {
+            phoneNumbers = new ArrayList<>(entries.keySet());
+            started = generation;
+            readers++;
+        }
+        try {
+            Collections.sort(phoneNumbers);
+            for (String phoneNumber : phoneNumbers) {
+                long[] positions;
+                synchronized (this) {
+                    Entry entry = entries.get(phoneNumber);
+                    if (started != generation) {
+                        throw new IOException("Chats were cleared");
+                    }
+                    if (entry == null) {
+                        continue;
+                    }
+                    positions = Arrays.copyOf(entry.positions, entry.size);
+                }
+                for (long position : positions) {
+                    MessageItem message = readOrNull(position);
+                    if (message != null) {
+                        visitor.visit(phoneNumber, message);
+                    }
+                }
+            }
+        } finally {
+            release();
+        }
+    }
+
+    /**
+     * Start a bulk import, see {@link Importer}
+     */
+    public Importer importer() {
+        return new Importer();
+    }
+
+    /**
+     * Appends imported messages in batches from one background thread.
+     * Chats are matched by canonical phone number ({@link PhoneNumbers}),
+     * new ones are keyed by it. A message the chat already has (same
+     * time, direction and text) is skipped, so importing a file twice adds
+     * nothing. Imported messages are appended to the end of a chat's
+     * history in file order, not merged by time, as positions follow the
+     * journal; the chat's preview stays on its newest message. Reload the
+     * chats in getChats() afterwards.
+     */
+    public final class Importer {
+        private static final int BATCH_SIZE = 1024;
+
+        // Fingerprints of the messages of each chat imported into, read on first use
+        private final Map<String, LongHashSet> fingerprints = new HashMap<>();
+        private final Set<String> chats = new LinkedHashSet<>();
+        private final List<String> batchPhones = new ArrayList<>(BATCH_SIZE);
+        private final List<MessageItem> batch = new ArrayList<>(BATCH_SIZE);
+        private long added;
+        private long duplicates;
+
+        private Importer() {
+        }
+
+        public void add(String phoneNumber, MessageItem message) {
+            batchPhones.add(phoneNumber);
+            batch.add(message);
+            if (batch.size() == BATCH_SIZE) {
+                flush();
+            }
+        }
+
+        public void finish() {
+            flush();
+        }
+
+        private void flush() {
+            // Positions of the chats first imported into, their fingerprints are read without the lock
+            String[] keys = new String[batch.size()];
+            Map<String, long[]> unread = new HashMap<>();
+            synchronized (MessageStore.this) {
+                for (int i = 0; i < batch.size(); i++) {
+                    keys[i] = resolve(PhoneNumbers.canonical(batchPhones.get(i)));
+                    if (!fingerprints.containsKey(keys[i]) && !unread.containsKey(keys[i])) {
+                        Entry entry = entries.get(keys[i]);
+                        unread.put(keys[i], entry != null ? Arrays.copyOf(entry.positions, entry.size) : new long[0]);
+                    }
+                }
+                if (!unread.isEmpty()) {
+                    readers++;
+                }
+            }
+            if (!unread.isEmpty()) {
+                try {
+                    for (Map.Entry<String, long[]> chat : unread.entrySet()) {
+                        fingerprints.put(chat.getKey(), readFingerprints(chat.getValue()));
+                    }
+                } finally {
+                    release();
+                }
+            }
+
+            synchronized (MessageStore.this) {
+                for (int i = 0; i < batch.size(); i++) {
+                    String key = keys[i];
+                    MessageItem message = batch.get(i);
+                    if (!fingerprints.get(key).add(fingerprint(message))) {
+                        duplicates++;
+                        continue;
+                    }
+                    Entry entry = entryFor(key);
+                    long position = journal(journal.encodeMessage(key, message));
+                    entry.add(position);
+                    searchIndex.add(position, message.getText());
+                    summarize(entry, message);
+                    chats.add(key);
+                    added++;
+                }
+            }
+            batchPhones.clear();
+            batch.clear();
+        }
+
+        /**
+         * Fingerprints of a chat's messages, read one at a time
+         */
+        private LongHashSet readFingerprints(long[] positions) {
+            LongHashSet seen = new LongHashSet(positions.length > 0 ? positions.length : 16);
+            for (long position : positions) {
+                MessageItem message = readOrNull(position);
+                if (message != null) {
+                    seen.add(fingerprint(message));
+                }
+            }
+            return seen;
+        }
+
+        /**
+         * Keys of the chats messages were added to
+         */
+        public Set<String> getChats() {
+            return chats;
+        }
+
+        public long getAdded() {
+            return added;
+        }
+
+        public long getDuplicates() {
+            return duplicates;
+        }
+    }
+
+    /**
+     * 64-bit FNV-1a hash of a message's time, direction and text
+     */
+    private static long fingerprint(MessageItem message) {
+        long hash = 0xCBF29CE484222325L;
+        long millis = StorageFormat.toEpochMillis(message.getTimestamp());
+        for (int shift = 0; shift < 64; shift += 8) {
+            hash = (hash ^ ((millis >>> shift) & 0xFF)) * 0x100000001B3L;
+        }
+        hash = (hash ^ (message.isOutgoing() ? 1 : 0)) * 0x100000001B3L;
+        String text = message.getText();
+        for (int i = 0; i < text.length(); i++) {
+            hash = (hash ^ text.charAt(i)) * 0x100000001B3L;
+        }
+        return hash;
+    }
+
+    /**
+     * Ranked search over all message text, see {@link SearchIndex}
+     */
+    public synchronized List<SearchHit> search(String query, int limit) {
+        List<SearchHit> hits = new ArrayList<>();
+        for (long position : searchIndex.search(query, limit)) {
+            try {
+                Entry entry = entries.get(resolve(readPhoneNumber(position)));
+                int index = entry != null ? Arrays.binarySearch(entry.positions, 0, entry.size, position) : -1;
+                if (index >= 0) {
+                    hits.add(new SearchHit(entry.chat.getPhoneNumber(), index, readMessage(position)));
+                }
+            } catch (IOException e) {
+                System.err.println("Error reading search hit: " + e.getMessage());
+            }
+        }
+        return hits;
+    }
+
+    /**
+     * Queue a journal record; first hands a snapshot to the maintenance
+     * thread when the record starts a segment and a snapshot is due
+     */
+    private long journal(byte[] record) {
+        if (!journal.startsSegment(record.length)) {
+            return persistence.journal(record);
+        }
+        int segment = MessageJournal.segmentOf(journal.reservedEnd()) + 1;
+        if (snapshotPending || segment - lastSnapshotSegment < SNAPSHOT_SEGMENTS) {
+            return persistence.journal(record);
+        }
+        Snapshot snapshot = capture(MessageJournal.position(segment, StorageFormat.HEADER_SIZE));
+        long position = persistence.journal(record);
+        lastSnapshotSegment = segment;
+        snapshotPending = true;
+        int started = generation;
+        maintenance.execute(() -> maintain(snapshot, started));
+        return position;
+    }
+
+    private Snapshot capture(long covered) {
+        Snapshot snapshot = new Snapshot(covered, journal.generation());
+        snapshot.aliases.putAll(aliases);
+        for (Entry entry : entries.values()) {
+            snapshot.chats.add(new ChatState(entry));
+        }
+        return snapshot;
+    }
+
+    private void maintain(Snapshot snapshot, int started) {
+        try {
+            // The snapshot's records must be on disk before an index can point past them
+            persistence.flush();
+            if (started == generation) {
+                writeIndex(snapshot, started);
+            }
+            compact(snapshot, started);
+        } catch (IOException e) {
+            System.err.println("Error compacting journal: " + e.getMessage());
+        } finally {
+            synchronized (this) {
+                snapshotPending = false;
+            }
+        }
+    }
+
+    /**
+     * Copy the live messages of the segments before the snapshot into new
+     * segments if enough of them is dead, moving the ones older than
+     * ARCHIVE_DAYS to the archive on the way
+     */
+    private void compact(Snapshot snapshot, int started) throws IOException {
+        int boundary = MessageJournal.segmentOf(snapshot.covered);
+        synchronized (this) {
+            if (boundary == 0 || readers > 0 || started != generation) {
+                return;
+            }
+        }
+        long cutoff = ARCHIVE_DAYS > 0
+            ? System.currentTimeMillis() - ARCHIVE_DAYS * 24 * 60 * 60 * 1000
+            : Long.MIN_VALUE;
+        int total = 0;
+        for (ChatState chat : snapshot.chats) {
+            total += chat.count;
+        }
+        long[] live = new long[total];
+        long[] cold = new long[total];
+        int liveCount = 0;
+        int coldCount = 0;
+        for (ChatState chat : snapshot.chats) {
+            // Only the oldest part of a chat is archived, so archived positions stay in front
+            boolean old = true;
+            for (int i = 0; i < chat.count; i++) {
+                long position = chat.positions[i];
+                if (MessageArchive.isArchived(position) || MessageJournal.segmentOf(position) >= boundary) {
+                    continue;
+                }
+                old = old && journal.readTimestamp(position) < cutoff;
+                if (old) {
+                    cold[coldCount++] = position;
+                } else {
+                    live[liveCount++] = position;
+                }
+            }
+        }
+        live = Arrays.copyOf(live, liveCount);
+        cold = Arrays.copyOf(cold, coldCount);
+        Arrays.sort(live);
+        Arrays.sort(cold);
+        long capacity = (long) journal.segmentsBefore(boundary) * MessageJournal.SEGMENT_SIZE;
+        if (journal.recordBytes(live) > capacity * (1 - COMPACT_DEAD_RATIO)) {
+            return;
+        }
+
+        // Merges and chat names first, so a rebuild from the journal alone still finds them
+        List<byte[]> renames = new ArrayList<>(snapshot.aliases.size() + snapshot.chats.size());
+        for (Map.Entry<String, String> alias : snapshot.aliases.entrySet()) {
+            renames.add(journal.encodeMerge(alias.getKey(), alias.getValue()));
+        }
+        for (ChatState chat : snapshot.chats) {
+            renames.add(journal.encodeRename(chat.phoneNumber, chat.name));
+        }
+        long[] moved = journal.compact(renames, live, boundary);
+        long[] archived = coldCount > 0 ? journal.archive(cold, boundary) : new long[0];
+        int outputs = moved.length > 0 ? MessageJournal.segmentOf(moved[moved.length - 1]) + 1 : 1;
+        System.err.println("Compacted journal segments 0-" + (boundary - 1) + " into " + outputs
+            + ", archived " + coldCount + " messages");
+
+        // One mapping for both, ordered by old position
+        long[] from = new long[liveCount + coldCount];
+        long[] to = new long[from.length];
+        for (int i = 0, l = 0, c = 0; i < from.length; i++) {
+            if (c == coldCount || (l < liveCount && live[l] < cold[c])) {
+                from[i] = live[l];
+                to[i] = moved[l++];
+            } else {
+                from[i] = cold[c];
+                to[i] = archived[c++];
+            }
+        }
+
+        Snapshot current;
+        synchronized (this) {
+            if (started != generation || readers > 0) {
+                journal.deleteStaging();
+                return;
+            }
+            // Positions only move once reads come from the new segments
+            journal.commitCompaction(boundary, outputs);
+            long below = MessageJournal.position(boundary, 0);
+            for (Entry entry : entries.values()) {
+                long[] positions = entry.own();
+                for (int i = 0; i < entry.size && positions[i] < below; i++) {
+                    int index = Arrays.binarySearch(from, positions[i]);
+                    if (index >= 0) {
+                        positions[i] = to[index];
+                    }
+                }
+            }
+            searchIndex.remap(from, to, below);
+            // Includes queued records, the flush below puts them on disk
+            current = capture(journal.reservedEnd());
+        }
+        persistence.flush();
+        writeIndex(current, started);
+    }
+
+    /**
+     * Write the index covering everything written to the journal so far;
+     * called on exit after the persistence writer has been stopped
+     */
+    public void writeIndex() {
+        awaitMaintenance();
+        Snapshot snapshot;
+        int started;
+        synchronized (this) {
+            snapshot = capture(journal.writtenEnd());
+            started = generation;
+        }
+        writeIndex(snapshot, started);
+    }
+
+    /**
+     * Wait for a snapshot or compaction in progress
+     */
+    public void awaitMaintenance() {
+        try {
+            maintenance.submit(() -> { }).get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException e) {
+            System.err.println("Journal maintenance failed: " + e.getMessage());
+        }
+    }
+
+    private void writeIndex(Snapshot snapshot, int started) {
+        synchronized (indexLock) {
+            if (started != generation) {
+                return;
+            }
+            writeIndex(snapshot);
+        }
+    }
+
+    private void writeIndex(Snapshot snapshot) {
+        Path temp = DataManager.tempFor(indexFile);
+        try {
+            try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.CREATE,
+                    StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+                 RecordWriter writer = new RecordWriter(channel, StorageFormat.KIND_INDEX)) {
+                writer.begin(StorageFormat.LOG_POSITION).writeLong(snapshot.covered).end();
+                if (snapshot.compaction > 0) {
+                    writer.begin(StorageFormat.COMPACTION).writeInt(snapshot.compaction).end();
+                }
+                for (Map.Entry<String, String> alias : snapshot.aliases.entrySet()) {
+                    writer.begin(StorageFormat.MERGE_CHAT).writeText(alias.getKey()).writeText(alias.getValue()).end();
+                }
+                for (ChatState chat : snapshot.chats) {
+                    writeChat(writer, chat);
+                }
+                writer.sync();
+            }
+            DataManager.replace(temp, indexFile);
+        } catch (IOException e) {
+            System.err.println("Error writing chat index: " + e.getMessage());
+        }
+    }
+
+    private static void writeChat(RecordWriter writer, ChatState chat) throws IOException {
+        MessageItem last = chat.lastMessage;
+        int flags = (chat.name != null ? StorageFormat.FLAG_HAS_NAME : 0)
+            | (last != null ? StorageFormat.FLAG_HAS_LAST : 0);
+        writer.begin(StorageFormat.CHAT_SUMMARY)
+            .writeText(chat.phoneNumber)
+            .writeByte(flags);
+        if (chat.name != null) {
+            writer.writeText(chat.name);
+        }
+        writer.writeInt(chat.unreadCount).writeInt(chat.count);
+        if (last != null) {
+            writer.writeByte(last.isOutgoing() ? StorageFormat.FLAG_OUTGOING : 0)
+                .writeLong(StorageFormat.toEpochMillis(last.getTimestamp()))
+                .writeText(last.getText());
+        }
+        writer.end();
+
+        for (int start = 0; start < chat.count; start += StorageFormat.POSITIONS_PER_RECORD) {
+            int count = Math.min(StorageFormat.POSITIONS_PER_RECORD, chat.count - start);
+            writer.begin(StorageFormat.POSITIONS).writeInt(count);
+            for (int i = start; i < start + count; i++) {
+                writer.writeLong(chat.positions[i]);
+            }
+            writer.end();
+        }
+    }
+
+    /**
+     * @return Journal position the index covers, or -1 if it is missing or damaged
+     */
+    private long readIndex() {
+        if (!indexFile.exists()) {
+            return -1;
+        }
+        try (RecordReader reader = new RecordReader(FileChannel.open(indexFile.toPath(), StandardOpenOption.READ))) {
+            reader.readHeader(StorageFormat.KIND_INDEX);
+            long covered = -1;
+            indexGeneration = 0;
+            Entry current = null;
+            int type;
+            while ((type = reader.next()) != RecordReader.END) {
+                if (type == StorageFormat.LOG_POSITION) {
+                    covered = reader.readLong();
+                } else if (type == StorageFormat.COMPACTION) {
+                    indexGeneration = reader.readInt();
+                } else if (type == StorageFormat.MERGE_CHAT) {
+                    aliases.put(reader.readText(), reader.readText());
+                } else if (type == StorageFormat.CHAT_SUMMARY) {
+                    current = entryFor(reader.readText());
+                    int flags = reader.readByte();
+                    current.chat.setName((flags & StorageFormat.FLAG_HAS_NAME) != 0 ? reader.readText() : null);
+                    current.chat.setUnreadCount(reader.readInt());
+                    int count = reader.readInt();
+                    MessageItem last = null;
+                    if ((flags & StorageFormat.FLAG_HAS_LAST) != 0) {
+                        last = MessageJournal.readMessage(reader);
+                    }
+                    current.chat.setSummary(count, last);
+                } else if (type == StorageFormat.POSITIONS && current != null) {
+                    int count = reader.readInt();
+                    for (int i = 0; i < count; i++) {
+                        current.add(reader.readLong());
+                    }
+                }
+            }
+            if (reader.isTruncated() || covered < 0) {
+                throw new IOException("Index is incomplete");
+            }
+            for (Entry entry : entries.values()) {
+                if (entry.size != entry.chat.getMessageCount()) {
+                    throw new IOException("Index positions do not match for " + entry.chat.getPhoneNumber());
+                }
+            }
+            return covered;
+        } catch (IOException e) {
+            System.err.println("Ignoring chat index: " + e.getMessage());
+            entries.clear();
+            aliases.clear();
+            return -1;
+        }
+    }
+
+    /**
+     * Index contents as of a journal position
+     */
+    private static final class Snapshot {
+        final long covered;
+        // Journal generation the positions refer to
+        final int compaction;
+        final List<ChatState> chats = new ArrayList<>();
+        final Map<String, String> aliases = new HashMap<>();
+
+        Snapshot(long covered, int compaction) {
+            this.covered = covered;
+            this.compaction = compaction;
+        }
+    }
+
+    private static final class ChatState {
+        final String phoneNumber;
+        final String name;
+        final int unreadCount;
+        final MessageItem lastMessage;
+        // The entry's array, shared until the entry changes it in place; only the first count are the chat's
+        final long[] positions;
+        final int count;
+
+        ChatState(Entry entry) {
+            this.phoneNumber = entry.chat.getPhoneNumber();
+            this.name = entry.chat.getName();
+            this.unreadCount = entry.chat.getUnreadCount();
+            this.lastMessage = entry.chat.getLastMessageItem();
+            this.positions = entry.positions;
+            this.count = entry.size;
+            entry.shared = true;
+        }
+    }
+
+    /**
+     * Index entry: the chat and the journal positions of its messages, in order
+     */
+    private static final class Entry {
+        final ChatItem chat;
+        long[] positions = new long[8];
+        int size;
+        boolean lastDirty;
+        // A snapshot holds positions; appending past its count is fine, changes below need a copy
+        boolean shared;
+
+        Entry(ChatItem chat) {
+            this.chat = chat;
+        }
+
+        void add(long position) {
+            if (size == positions.length) {
+                positions = Arrays.copyOf(positions, size * 2);
+                shared = false;
+            }
+            positions[size++] = position;
+        }
+
+        // Take over another entry's positions, keeping them sorted
+        void merge(Entry other) {
+            long[] merged = new long[Math.max(8, size + other.size)];
+            int i = 0;
+            int j = 0;
+            int k = 0;
+            while (i < size || j < other.size) {
+                if (j == other.size || (i < size && positions[i] < other.positions[j])) {
+                    merged[k++] = positions[i++];
+                } else {
+                    merged[k++] = other.positions[j++];
+                }
+            }
+            positions = merged;
+            size = k;
+            shared = false;
+        }
+
+        void remove(int index) {
+            own();
+            System.arraycopy(positions, index + 1, positions, index, size - index - 1);
+            size--;
+        }
+
+        /**
+         * Positions to change in place, copied first if a snapshot holds them
+         */
+        long[] own() {
+            if (shared) {
+                positions = positions.clone();
+                shared = false;
+            }
+            return positions;
+        }
+    }
+}
@@ -1,19 +1,60 @@
 package com.sim800l.util;
 
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
 public class PDUEncoder {
     
+    // 8-bit concatenation reference, shared by all segments of one message
+    private static final AtomicInteger CONCAT_REFERENCE = new AtomicInteger();
+    
     /**
-     * Encode SMS to PDU format
+     * Encode SMS to PDU format, one PDU per segment
      * @param phoneNumber Recipient phone number
      * @param message Message text
-     * @return PDU string and length
+     * @return PDU strings and lengths, in segment order
+     */
+    public static List<PDUResult> encodePDU(String phoneNumber, String message) {
+        return encodePDU(phoneNumber, encodeUserData(message));
+    }
+    
+    /**
+     * Encode the user data of a message once so it can be addressed to
+     * any number of recipients
+     * @param message Message text
+     * @return Encoded segments with their data coding scheme
      */
-    public static PDUResult encodePDU(String phoneNumber, String message) {
+    public static EncodedMessage encodeUserData(String message) {
+        if (message == null || message.isEmpty()) {
+            throw new IllegalArgumentException("Message cannot be null or empty");
+        }
+        
+        SmsEncoding encoding = SmsEncoding.choose(message);
+        if (encoding.segments > SmsEncoding.MAX_SEGMENTS) {
+            throw new IllegalArgumentException("Message too long. Max " + SmsEncoding.MAX_SEGMENTS +
+                " segments. Current: " + encoding.segments + " (" + encoding.describe() + ")");
+        }
+        
+        int reference = CONCAT_REFERENCE.incrementAndGet() & 0xFF;
+        List<UserData> userData = encoding.scheme == SmsEncoding.Scheme.GSM7
+            ? encodeGsm7Segments(message, encoding, reference)
+            : encodeUCS2Segments(message, encoding, reference);
+        return new EncodedMessage(encoding, userData);
+    }
+    
+    /**
+     * Build SMS-SUBMIT PDUs for pre-encoded user data
+     * @param phoneNumber Recipient phone number
+     * @param message User data from encodeUserData
+     * @return PDU strings and lengths, in segment order
+     */
+    public static List<PDUResult> encodePDU(String phoneNumber, EncodedMessage message) {
         // Validate inputs
         if (phoneNumber == null || phoneNumber.isEmpty()) {
             throw new IllegalArgumentException("Phone number cannot be null or empty");
         }
-        if (message == null || message.isEmpty()) {
+        if (message == null) {
             throw new IllegalArgumentException("Message cannot be null or empty");
         }
         
@@ -23,71 +64,50 @@ public class PDUEncoder {
             throw new IllegalArgumentException("Invalid phone number - no valid digits");
         }
         
-        // Use codePointCount for proper emoji handling
-        int actualLength = message.codePointCount(0, message.length());
-        
-        // Check message length for UCS2 (70 chars max for single SMS)
-        if (!MessageEncoder.isAscii(message) && actualLength > 70) {
-            throw new IllegalArgumentException("Unicode message too long. Max 70 characters. Current: " + actualLength);
-        }
-        
-        // Check message length for 7-bit (160 chars max for single SMS)
-        if (MessageEncoder.isAscii(message) && actualLength > 160) {
-            throw new IllegalArgumentException("ASCII message too long. Max 160 characters. Current: " + actualLength);
-        }
-        
-        StringBuilder pdu = new StringBuilder();
-        
-        // SMSC (SMS Center) - using default (00)
-        pdu.append("00");
-        
-        // PDU type - SMS-SUBMIT with validity period
-        // 01 = SMS-SUBMIT
-        // + 10 = Validity Period Format (relative)
-        pdu.append("11");
-        
-        // Message Reference (00 = let phone set it)
-        pdu.append("00");
-        
-        // Destination Address (phone number)
         String encodedPhone = encodePhoneNumber(sanitizedPhone);
-        pdu.append(encodedPhone);
-        
-        // Protocol Identifier (00 = standard)
-        pdu.append("00");
+        boolean hasHeader = message.segments() > 1 || message.encoding.isNationalLanguage();
+        List<PDUResult> results = new ArrayList<>(message.segments());
         
-        // Data Coding Scheme
-        boolean isAscii = MessageEncoder.isAscii(message);
-        if (isAscii) {
-            // 00 = 7-bit GSM default alphabet
+        for (int i = 0; i < message.segments(); i++) {
+            StringBuilder pdu = new StringBuilder();
+            
+            // SMSC (SMS Center) - using default (00)
             pdu.append("00");
-        } else {
+            
+            // PDU type - SMS-SUBMIT with validity period
+            // 01 = SMS-SUBMIT
+            // + 10 = Validity Period Format (relative)
+            // + 40 = User Data Header Indicator
+            pdu.append(hasHeader ? "51" : "11");
+            
+            // Message Reference (00 = let phone set it)
+            pdu.append("00");
+            
+            // Destination Address (phone number)
+            pdu.append(encodedPhone);
+            
+            // Protocol Identifier (00 = standard)
+            pdu.append("00");
+            
+            // Data Coding Scheme
+            // 00 = 7-bit GSM alphabet (national tables are signalled in the UDH)
             // 08 = UCS2 (16-bit Unicode)
-            pdu.append("08");
-        }
-        
-        // Validity Period (relative format) - FF = maximum (63 weeks)
-        pdu.append("FF");
-        
-        // User Data
-        if (isAscii) {
-            // Encode as 7-bit GSM
-            String encoded7bit = encode7bit(message);
-            // User Data Length (in septets for 7-bit)
-            pdu.append(String.format("%02X", message.length()));
-            pdu.append(encoded7bit);
-        } else {
-            // Encode as UCS2 (16-bit Unicode)
-            String encodedUCS2 = MessageEncoder.encodeUCS2(message);
-            // User Data Length (in bytes for UCS2)
-            pdu.append(String.format("%02X", encodedUCS2.length() / 2));
-            pdu.append(encodedUCS2);
+            pdu.append(message.encoding.scheme == SmsEncoding.Scheme.GSM7 ? "00" : "08");
+            
+            // Validity Period (relative format) - FF = maximum (63 weeks)
+            pdu.append("FF");
+            
+            // User Data Length (septets for 7-bit, octets for UCS2) and User Data
+            UserData userData = message.userData.get(i);
+            HexCodec.appendByte(pdu, userData.length);
+            HexCodec.appendHex(pdu, userData.octets);
+            
+            // Calculate TPDU length (everything except SMSC)
+            int tpduLength = (pdu.length() - 2) / 2;
+            results.add(new PDUResult(pdu.toString(), tpduLength));
         }
         
-        // Calculate TPDU length (everything except SMSC)
-        int tpduLength = (pdu.length() - 2) / 2;
-        
-        return new PDUResult(pdu.toString(), tpduLength);
+        return results;
     }
     
     /**
@@ -105,7 +125,7 @@ public class PDUEncoder {
         String typeOfAddress = phoneNumber.startsWith("+") ? "91" : "81";
         
         // Length of phone number (number of digits)
-        result.append(String.format("%02X", number.length()));
+        HexCodec.appendByte(result, number.length());
         
         // Type of address
         result.append(typeOfAddress);
@@ -124,39 +144,121 @@ public class PDUEncoder {
     }
     
     /**
-     * Encode message as 7-bit GSM
+     * Split 7-bit message into segments, each with its user data header
      */
-    private static String encode7bit(String message) {
-        StringBuilder result = new StringBuilder();
-        int bits = 0;
-        int carry = 0;
+    private static List<UserData> encodeGsm7Segments(String message, SmsEncoding encoding, int reference) {
+        byte[] septets = GsmAlphabet.toSeptets(message, encoding.lockingLanguage, encoding.singleShiftLanguage);
+        boolean concatenated = encoding.segments > 1;
+        int headerOctets = SmsEncoding.headerOctets(encoding.lockingLanguage, encoding.singleShiftLanguage, concatenated);
+        int capacity = SmsEncoding.gsm7Capacity(headerOctets);
+        // Header is padded to a septet boundary
+        int headerSeptets = (headerOctets * 8 + 6) / 7;
+        int fillBits = headerSeptets * 7 - headerOctets * 8;
         
-        for (int i = 0; i < message.length(); i++) {
-            int char7bit = message.charAt(i) & 0x7F;
-            
-            int shift = bits % 7;
-            if (shift == 0) {
-                result.append(String.format("%02X", char7bit));
-            } else {
-                int current = ((char7bit << shift) | carry) & 0xFF;
-                result.append(String.format("%02X", current));
-                carry = char7bit >> (7 - shift);
+        List<UserData> segments = new ArrayList<>(encoding.segments);
+        int start = 0;
+        while (start < septets.length) {
+            int end = Math.min(start + capacity, septets.length);
+            // Never split an escape from the character it introduces
+            if (end < septets.length && septets[end - 1] == GsmAlphabet.ESCAPE) {
+                end--;
             }
-            
-            bits += 7;
-            
-            // Every 8th character doesn't need a new byte
-            if (shift == 6) {
-                carry = 0;
+            int count = end - start;
+            byte[] userData = new byte[((headerSeptets + count) * 7 + 7) / 8];
+            writeHeader(userData, encoding, concatenated, reference, segments.size() + 1);
+            GsmAlphabet.packSeptets(septets, start, count, userData, headerOctets, fillBits);
+            // UDL counts septets, including the padded header
+            segments.add(new UserData(userData, headerSeptets + count));
+            start = end;
+        }
+        return segments;
+    }
+    
+    /**
+     * Split UCS2 message into segments, each with its user data header
+     */
+    private static List<UserData> encodeUCS2Segments(String message, SmsEncoding encoding, int reference) {
+        boolean concatenated = encoding.segments > 1;
+        int headerOctets = SmsEncoding.headerOctets(GsmAlphabet.LANGUAGE_DEFAULT, GsmAlphabet.LANGUAGE_DEFAULT, concatenated);
+        int capacity = SmsEncoding.ucs2Capacity(headerOctets);
+        
+        List<UserData> segments = new ArrayList<>(encoding.segments);
+        int start = 0;
+        while (start < message.length()) {
+            int end = Math.min(start + capacity, message.length());
+            // Keep emoji surrogate pairs in one segment
+            if (end < message.length() && Character.isHighSurrogate(message.charAt(end - 1))) {
+                end--;
+            }
+            byte[] userData = new byte[headerOctets + (end - start) * 2];
+            writeHeader(userData, encoding, concatenated, reference, segments.size() + 1);
+            int pos = headerOctets;
+            for (int i = start; i < end; i++) {
+                char c = message.charAt(i);
+                userData[pos++] = (byte) (c >> 8);
+                userData[pos++] = (byte) c;
             }
+            segments.add(new UserData(userData, userData.length));
+            start = end;
         }
+        return segments;
+    }
+    
+    /**
+     * Write UDHL and information elements at the start of userData
+     */
+    private static void writeHeader(byte[] userData, SmsEncoding encoding, boolean concatenated, int reference, int sequence) {
+        int pos = 1;
+        if (concatenated) {
+            userData[pos++] = 0x00;
+            userData[pos++] = 0x03;
+            userData[pos++] = (byte) reference;
+            userData[pos++] = (byte) encoding.segments;
+            userData[pos++] = (byte) sequence;
+        }
+        if (encoding.lockingLanguage != GsmAlphabet.LANGUAGE_DEFAULT) {
+            userData[pos++] = 0x25;
+            userData[pos++] = 0x01;
+            userData[pos++] = (byte) encoding.lockingLanguage;
+        }
+        if (encoding.singleShiftLanguage != GsmAlphabet.LANGUAGE_DEFAULT) {
+            userData[pos++] = 0x24;
+            userData[pos++] = 0x01;
+            userData[pos++] = (byte) encoding.singleShiftLanguage;
+        }
+        if (pos > 1) {
+            userData[0] = (byte) (pos - 1);
+        }
+    }
+    
+    /**
+     * User data for every segment of a message, ready to be addressed
+     */
+    public static class EncodedMessage {
+        public final SmsEncoding encoding;
+        final List<UserData> userData;
         
-        // Append remaining carry if any
-        if (carry != 0) {
-            result.append(String.format("%02X", carry));
+        EncodedMessage(SmsEncoding encoding, List<UserData> userData) {
+            this.encoding = encoding;
+            this.userData = userData;
         }
         
-        return result.toString();
+        public int segments() {
+            return userData.size();
+        }
+    }
+    
+    /**
+     * TP-User-Data of one segment (header included) and its TP-UDL
+     */
+    static class UserData {
+        final byte[] octets;
+        final int length;
+        
+        UserData(byte[] octets, int length) {
+            this.octets = octets;
+            this.length = length;
+        }
     }
     
     /**
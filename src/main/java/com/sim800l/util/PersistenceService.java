@@ -0,0 +1,234 @@
+package com.sim800l.util;
+
+import com.sim800l.model.Contact;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Consumer;
+
+/**
+ * Write-behind persistence. Callers on the FX thread only queue changes;
+ * a single background writer appends them to the journal and rewrites the
+ * contacts file. Changes are coalesced: a batch is written once the flush
+ * interval has passed since its first change, or as soon as it holds
+ * FLUSH_THRESHOLD changes, and contact saves within one batch collapse to
+ * a single rewrite. Journal records stay readable by position with
+ * queuedRecord() until they are on disk, so readers need not flush.
+ */
+public class PersistenceService {
+
+    public static final long FLUSH_INTERVAL_MS = 500;
+    public static final int FLUSH_THRESHOLD = 64;
+
+    private final MessageJournal journal;
+    private final Consumer<Map<String, Contact>> contactsWriter;
+    private final Object lock = new Object();
+
+    // Guarded by lock
+    private List<byte[]> pendingJournal = new ArrayList<>();
+    // Records queued or being written, by journal position
+    private final Map<Long, byte[]> unwritten = new HashMap<>();
+    private List<Long> pendingPositions = new ArrayList<>();
+    private Map<String, Contact> pendingContacts;
+    private long firstPendingAt;
+    private long queuedBatches;
+    private long writtenBatches;
+    private boolean flushRequested;
+    private boolean stopped;
+
+    private Thread writerThread;
+
+    public PersistenceService(MessageJournal journal, Consumer<Map<String, Contact>> contactsWriter) {
+        this.journal = journal;
+        this.contactsWriter = contactsWriter;
+    }
+
+    public synchronized void start() {
+        if (writerThread != null) {
+            return;
+        }
+        writerThread = new Thread(this::runWriter, "persistence-writer");
+        writerThread.setDaemon(true);
+        writerThread.start();
+    }
+
+    /**
+     * Queue an encoded journal record; it is written by the writer thread
+     * @return The record's journal position
+     */
+    public long journal(byte[] record) {
+        synchronized (lock) {
+            if (pendingJournal.isEmpty() && pendingContacts == null) {
+                firstPendingAt = System.currentTimeMillis();
+            }
+            long position = journal.reserve(record.length);
+            pendingJournal.add(record);
+            pendingPositions.add(position);
+            unwritten.put(position, record);
+            // Wake the writer to start the interval, or to write a full batch now
+            if (pendingJournal.size() == 1 || pendingJournal.size() >= FLUSH_THRESHOLD) {
+                lock.notifyAll();
+            }
+            return position;
+        }
+    }
+
+    /**
+     * A journal record that is not on disk yet
+     * @return The record, or null once it can be read from the journal
+     */
+    public byte[] queuedRecord(long position) {
+        synchronized (lock) {
+            return unwritten.get(position);
+        }
+    }
+
+    /**
+     * Queue a contacts rewrite. The map is copied here, later saves in the
+     * same batch replace earlier ones.
+     */
+    public void saveContacts(Map<String, Contact> contacts) {
+        Map<String, Contact> copy = new HashMap<>(contacts);
+        synchronized (lock) {
+            if (pendingJournal.isEmpty() && pendingContacts == null) {
+                firstPendingAt = System.currentTimeMillis();
+                lock.notifyAll();
+            }
+            pendingContacts = copy;
+        }
+    }
+
+    /**
+     * Write everything queued so far and wait for it
+     */
+    public void flush() {
+        synchronized (lock) {
+            if (pendingJournal.isEmpty() && pendingContacts == null && queuedBatches == writtenBatches) {
+                return;
+            }
+            if (writerThread == null || !writerThread.isAlive()) {
+                writeNow();
+                return;
+            }
+            long target = queuedBatches + (pendingJournal.isEmpty() && pendingContacts == null ? 0 : 1);
+            flushRequested = true;
+            lock.notifyAll();
+            while (writtenBatches < target) {
+                try {
+                    lock.wait();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+            }
+        }
+    }
+
+    /**
+     * Flush and stop the writer; called on application exit
+     */
+    public void stop() {
+        flush();
+        Thread thread;
+        synchronized (lock) {
+            stopped = true;
+            lock.notifyAll();
+            thread = writerThread;
+        }
+        if (thread != null) {
+            try {
+                thread.join(5000);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        // Anything queued while stopping
+        synchronized (lock) {
+            if (!pendingJournal.isEmpty() || pendingContacts != null) {
+                writeNow();
+            }
+        }
+    }
+
+    private void runWriter() {
+        while (true) {
+            Batch batch;
+            synchronized (lock) {
+                try {
+                    while (!stopped && pendingJournal.isEmpty() && pendingContacts == null) {
+                        lock.wait();
+                    }
+                    // Coalescing window
+                    while (!stopped && !flushRequested && pendingJournal.size() < FLUSH_THRESHOLD) {
+                        long wait = firstPendingAt + FLUSH_INTERVAL_MS - System.currentTimeMillis();
+                        if (wait <= 0) {
+                            break;
+                        }
+                        lock.wait(wait);
+                    }
+                } catch (InterruptedException e) {
+                    return;
+                }
+                if (stopped && pendingJournal.isEmpty() && pendingContacts == null) {
+                    return;
+                }
+                batch = takeBatch();
+                flushRequested = false;
+            }
+
+            writeBatch(batch);
+            synchronized (lock) {
+                written(batch);
+                lock.notifyAll();
+            }
+        }
+    }
+
+    // Caller holds lock
+    private Batch takeBatch() {
+        Batch batch = new Batch(pendingJournal, pendingPositions, pendingContacts);
+        pendingJournal = new ArrayList<>();
+        pendingPositions = new ArrayList<>();
+        pendingContacts = null;
+        queuedBatches++;
+        return batch;
+    }
+
+    // Caller holds lock, used when there is no writer thread
+    private void writeNow() {
+        Batch batch = takeBatch();
+        writeBatch(batch);
+        written(batch);
+    }
+
+    // Caller holds lock; the batch's records are read from the journal from now on
+    private void written(Batch batch) {
+        for (Long position : batch.positions) {
+            unwritten.remove(position);
+        }
+        writtenBatches++;
+    }
+
+    private void writeBatch(Batch batch) {
+        if (!batch.journal.isEmpty()) {
+            journal.write(batch.journal);
+        }
+        if (batch.contacts != null) {
+            contactsWriter.accept(batch.contacts);
+        }
+    }
+
+    private static final class Batch {
+        final List<byte[]> journal;
+        final List<Long> positions;
+        final Map<String, Contact> contacts;
+
+        Batch(List<byte[]> journal, List<Long> positions, Map<String, Contact> contacts) {
+            this.journal = journal;
+            this.positions = positions;
+            this.contacts = contacts;
+        }
+    }
+}
@@ -0,0 +1,70 @@
+package com.sim800l.util;
+
+/**
+ * Phone number keys, so the same number written differently is found as
+ * one chat or contact
+ */
+public final class PhoneNumbers {
+
+    // Country calling code for numbers written without one, -Dsim800l.countryCode
+    public static final String DEFAULT_COUNTRY_CODE = System.getProperty("sim800l.countryCode", "98");
+    // Digits of the shortest national number, shorter ones are service codes
+    private static final int MIN_NATIONAL_LENGTH = 6;
+    // Digits after the country code of a subscriber number written without + or 0
+    private static final int MIN_SUBSCRIBER_LENGTH = 9;
+
+    private PhoneNumbers() {
+    }
+
+    /**
+     * Digits only (Persian and Arabic-Indic digits become ASCII), with a
+     * leading + for international numbers, 00 prefix included. Returns the
+     * trimmed input if it has no digits, e.g. an alphanumeric sender.
+     */
+    public static String normalize(String phoneNumber) {
+        String trimmed = phoneNumber.trim();
+        StringBuilder digits = new StringBuilder(trimmed.length() + 1);
+        boolean international = trimmed.startsWith("+");
+        for (int i = 0; i < trimmed.length(); i++) {
+            int digit = Character.digit(trimmed.charAt(i), 10);
+            if (digit >= 0) {
+                digits.append((char) ('0' + digit));
+            }
+        }
+        if (digits.length() == 0) {
+            return trimmed;
+        }
+        if (!international && digits.length() > 2 && digits.charAt(0) == '0' && digits.charAt(1) == '0') {
+            digits.delete(0, 2);
+            international = true;
+        }
+        return international ? digits.insert(0, '+').toString() : digits.toString();
+    }
+
+    /**
+     * E.164 form used as the key of chats and contacts: a national number
+     * (leading 0) gets DEFAULT_COUNTRY_CODE, so does a full-length number
+     * that starts with the country code but lacks the +. Short codes are
+     * only normalized, alphanumeric senders only trimmed.
+     */
+    public static String canonical(String phoneNumber) {
+        String trimmed = phoneNumber.trim();
+        for (int i = 0; i < trimmed.length(); i++) {
+            if (Character.isLetter(trimmed.charAt(i))) {
+                return trimmed;
+            }
+        }
+        String normalized = normalize(trimmed);
+        if (normalized.isEmpty() || normalized.charAt(0) == '+' || !Character.isDigit(normalized.charAt(0))) {
+            return normalized;
+        }
+        if (normalized.charAt(0) == '0' && normalized.length() > MIN_NATIONAL_LENGTH) {
+            return "+" + DEFAULT_COUNTRY_CODE + normalized.substring(1);
+        }
+        if (normalized.startsWith(DEFAULT_COUNTRY_CODE)
+                && normalized.length() >= DEFAULT_COUNTRY_CODE.length() + MIN_SUBSCRIBER_LENGTH) {
+            return "+" + normalized;
+        }
+        return normalized;
+    }
+}
@@ -0,0 +1,245 @@
+package com.sim800l.util;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Streaming reader for {@link StorageFormat} files. Reads the channel in
+ * large chunks and exposes one record at a time; field reads are bounds
+ * checked against the current record.
+ *
+ * Usage: readHeader(kind), then while ((type = next()) != END) read fields.
+ * A torn or corrupt tail ends the stream early and sets {@link #isTruncated()}.
+ * Can also read records from a buffer that is already in memory.
+ */
+public class RecordReader implements Closeable {
+
+    public static final int END = -1;
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private final FileChannel channel;
+    private ByteBuffer buffer;
+    private boolean eof;
+    private boolean truncated;
+    private int recordStart;
+    private int recordEnd;
+    // File offset of buffer position 0
+    private long bufferOffset;
+    private long validEnd;
+
+    /**
+     * Read from the channel's current position
+     */
+    public RecordReader(FileChannel channel) throws IOException {
+        this.channel = channel;
+        this.buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+        this.bufferOffset = channel.position();
+        this.validEnd = bufferOffset;
+        buffer.limit(0);
+    }
+
+    /**
+     * Read records in data from its position to its limit; offsets are
+     * relative to the buffer's start
+     */
+    public RecordReader(ByteBuffer data) {
+        this.channel = null;
+        this.buffer = data;
+        this.eof = true;
+        this.recordEnd = data.position();
+        this.validEnd = data.position();
+    }
+
+    /**
+     * Check magic, kind and version
+     * @return The file's format version
+     * @throws IOException if this is not a file of the expected kind
+     */
+    public int readHeader(byte kind) throws IOException {
+        if (!fill(StorageFormat.HEADER_SIZE)) {
+            throw new IOException("Missing file header");
+        }
+        if (buffer.getInt() != StorageFormat.MAGIC) {
+            throw new IOException("Not a storage file");
+        }
+        int version = buffer.getShort() & 0xFFFF;
+        byte fileKind = buffer.get();
+        buffer.get();
+        if (version > StorageFormat.VERSION) {
+            throw new IOException("Unsupported storage version " + version);
+        }
+        if (fileKind != kind) {
+            throw new IOException("Unexpected file kind " + fileKind);
+        }
+        recordEnd = buffer.position();
+        validEnd = offsetOf(recordEnd);
+        return version;
+    }
+
+    /**
+     * Advance to the next record
+     * @return Its type, or END
+     */
+    public int next() throws IOException {
+        buffer.position(recordEnd);
+        validEnd = offsetOf(recordEnd);
+        if (!fill(4)) {
+            truncated = buffer.hasRemaining();
+            return END;
+        }
+        int length = buffer.getInt(buffer.position());
+        if (length < 1 || length > StorageFormat.MAX_RECORD) {
+            truncated = true;
+            return END;
+        }
+        if (!fill(4 + length)) {
+            truncated = true;
+            return END;
+        }
+        recordStart = buffer.position();
+        buffer.position(recordStart + 4);
+        recordEnd = buffer.position() + length;
+        return buffer.get();
+    }
+
+    /**
+     * File offset of the record returned by the last next()
+     */
+    public long recordStart() {
+        return offsetOf(recordStart);
+    }
+
+    /**
+     * File offset just past the last complete record returned by next()
+     */
+    public long validEnd() {
+        return validEnd;
+    }
+
+    /**
+     * True if the file ended inside a record or in garbage
+     */
+    public boolean isTruncated() {
+        return truncated;
+    }
+
+    public int readByte() throws IOException {
+        check(1);
+        return buffer.get() & 0xFF;
+    }
+
+    public int readInt() throws IOException {
+        check(4);
+        return buffer.getInt();
+    }
+
+    public long readLong() throws IOException {
+        check(8);
+        return buffer.getLong();
+    }
+
+    public String readText() throws IOException {
+        int encoding = readByte();
+        int length = readVarint();
+        check(length);
+        if (encoding == StorageFormat.TEXT_UCS2) {
+            char[] chars = new char[length / 2];
+            for (int i = 0; i < chars.length; i++) {
+                chars[i] = buffer.getChar();
+            }
+            return new String(chars);
+        }
+        if (encoding != StorageFormat.TEXT_UTF8) {
+            throw new IOException("Unknown text encoding " + encoding);
+        }
+        char[] chars = new char[length];
+        int count = 0;
+        int end = buffer.position() + length;
+        try {
+            while (buffer.position() < end) {
+                int b = buffer.get() & 0xFF;
+                if (b < 0x80) {
+                    chars[count++] = (char) b;
+                } else if (b < 0xE0) {
+                    chars[count++] = (char) (((b & 0x1F) << 6) | (buffer.get() & 0x3F));
+                } else if (b < 0xF0) {
+                    chars[count++] = (char) (((b & 0x0F) << 12) | ((buffer.get() & 0x3F) << 6) | (buffer.get() & 0x3F));
+                } else {
+                    int cp = ((b & 0x07) << 18) | ((buffer.get() & 0x3F) << 12)
+                        | ((buffer.get() & 0x3F) << 6) | (buffer.get() & 0x3F);
+                    chars[count++] = Character.highSurrogate(cp);
+                    chars[count++] = Character.lowSurrogate(cp);
+                }
+            }
+        } catch (BufferUnderflowException e) {
+            throw new IOException("Malformed UTF-8 text");
+        }
+        if (buffer.position() != end) {
+            throw new IOException("Malformed UTF-8 text");
+        }
+        return new String(chars, 0, count);
+    }
+
+    private int readVarint() throws IOException {
+        int value = 0;
+        for (int shift = 0; shift < 32; shift += 7) {
+            int b = readByte();
+            value |= (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+        throw new IOException("Malformed length");
+    }
+
+    private void check(int bytes) throws IOException {
+        if (bytes < 0 || buffer.position() + bytes > recordEnd) {
+            throw new IOException("Record overrun");
+        }
+    }
+
+    private long offsetOf(int bufferPosition) {
+        return bufferOffset + bufferPosition;
+    }
+
+    /**
+     * Make at least bytes available from the current position
+     * @return false at end of file
+     */
+    private boolean fill(int bytes) throws IOException {
+        if (buffer.remaining() >= bytes) {
+            return true;
+        }
+        if (channel == null) {
+            return false;
+        }
+        bufferOffset += buffer.position();
+        recordEnd -= buffer.position();
+        buffer.compact();
+        if (buffer.capacity() < bytes) {
+            ByteBuffer larger = ByteBuffer.allocateDirect(Math.max(bytes, buffer.capacity() * 2));
+            buffer.flip();
+            larger.put(buffer);
+            buffer = larger;
+        }
+        // Read ahead as far as the buffer allows
+        while (!eof && buffer.hasRemaining()) {
+            if (channel.read(buffer) < 0) {
+                eof = true;
+            }
+        }
+        buffer.flip();
+        return buffer.remaining() >= bytes;
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (channel != null) {
+            channel.close();
+        }
+    }
+}
@@ -0,0 +1,200 @@
+package com.sim800l.util;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Buffered writer for {@link StorageFormat} files. A record is assembled in
+ * a scratch buffer so its length prefix can be filled in, then copied to
+ * the output buffer, which goes to the channel in large writes.
+ *
+ * Usage: begin(type), write fields, end(); flush() or close() when done.
+ * Without a channel it only encodes: begin(type), write fields, finish().
+ */
+public class RecordWriter implements Closeable {
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private final FileChannel channel;
+    private final ByteBuffer out;
+    private ByteBuffer record = ByteBuffer.allocate(1024);
+    private long position;
+
+    /**
+     * Write at the channel's current position; writes the file header if
+     * the channel is empty
+     */
+    public RecordWriter(FileChannel channel, byte kind) throws IOException {
+        this.channel = channel;
+        this.out = ByteBuffer.allocateDirect(BUFFER_SIZE);
+        this.position = channel.position();
+        if (channel.size() == 0) {
+            out.putInt(StorageFormat.MAGIC);
+            out.putShort((short) StorageFormat.VERSION);
+            out.put(kind);
+            out.put((byte) 0);
+            position += StorageFormat.HEADER_SIZE;
+        }
+    }
+
+    /**
+     * Record encoder, see finish()
+     */
+    public RecordWriter() {
+        this.channel = null;
+        this.out = null;
+    }
+
+    /**
+     * File offset the next record will be written at
+     */
+    public long position() {
+        return position;
+    }
+
+    public RecordWriter begin(byte type) {
+        record.clear();
+        record.putInt(0);
+        record.put(type);
+        return this;
+    }
+
+    public void end() throws IOException {
+        record.putInt(0, record.position() - 4);
+        record.flip();
+        if (record.remaining() > out.remaining()) {
+            flush();
+            if (record.remaining() > out.capacity()) {
+                while (record.hasRemaining()) {
+                    channel.write(record);
+                }
+                position += record.limit();
+                return;
+            }
+        }
+        position += record.remaining();
+        out.put(record);
+    }
+
+    /**
+     * End the current record and return its bytes (length prefix included)
+     * instead of writing them
+     */
+    public byte[] finish() {
+        record.putInt(0, record.position() - 4);
+        byte[] bytes = new byte[record.position()];
+        record.flip();
+        record.get(bytes);
+        return bytes;
+    }
+
+    public RecordWriter writeByte(int value) {
+        ensure(1);
+        record.put((byte) value);
+        return this;
+    }
+
+    public RecordWriter writeInt(int value) {
+        ensure(4);
+        record.putInt(value);
+        return this;
+    }
+
+    public RecordWriter writeLong(long value) {
+        ensure(8);
+        record.putLong(value);
+        return this;
+    }
+
+    /**
+     * Text as UTF-8 or UCS2, whichever is shorter. Null is written as empty.
+     */
+    public RecordWriter writeText(CharSequence text) {
+        if (text == null) {
+            text = "";
+        }
+        int utf8 = StorageFormat.utf8Length(text);
+        int ucs2 = text.length() * 2;
+        if (utf8 >= 0 && utf8 <= ucs2) {
+            ensure(6 + utf8);
+            record.put((byte) StorageFormat.TEXT_UTF8);
+            putVarint(utf8);
+            putUtf8(text);
+        } else {
+            ensure(6 + ucs2);
+            record.put((byte) StorageFormat.TEXT_UCS2);
+            putVarint(ucs2);
+            for (int i = 0; i < text.length(); i++) {
+                record.putChar(text.charAt(i));
+            }
+        }
+        return this;
+    }
+
+    private void putVarint(int value) {
+        while ((value & ~0x7F) != 0) {
+            record.put((byte) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        record.put((byte) value);
+    }
+
+    private void putUtf8(CharSequence text) {
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if (c < 0x80) {
+                record.put((byte) c);
+            } else if (c < 0x800) {
+                record.put((byte) (0xC0 | (c >> 6)));
+                record.put((byte) (0x80 | (c & 0x3F)));
+            } else if (Character.isHighSurrogate(c)) {
+                int cp = Character.toCodePoint(c, text.charAt(++i));
+                record.put((byte) (0xF0 | (cp >> 18)));
+                record.put((byte) (0x80 | ((cp >> 12) & 0x3F)));
+                record.put((byte) (0x80 | ((cp >> 6) & 0x3F)));
+                record.put((byte) (0x80 | (cp & 0x3F)));
+            } else {
+                record.put((byte) (0xE0 | (c >> 12)));
+                record.put((byte) (0x80 | ((c >> 6) & 0x3F)));
+                record.put((byte) (0x80 | (c & 0x3F)));
+            }
+        }
+    }
+
+    private void ensure(int bytes) {
+        if (record.remaining() < bytes) {
+            ByteBuffer larger = ByteBuffer.allocate(Math.max(record.capacity() * 2, record.position() + bytes));
+            record.flip();
+            larger.put(record);
+            record = larger;
+        }
+    }
+
+    public void flush() throws IOException {
+        if (channel == null) {
+            return;
+        }
+        out.flip();
+        while (out.hasRemaining()) {
+            channel.write(out);
+        }
+        out.clear();
+    }
+
+    /**
+     * Flush and force to disk
+     */
+    public void sync() throws IOException {
+        flush();
+        if (channel != null) {
+            channel.force(false);
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        flush();
+    }
+}
@@ -0,0 +1,403 @@
+package com.sim800l.util;
+
+import java.text.Normalizer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.TreeMap;
+
+/**
+ * In-memory inverted index over message text, keyed by journal position.
+ *
+ * Text is normalized before tokenizing so that the spellings people mix
+ * up match each other: Arabic and Persian letter variants (ي/ی, ك/ک, ة/ه,
+ * hamza forms of alef), diacritics, tatweel and ZWNJ are folded, Persian
+ * and Arabic-Indic digits become ASCII and everything is lower-cased.
+ *
+ * A query matches messages containing any of its words, the last word as
+ * a prefix so results show up while typing. Hits are ranked by the summed
+ * rarity (idf) of the words they contain, newer messages first on ties.
+ * Deletes are tombstones.
+ */
+public class SearchIndex {
+
+    // Shorter tokens match too much to be useful
+    public static final int MIN_TOKEN_LENGTH = 2;
+    // Terms a prefix may expand to
+    private static final int MAX_PREFIX_TERMS = 256;
+    // Tokens of one text checked for repeats without a hash set
+    private static final int DISTINCT_SCAN_LIMIT = 32;
+
+    // Sorted for prefix queries; adds and exact lookups go through the hash map
+    private final TreeMap<String, Postings> terms = new TreeMap<>();
+    private final HashMap<String, Postings> exact = new HashMap<>();
+    private final Set<Long> deleted = new HashSet<>();
+    // Live messages with at least one word, for the idf. Removing a message
+    // without words undercounts it by one until the next remap() recount.
+    private int documents;
+
+    public synchronized void add(long position, String text) {
+        List<String> tokens = tokenize(text);
+        if (tokens.isEmpty()) {
+            return;
+        }
+        for (String token : tokens) {
+            Postings postings = exact.get(token);
+            if (postings == null) {
+                postings = new Postings();
+                exact.put(token, postings);
+                terms.put(token, postings);
+            }
+            postings.add(position);
+        }
+        documents++;
+    }
+
+    public synchronized void remove(long position) {
+        if (deleted.add(position)) {
+            documents--;
+        }
+    }
+
+    /**
+     * Follow a journal compaction: journal positions below limit found in
+     * from (ascending) move to the same index in to, the others are
+     * dropped; archived (negative) positions stay
+     */
+    public synchronized void remap(long[] from, long[] to, long limit) {
+        deleted.removeIf(position -> position >= 0 && position < limit);
+        // Recount what is left, dropped positions were not all tombstoned
+        LongHashSet live = new LongHashSet(documents);
+        for (Postings postings : terms.values()) {
+            postings.sort();
+            int kept = 0;
+            for (int i = 0; i < postings.size; i++) {
+                long position = postings.positions[i];
+                if (position >= 0 && position < limit) {
+                    int index = Arrays.binarySearch(from, position);
+                    if (index < 0) {
+                        continue;
+                    }
+                    position = to[index];
+                }
+                postings.set(kept++, position);
+                live.add(position);
+            }
+            postings.size = kept;
+        }
+        terms.values().removeIf(postings -> postings.size == 0);
+        exact.values().removeIf(postings -> postings.size == 0);
+        documents = live.size();
+        for (long position : deleted) {
+            if (live.contains(position)) {
+                documents--;
+            }
+        }
+    }
+
+    public synchronized void clear() {
+        terms.clear();
+        exact.clear();
+        deleted.clear();
+        documents = 0;
+    }
+
+    /**
+     * @return Positions of the best matching messages, best first
+     */
+    public synchronized List<Long> search(String query, int limit) {
+        if (limit <= 0) {
+            return Collections.emptyList();
+        }
+        List<String> tokens = tokenize(query);
+        int count = tokens.size();
+        List<List<Postings>> matching = new ArrayList<>(count);
+        double[] idfs = new double[count];
+        for (int i = 0; i < count; i++) {
+            String token = tokens.get(i);
+            List<Postings> termPostings = new ArrayList<>();
+            if (i == count - 1) {
+                for (Postings postings : terms.subMap(token, token + Character.MAX_VALUE).values()) {
+                    termPostings.add(postings);
+                    if (termPostings.size() == MAX_PREFIX_TERMS) {
+                        break;
+                    }
+                }
+            } else if (exact.containsKey(token)) {
+                termPostings.add(exact.get(token));
+            }
+            int frequency = 0;
+            for (Postings postings : termPostings) {
+                postings.sort();
+                frequency += postings.size;
+            }
+            matching.add(termPostings);
+            idfs[i] = frequency == 0 ? 0 : Math.log(1 + (double) Math.max(documents, 1) / frequency);
+        }
+
+        // Query words by rarity, most common first
+        Integer[] order = new Integer[count];
+        for (int i = 0; i < count; i++) {
+            order[i] = i;
+        }
+        Arrays.sort(order, (a, b) -> Double.compare(idfs[a], idfs[b]));
+
+        // One cursor per matching term, walking its postings from the newest position down
+        PriorityQueue<Cursor> cursors = new PriorityQueue<>((a, b) -> Long.compare(b.position(), a.position()));
+        for (int i = 0; i < count; i++) {
+            for (Postings postings : matching.get(i)) {
+                if (postings.size > 0) {
+                    cursors.add(new Cursor(postings, i));
+                }
+            }
+        }
+
+        // Lowest score (then oldest) on top, so it is the one replaced
+        PriorityQueue<Hit> best = new PriorityQueue<>();
+        // Words too common to lift a message into the results on their own (MaxScore):
+        // they are only probed for positions found through the other words
+        boolean[] probed = new boolean[count];
+        int probedCount = 0;
+        double probedScore = 0;
+        boolean[] seen = new boolean[count];
+        while (!cursors.isEmpty()) {
+            if (best.size() == limit) {
+                double threshold = best.peek().score;
+                int before = probedCount;
+                while (probedCount < count && probedScore + idfs[order[probedCount]] <= threshold) {
+                    probed[order[probedCount]] = true;
+                    probedScore += idfs[order[probedCount]];
+                    probedCount++;
+                }
+                if (probedCount == count) {
+                    break;
+                }
+                if (probedCount != before) {
+                    cursors.removeIf(cursor -> probed[cursor.token]);
+                    if (cursors.isEmpty()) {
+                        break;
+                    }
+                }
+            }
+
+            long position = cursors.peek().position();
+            Arrays.fill(seen, false);
+            while (!cursors.isEmpty() && cursors.peek().position() == position) {
+                Cursor cursor = cursors.poll();
+                // A message matching several expansions of a prefix counts once
+                seen[cursor.token] = true;
+                if (cursor.advance()) {
+                    cursors.add(cursor);
+                }
+            }
+            if (!deleted.isEmpty() && deleted.contains(position)) {
+                continue;
+            }
+            double score = 0;
+            for (int i = 0; i < count; i++) {
+                if (seen[i] || (probed[i] && contains(matching.get(i), position))) {
+                    score += idfs[i];
+                }
+            }
+            if (best.size() < limit) {
+                best.add(new Hit(position, score));
+            } else if (score > best.peek().score) {
+                best.poll();
+                best.add(new Hit(position, score));
+            }
+        }
+        Long[] result = new Long[best.size()];
+        for (int i = result.length - 1; i >= 0; i--) {
+            result[i] = best.poll().position;
+        }
+        return Arrays.asList(result);
+    }
+
+    private static boolean contains(List<Postings> termPostings, long position) {
+        for (Postings postings : termPostings) {
+            if (Arrays.binarySearch(postings.positions, 0, postings.size, position) >= 0) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Distinct normalized words of text, in order
+     */
+    public static List<String> tokenize(CharSequence text) {
+        List<String> tokens = new ArrayList<>();
+        Set<String> seen = null;
+        String normalized = normalize(text);
+        int start = -1;
+        int length = 0;
+        for (int i = 0; i <= normalized.length(); ) {
+            int cp = i < normalized.length() ? normalized.codePointAt(i) : ' ';
+            if (Character.isLetterOrDigit(cp)) {
+                if (start < 0) {
+                    start = i;
+                    length = 0;
+                }
+                length++;
+            } else if (start >= 0) {
+                if (length >= MIN_TOKEN_LENGTH) {
+                    String token = normalized.substring(start, i);
+                    // Messages are short, a linear check is cheaper than hashing until they are not
+                    if (seen == null && tokens.size() == DISTINCT_SCAN_LIMIT) {
+                        seen = new HashSet<>(tokens);
+                    }
+                    if (seen != null ? seen.add(token) : !tokens.contains(token)) {
+                        tokens.add(token);
+                    }
+                }
+                start = -1;
+            }
+            i += Character.charCount(cp);
+        }
+        return tokens;
+    }
+
+    /**
+     * Fold the variants described in the class comment
+     */
+    public static String normalize(CharSequence text) {
+        String composed = needsCompatibilityForms(text)
+            ? Normalizer.normalize(text, Normalizer.Form.NFKC)
+            : text.toString();
+        StringBuilder out = new StringBuilder(composed.length());
+        for (int i = 0; i < composed.length(); i++) {
+            char c = composed.charAt(i);
+            switch (c) {
+                case 'ي': // Arabic yeh
+                case 'ى': // alef maksura
+                case 'ئ': // yeh with hamza
+                    out.append('ی');
+                    break;
+                case 'ك': // Arabic kaf
+                    out.append('ک');
+                    break;
+                case 'ة': // teh marbuta
+                case 'ۀ': // heh with yeh
+                    out.append('ه');
+                    break;
+                case 'آ': // alef with madda
+                case 'أ': // alef with hamza above
+                case 'إ': // alef with hamza below
+                case 'ٱ': // alef wasla
+                    out.append('ا');
+                    break;
+                case 'ؤ': // waw with hamza
+                    out.append('و');
+                    break;
+                case '\u200C': // ZWNJ
+                case '\u200D': // ZWJ
+                case 'ـ': // tatweel
+                    break;
+                default:
+                    if (c >= '۰' && c <= '۹') {
+                        out.append((char) ('0' + c - '۰'));
+                    } else if (c >= '٠' && c <= '٩') {
+                        out.append((char) ('0' + c - '٠'));
+                    } else if (Character.getType(c) != Character.NON_SPACING_MARK) {
+                        out.append(Character.toLowerCase(c));
+                    }
+                    break;
+            }
+        }
+        return out.toString();
+    }
+
+    /**
+     * False for ASCII and Arabic-block text, which NFKC leaves as the
+     * folding below would (the common case, and NFKC is slow); decomposed
+     * hamza and madda marks are dropped by the folding either way
+     */
+    private static boolean needsCompatibilityForms(CharSequence text) {
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if (c < 0x80 || c == '\u200C' || c == '\u200D') {
+                continue;
+            }
+            if (c < 0x0600 || c > 0x06FF || (c >= 0x0675 && c <= 0x0678)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Positions of the messages containing one term, ascending once sorted.
+     * Positions are mostly added in order, so sorting is rarely needed.
+     */
+    private static final class Postings {
+        long[] positions = new long[2];
+        int size;
+        boolean sorted = true;
+
+        void add(long position) {
+            if (size == positions.length) {
+                positions = Arrays.copyOf(positions, size * 2);
+            }
+            if (size > 0 && position < positions[size - 1]) {
+                sorted = false;
+            }
+            positions[size++] = position;
+        }
+
+        // Replace the position at index, which is at most size
+        void set(int index, long position) {
+            if (index > 0 && position < positions[index - 1]) {
+                sorted = false;
+            }
+            positions[index] = position;
+        }
+
+        void sort() {
+            if (!sorted) {
+                Arrays.sort(positions, 0, size);
+                sorted = true;
+            }
+        }
+    }
+
+    private static final class Cursor {
+        final Postings postings;
+        final int token;
+        int index;
+
+        Cursor(Postings postings, int token) {
+            this.postings = postings;
+            this.token = token;
+            this.index = postings.size - 1;
+        }
+
+        long position() {
+            return postings.positions[index];
+        }
+
+        boolean advance() {
+            return --index >= 0;
+        }
+    }
+
+    private static final class Hit implements Comparable<Hit> {
+        final long position;
+        final double score;
+
+        Hit(long position, double score) {
+            this.position = position;
+            this.score = score;
+        }
+
+        @Override
+        public int compareTo(Hit other) {
+            int byScore = Double.compare(score, other.score);
+            return byScore != 0 ? byScore : Long.compare(position, other.position);
+        }
+    }
+}
@@ -0,0 +1,285 @@
+package com.sim800l.util;
+
+import com.sim800l.model.IncomingSms;
+
+import java.time.DateTimeException;
+import java.time.OffsetDateTime;
+import java.time.ZoneOffset;
+
+/**
+ * Decodes SMS-DELIVER PDUs (3GPP TS 23.040) as delivered by +CMT in PDU mode.
+ * Octets are read in place from the received hex characters; no substrings
+ * or intermediate byte arrays are created. An instance is not thread-safe,
+ * the reader thread keeps one and reuses it.
+ */
+public class SmsDeliverDecoder {
+
+    private static final int ALPHABET_GSM7 = 0;
+    private static final int ALPHABET_8BIT = 1;
+    private static final int ALPHABET_UCS2 = 2;
+
+    // SMSC (max 12) + SMS-DELIVER header (max 27) + user data (140)
+    private static final int MAX_PDU_OCTETS = 180;
+
+    private static final String ADDRESS_DIGITS = "0123456789*#abc";
+
+    // Flyweight view over the current PDU
+    private CharSequence source;
+    private int base;
+    private int octets;
+
+    public IncomingSms decode(CharSequence pdu) {
+        return decode(pdu, 0, pdu.length());
+    }
+
+    /**
+     * Decode the hex PDU in source[start, end)
+     * @throws IllegalArgumentException if the PDU is malformed or not an SMS-DELIVER
+     */
+    public IncomingSms decode(CharSequence pdu, int start, int end) {
+        if (pdu == null || end - start < 2 || (end - start) % 2 != 0) {
+            throw new IllegalArgumentException("Invalid PDU length");
+        }
+        if ((end - start) / 2 > MAX_PDU_OCTETS) {
+            throw new IllegalArgumentException("PDU too long");
+        }
+        source = pdu;
+        base = start;
+        octets = (end - start) / 2;
+        try {
+            return parse();
+        } finally {
+            source = null;
+        }
+    }
+
+    private IncomingSms parse() {
+        int pos = 0;
+
+        // Service centre address: length in octets (including type), type, BCD digits
+        int smscLength = octet(pos);
+        String serviceCenter = smscLength > 1 ? readAddress(pos + 2, (smscLength - 1) * 2, octet(pos + 1)) : "";
+        pos += 1 + smscLength;
+
+        // First octet: MTI 00 = SMS-DELIVER, bit 6 = user data header present
+        int firstOctet = octet(pos++);
+        if ((firstOctet & 0x03) != 0) {
+            throw new IllegalArgumentException("Not an SMS-DELIVER PDU");
+        }
+        boolean hasHeader = (firstOctet & 0x40) != 0;
+
+        // Originator address: length in digits, type, digits (or packed 7-bit for alphanumeric)
+        int senderDigits = octet(pos++);
+        int senderType = octet(pos++);
+        String sender = (senderType & 0x70) == 0x50
+            ? readAlphanumeric(pos, senderDigits * 4 / 7)
+            : readAddress(pos, senderDigits, senderType);
+        pos += (senderDigits + 1) / 2;
+
+        // Protocol identifier (ignored) and data coding scheme
+        pos++;
+        int dcs = octet(pos++);
+
+        OffsetDateTime timestamp = readTimestamp(pos);
+        pos += 7;
+
+        int alphabet = alphabet(dcs);
+        int userDataLength = octet(pos++);
+        if (userDataLength > (alphabet == ALPHABET_GSM7 ? 160 : 140)) {
+            throw new IllegalArgumentException("Invalid user data length: " + userDataLength);
+        }
+        int userDataStart = pos;
+
+        // User data header: concatenation and national language shift IEs
+        int headerOctets = 0;
+        int lockingLanguage = GsmAlphabet.LANGUAGE_DEFAULT;
+        int shiftLanguage = GsmAlphabet.LANGUAGE_DEFAULT;
+        int reference = 0;
+        int total = 1;
+        int sequence = 1;
+        if (hasHeader) {
+            int headerLength = octet(userDataStart);
+            headerOctets = headerLength + 1;
+            int ie = userDataStart + 1;
+            int headerEnd = userDataStart + headerOctets;
+            while (ie + 1 < headerEnd) {
+                int id = octet(ie);
+                int length = octet(ie + 1);
+                int data = ie + 2;
+                if (id == 0x00 && length == 3) {
+                    reference = octet(data);
+                    total = octet(data + 1);
+                    sequence = octet(data + 2);
+                } else if (id == 0x08 && length == 4) {
+                    reference = (octet(data) << 8) | octet(data + 1);
+                    total = octet(data + 2);
+                    sequence = octet(data + 3);
+                } else if (id == 0x24 && length == 1) {
+                    shiftLanguage = octet(data);
+                } else if (id == 0x25 && length == 1) {
+                    lockingLanguage = octet(data);
+                }
+                ie = data + length;
+            }
+        }
+
+        String text;
+        if (alphabet == ALPHABET_GSM7) {
+            int headerSeptets = (headerOctets * 8 + 6) / 7;
+            text = readSeptets(userDataStart, headerSeptets, userDataLength - headerSeptets,
+                lockingLanguage, shiftLanguage);
+        } else if (alphabet == ALPHABET_UCS2) {
+            text = readUCS2(userDataStart + headerOctets, userDataLength - headerOctets);
+        } else {
+            text = readOctets(userDataStart + headerOctets, userDataLength - headerOctets);
+        }
+
+        if (total < 1 || sequence < 1 || sequence > total) {
+            total = 1;
+            sequence = 1;
+        }
+        return new IncomingSms(sender, text, serviceCenter, timestamp, dcs, reference, total, sequence);
+    }
+
+    private int octet(int index) {
+        if (index < 0 || index >= octets) {
+            throw new IllegalArgumentException("PDU truncated");
+        }
+        int offset = base + index * 2;
+        int high = HexCodec.nibble(source.charAt(offset));
+        int low = HexCodec.nibble(source.charAt(offset + 1));
+        if (high < 0 || low < 0) {
+            throw new IllegalArgumentException("Invalid hex in PDU");
+        }
+        return (high << 4) | low;
+    }
+
+    /**
+     * Semi-octet (swapped BCD) address; 0x91 type gets a leading +
+     */
+    private String readAddress(int pos, int digits, int type) {
+        StringBuilder address = new StringBuilder(digits + 1);
+        if ((type & 0x70) == 0x10) {
+            address.append('+');
+        }
+        for (int i = 0; i < digits; i++) {
+            int value = octet(pos + i / 2);
+            int digit = (i & 1) == 0 ? value & 0x0F : value >> 4;
+            if (digit == 0x0F) {
+                break;
+            }
+            address.append(ADDRESS_DIGITS.charAt(digit));
+        }
+        return address.toString();
+    }
+
+    private String readAlphanumeric(int pos, int septets) {
+        return readSeptets(pos, 0, septets, GsmAlphabet.LANGUAGE_DEFAULT, GsmAlphabet.LANGUAGE_DEFAULT);
+    }
+
+    /**
+     * Unpack septets starting after skipSeptets (the padded header) and map
+     * them through the locking/shift tables
+     */
+    private String readSeptets(int pos, int skipSeptets, int count, int lockingLanguage, int shiftLanguage) {
+        if (count <= 0) {
+            return "";
+        }
+        StringBuilder text = new StringBuilder(count);
+        boolean escaped = false;
+        for (int i = 0; i < count; i++) {
+            int bit = (skipSeptets + i) * 7;
+            int index = pos + (bit >> 3);
+            int shift = bit & 7;
+            int septet = octet(index) >> shift;
+            if (shift > 1) {
+                septet |= octet(index + 1) << (8 - shift);
+            }
+            septet &= 0x7F;
+
+            if (escaped) {
+                text.append(GsmAlphabet.toShiftChar(septet, shiftLanguage));
+                escaped = false;
+            } else if (septet == GsmAlphabet.ESCAPE) {
+                escaped = true;
+            } else {
+                text.append(GsmAlphabet.toChar(septet, lockingLanguage));
+            }
+        }
+        return text.toString();
+    }
+
+    private String readUCS2(int pos, int length) {
+        if (length <= 0) {
+            return "";
+        }
+        char[] chars = new char[length / 2];
+        for (int i = 0; i < chars.length; i++) {
+            chars[i] = (char) ((octet(pos + i * 2) << 8) | octet(pos + i * 2 + 1));
+        }
+        return new String(chars);
+    }
+
+    private String readOctets(int pos, int length) {
+        if (length <= 0) {
+            return "";
+        }
+        char[] chars = new char[length];
+        for (int i = 0; i < length; i++) {
+            chars[i] = (char) octet(pos + i);
+        }
+        return new String(chars);
+    }
+
+    /**
+     * SCTS: swapped BCD year, month, day, hour, minute, second and the time
+     * zone in quarter hours (bit 3 of the first digit is the sign)
+     */
+    private OffsetDateTime readTimestamp(int pos) {
+        try {
+            int zone = octet(pos + 6);
+            int quarters = (zone & 0x07) * 10 + (zone >> 4);
+            if ((zone & 0x08) != 0) {
+                quarters = -quarters;
+            }
+            return OffsetDateTime.of(
+                2000 + swappedBcd(octet(pos)),
+                swappedBcd(octet(pos + 1)),
+                swappedBcd(octet(pos + 2)),
+                swappedBcd(octet(pos + 3)),
+                swappedBcd(octet(pos + 4)),
+                swappedBcd(octet(pos + 5)),
+                0,
+                ZoneOffset.ofTotalSeconds(quarters * 15 * 60));
+        } catch (DateTimeException e) {
+            // Garbage timestamp from the network, fall back to local time
+            return OffsetDateTime.now();
+        }
+    }
+
+    private static int swappedBcd(int value) {
+        return (value & 0x0F) * 10 + (value >> 4);
+    }
+
+    /**
+     * Alphabet from the data coding scheme (3GPP TS 23.038 section 4)
+     */
+    private static int alphabet(int dcs) {
+        if ((dcs & 0x80) == 0) {
+            // General data coding / automatic deletion groups
+            if ((dcs & 0x20) != 0) {
+                throw new IllegalArgumentException("Compressed SMS not supported");
+            }
+            int alphabet = (dcs >> 2) & 0x03;
+            return alphabet == 3 ? ALPHABET_GSM7 : alphabet;
+        }
+        switch (dcs & 0xF0) {
+            case 0xE0:
+                return ALPHABET_UCS2;
+            case 0xF0:
+                return (dcs & 0x04) != 0 ? ALPHABET_8BIT : ALPHABET_GSM7;
+            default:
+                return ALPHABET_GSM7;
+        }
+    }
+}
@@ -0,0 +1,175 @@
+package com.sim800l.util;
+
+/**
+ * Encoding chosen for an outgoing SMS: GSM 7-bit (optionally with national
+ * language shift tables) or UCS2, and how many segments it needs.
+ */
+public class SmsEncoding {
+
+    public enum Scheme {
+        GSM7, UCS2
+    }
+
+    public static final int MAX_SEGMENTS = 10;
+
+    // TP-User-Data is 140 octets per segment
+    static final int USER_DATA_OCTETS = 140;
+    // IEI 00 (8-bit reference), length 3, reference, total, sequence
+    static final int CONCAT_IE_OCTETS = 5;
+    // IEI 24/25 (single/locking shift), length 1, language
+    static final int SHIFT_IE_OCTETS = 3;
+
+    public final Scheme scheme;
+    public final int lockingLanguage;
+    public final int singleShiftLanguage;
+    /** Septets for GSM7, UTF-16 code units for UCS2 */
+    public final int length;
+    public final int segments;
+
+    private SmsEncoding(Scheme scheme, int lockingLanguage, int singleShiftLanguage, int length, int segments) {
+        this.scheme = scheme;
+        this.lockingLanguage = lockingLanguage;
+        this.singleShiftLanguage = singleShiftLanguage;
+        this.length = length;
+        this.segments = segments;
+    }
+
+    /**
+     * Pick the encoding with the fewest segments. The default GSM alphabet
+     * always wins when it can encode the text; national tables are only used
+     * when they need fewer segments than UCS2.
+     */
+    public static SmsEncoding choose(CharSequence text) {
+        int defaultSeptets = GsmAlphabet.countSeptets(text, GsmAlphabet.LANGUAGE_DEFAULT, GsmAlphabet.LANGUAGE_DEFAULT);
+        if (defaultSeptets >= 0) {
+            return gsm7(text, GsmAlphabet.LANGUAGE_DEFAULT, GsmAlphabet.LANGUAGE_DEFAULT, defaultSeptets);
+        }
+
+        SmsEncoding best = ucs2(text);
+        for (int language : GsmAlphabet.NATIONAL_LANGUAGES) {
+            int[][] combinations = {
+                { GsmAlphabet.LANGUAGE_DEFAULT, language },
+                { language, GsmAlphabet.LANGUAGE_DEFAULT },
+                { language, language }
+            };
+            for (int[] tables : combinations) {
+                if (!GsmAlphabet.hasLockingTable(tables[0]) || !GsmAlphabet.hasShiftTable(tables[1])) {
+                    continue;
+                }
+                int septets = GsmAlphabet.countSeptets(text, tables[0], tables[1]);
+                if (septets < 0) {
+                    continue;
+                }
+                SmsEncoding candidate = gsm7(text, tables[0], tables[1], septets);
+                if (candidate.segments < best.segments) {
+                    best = candidate;
+                }
+            }
+        }
+        return best;
+    }
+
+    static SmsEncoding gsm7(CharSequence text, int lockingLanguage, int singleShiftLanguage, int septets) {
+        int single = gsm7Capacity(headerOctets(lockingLanguage, singleShiftLanguage, false));
+        int segments = 1;
+        if (septets > single) {
+            // Greedy split that never separates an escape from its character
+            int capacity = gsm7Capacity(headerOctets(lockingLanguage, singleShiftLanguage, true));
+            int used = 0;
+            for (int i = 0; i < text.length(); i++) {
+                int septetLength = GsmAlphabet.septetLength(text.charAt(i), lockingLanguage, singleShiftLanguage);
+                if (used + septetLength > capacity) {
+                    segments++;
+                    used = 0;
+                }
+                used += septetLength;
+            }
+        }
+        return new SmsEncoding(Scheme.GSM7, lockingLanguage, singleShiftLanguage, septets, segments);
+    }
+
+    static SmsEncoding ucs2(CharSequence text) {
+        int units = text.length();
+        int segments = 1;
+        if (units > ucs2Capacity(0)) {
+            // Greedy split that never separates a surrogate pair
+            int capacity = ucs2Capacity(CONCAT_IE_OCTETS + 1);
+            int used = 0;
+            for (int i = 0; i < units; i++) {
+                int unitLength = Character.isHighSurrogate(text.charAt(i)) && i + 1 < units ? 2 : 1;
+                if (used + unitLength > capacity) {
+                    segments++;
+                    used = 0;
+                }
+                used += unitLength;
+                i += unitLength - 1;
+            }
+        }
+        return new SmsEncoding(Scheme.UCS2, GsmAlphabet.LANGUAGE_DEFAULT, GsmAlphabet.LANGUAGE_DEFAULT, units, segments);
+    }
+
+    /**
+     * Segment count from the length alone, for callers that track counts
+     * incrementally. An escape or surrogate pair straddling a boundary can
+     * make the real split longer, see EncodingPlanner.
+     */
+    static SmsEncoding estimate(Scheme scheme, int lockingLanguage, int singleShiftLanguage, int length) {
+        int single;
+        int capacity;
+        if (scheme == Scheme.GSM7) {
+            single = gsm7Capacity(headerOctets(lockingLanguage, singleShiftLanguage, false));
+            capacity = gsm7Capacity(headerOctets(lockingLanguage, singleShiftLanguage, true));
+        } else {
+            single = ucs2Capacity(0);
+            capacity = ucs2Capacity(CONCAT_IE_OCTETS + 1);
+        }
+        int segments = length <= single ? 1 : (length + capacity - 1) / capacity;
+        return new SmsEncoding(scheme, lockingLanguage, singleShiftLanguage, length, segments);
+    }
+
+    /**
+     * User data header size in octets including the UDHL byte, 0 if no header
+     */
+    static int headerOctets(int lockingLanguage, int singleShiftLanguage, boolean concatenated) {
+        int octets = 0;
+        if (concatenated) {
+            octets += CONCAT_IE_OCTETS;
+        }
+        if (lockingLanguage != GsmAlphabet.LANGUAGE_DEFAULT) {
+            octets += SHIFT_IE_OCTETS;
+        }
+        if (singleShiftLanguage != GsmAlphabet.LANGUAGE_DEFAULT) {
+            octets += SHIFT_IE_OCTETS;
+        }
+        return octets == 0 ? 0 : octets + 1;
+    }
+
+    static int gsm7Capacity(int headerOctets) {
+        return (USER_DATA_OCTETS - headerOctets) * 8 / 7;
+    }
+
+    static int ucs2Capacity(int headerOctets) {
+        return (USER_DATA_OCTETS - headerOctets) / 2;
+    }
+
+    public boolean isNationalLanguage() {
+        return lockingLanguage != GsmAlphabet.LANGUAGE_DEFAULT || singleShiftLanguage != GsmAlphabet.LANGUAGE_DEFAULT;
+    }
+
+    /**
+     * Short name for logs and the UI, e.g. "GSM7", "GSM7 Urdu shift", "UCS2"
+     */
+    public String describe() {
+        if (scheme == Scheme.UCS2) {
+            return "UCS2";
+        }
+        if (lockingLanguage != GsmAlphabet.LANGUAGE_DEFAULT) {
+            return "GSM7 " + GsmAlphabet.languageName(lockingLanguage) +
+                (singleShiftLanguage != GsmAlphabet.LANGUAGE_DEFAULT ? " locking+shift" : " locking");
+        }
+        if (singleShiftLanguage != GsmAlphabet.LANGUAGE_DEFAULT) {
+            return "GSM7 " + GsmAlphabet.languageName(singleShiftLanguage) + " shift";
+        }
+        return "GSM7";
+    }
+}
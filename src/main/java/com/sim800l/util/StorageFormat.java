@@ -0,0 +1,110 @@
+package com.sim800l.util;
+
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+
+/**
+ * Binary storage format shared by the journal, its archive, the chat
+ * index and the contacts file.
+ *
+ * <pre>
+ * file    = magic "SIMS" | u16 version | u8 kind | u8 reserved | record*
+ * record  = u32 length | u8 type | payload          (length covers type + payload)
+ * text    = u8 encoding | varint byte count | bytes (0 = UTF-8, 1 = UCS2 big-endian)
+ * time    = i64 epoch millis
+ * flags   = u8 bit set, see FLAG_*
+ * </pre>
+ *
+ * Journal (the message log): ADD_MESSAGE, DELETE_MESSAGE, DELETE_CHAT,
+ * RENAME_CHAT and MERGE_CHAT records in the order they happened, split over fixed-size
+ * segment files that each start with a header and end in zero padding.
+ * Messages are read back from it by record position, see
+ * {@link MessageJournal}.
+ * Archive: ADD_MESSAGE records moved out of the journal, in zlib-compressed
+ * blocks instead of plain records, see {@link MessageArchive}.
+ * Chat index: a LOG_POSITION record (how much of the journal it covers),
+ * a COMPACTION record if the positions refer to compacted segments, a
+ * MERGE_CHAT record per phone number merged into another chat, then per
+ * chat one CHAT_SUMMARY record followed by POSITIONS records with the
+ * journal or archive positions of its messages.
+ * Contacts: one CONTACT record per contact.
+ *
+ * Readers reject a newer version and skip record types they do not know.
+ */
+public final class StorageFormat {
+
+    public static final int MAGIC = 0x53494D53; // "SIMS"
+    public static final int VERSION = 1;
+    public static final int HEADER_SIZE = 8;
+
+    // File kinds
+    public static final byte KIND_CONTACTS = 2;
+    public static final byte KIND_JOURNAL = 3;
+    public static final byte KIND_INDEX = 4;
+    public static final byte KIND_ARCHIVE = 5;
+
+    // Record types
+    public static final byte CONTACT = 3;          // phone, name, email, notes
+    public static final byte ADD_MESSAGE = 10;     // phone, flags, time, text
+    public static final byte DELETE_MESSAGE = 11;  // phone, u32 index
+    public static final byte DELETE_CHAT = 12;     // phone
+    public static final byte RENAME_CHAT = 13;     // phone, flags, [name]
+    public static final byte MERGE_CHAT = 14;      // phone, phone merged into
+    public static final byte LOG_POSITION = 20;    // i64 journal position
+    public static final byte CHAT_SUMMARY = 21;    // phone, flags, [name], u32 unread, u32 count, [flags, time, text]
+    public static final byte POSITIONS = 22;       // u32 n, n x i64 journal position
+    public static final byte COMPACTION = 23;      // u32 boundary segment of the journal generation
+
+    // Message flags
+    public static final int FLAG_OUTGOING = 0x01;
+    // Chat flags
+    public static final int FLAG_HAS_NAME = 0x01;
+    public static final int FLAG_HAS_LAST = 0x02;
+
+    // Text encodings
+    public static final int TEXT_UTF8 = 0;
+    public static final int TEXT_UCS2 = 1;
+
+    // Sanity limit for one record, anything larger is corruption
+    public static final int MAX_RECORD = 1024 * 1024;
+    // Positions per POSITIONS record, keeps records well under MAX_RECORD
+    public static final int POSITIONS_PER_RECORD = 65536;
+
+    private StorageFormat() {
+    }
+
+    public static long toEpochMillis(LocalDateTime timestamp) {
+        return timestamp.atZone(ZoneId.systemDefault()).toInstant().toEpochMilli();
+    }
+
+    public static LocalDateTime toLocal(long epochMillis) {
+        return LocalDateTime.ofInstant(Instant.ofEpochMilli(epochMillis), ZoneId.systemDefault());
+    }
+
+    /**
+     * UTF-8 size of text, or -1 if it has a lone surrogate that UTF-8 cannot
+     * carry. UCS2 is 2 bytes per code unit, so whichever is smaller is
+     * stored (Latin and Persian text: UTF-8, CJK: UCS2).
+     */
+    static int utf8Length(CharSequence text) {
+        int bytes = 0;
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if (c < 0x80) {
+                bytes += 1;
+            } else if (c < 0x800) {
+                bytes += 2;
+            } else if (Character.isHighSurrogate(c) && i + 1 < text.length()
+                    && Character.isLowSurrogate(text.charAt(i + 1))) {
+                bytes += 4;
+                i++;
+            } else if (Character.isSurrogate(c)) {
+                return -1;
+            } else {
+                bytes += 3;
+            }
+        }
+        return bytes;
+    }
+}
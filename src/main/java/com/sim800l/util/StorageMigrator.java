@@ -0,0 +1,110 @@
+package com.sim800l.util;
+
+import com.sim800l.model.ChatItem;
+import com.sim800l.model.Contact;
+import com.sim800l.model.MessageItem;
+
+import java.io.*;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * One-time conversion of the Java-serialized chats.dat and contacts.dat
+ * to the current {@link StorageFormat} files: chats end up as records in
+ * the segmented journal directory, contacts in contacts.bin. The old
+ * files are kept with a .migrated suffix.
+ */
+class StorageMigrator {
+
+    private static final String LEGACY_CHATS = "chats.dat";
+    private static final String LEGACY_CONTACTS = "contacts.dat";
+    private static final String JOURNAL_DIR = "journal";
+    private static final String INDEX = "chats.idx";
+
+    static void migrate(File dataDir) {
+        File chatsFile = new File(dataDir, LEGACY_CHATS);
+        if (chatsFile.exists()) {
+            Map<String, ChatItem> chats = new HashMap<>();
+            readLegacyMap(chatsFile, ChatItem.class, chats);
+            try {
+                writeJournal(chats, dataDir);
+                retire(chatsFile);
+                new File(dataDir, INDEX).delete();
+                System.err.println("Migrated chats to the " + JOURNAL_DIR + " directory");
+            } catch (IOException e) {
+                System.err.println("Error migrating chats: " + e.getMessage());
+            }
+        }
+
+        File contactsFile = new File(dataDir, LEGACY_CONTACTS);
+        if (contactsFile.exists()) {
+            Map<String, Contact> contacts = new HashMap<>();
+            readLegacyMap(contactsFile, Contact.class, contacts);
+            try {
+                DataManager.writeContacts(contacts, new File(dataDir, "contacts.bin"));
+                retire(contactsFile);
+                System.err.println("Migrated " + contacts.size() + " contacts to contacts.bin");
+            } catch (IOException e) {
+                System.err.println("Error migrating contacts: " + e.getMessage());
+            }
+        }
+    }
+
+    // New journal with every chat as a rename plus its messages
+    private static void writeJournal(Map<String, ChatItem> chats, File dataDir) throws IOException {
+        File target = new File(dataDir, JOURNAL_DIR);
+        if (target.exists()) {
+            throw new IOException(target + " already exists");
+        }
+        File temp = new File(dataDir, JOURNAL_DIR + ".tmp");
+        MessageJournal journal = new MessageJournal(temp);
+        journal.delete();
+        journal.open(MessageJournal.START, 0, (position, type, record) -> { });
+        List<byte[]> batch = new ArrayList<>();
+        for (ChatItem chat : chats.values()) {
+            add(journal, batch, journal.encodeRename(chat.getPhoneNumber(), chat.getName()));
+            for (MessageItem message : chat.getLegacyMessages()) {
+                add(journal, batch, journal.encodeMessage(chat.getPhoneNumber(), message));
+            }
+        }
+        journal.write(batch);
+        journal.close();
+        Files.move(temp.toPath(), target.toPath());
+    }
+
+    private static void add(MessageJournal journal, List<byte[]> batch, byte[] record) {
+        journal.reserve(record.length);
+        batch.add(record);
+        if (batch.size() == 1024) {
+            journal.write(batch);
+            batch.clear();
+        }
+    }
+
+    private static void retire(File file) {
+        if (file.exists() && !file.renameTo(new File(file.getPath() + ".migrated"))) {
+            System.err.println("Could not rename " + file);
+        }
+    }
+
+    // Read a serialized map with type checks; there is no size limit so no history is dropped
+    private static <T> void readLegacyMap(File file, Class<T> valueType, Map<String, T> result) {
+        try (ObjectInputStream ois = new ObjectInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+            Object obj = ois.readObject();
+            if (!(obj instanceof Map)) {
+                System.err.println("Invalid legacy file format: " + file);
+                return;
+            }
+            for (Map.Entry<?, ?> entry : ((Map<?, ?>) obj).entrySet()) {
+                if (entry.getKey() instanceof String && valueType.isInstance(entry.getValue())) {
+                    result.put((String) entry.getKey(), valueType.cast(entry.getValue()));
+                }
+            }
+        } catch (IOException | ClassNotFoundException e) {
+            System.err.println("Error reading " + file + ": " + e.getMessage());
+        }
+    }
+}
@@ -0,0 +1,141 @@
+package com.sim800l.util;
+
+/**
+ * Compares the table-driven hex codec with the String.format / regex /
+ * Integer.parseInt code it replaced. Not a unit test; run it after
+ * mvn test-compile with:
+ *
+ *   java -cp target/classes:target/test-classes com.sim800l.util.HexCodecBenchmark
+ *
+ * Prints the average time per call for each path after a warmup.
+ */
+public class HexCodecBenchmark {
+
+    private static final int WARMUP_ROUNDS = 5;
+    private static final int ROUNDS = 10;
+    private static final int CALLS_PER_ROUND = 20_000;
+
+    // Keeps results alive so the JIT cannot drop the calls
+    private static long sink;
+
+    public static void main(String[] args) {
+        // A full concatenated UCS2 part: Persian text with an emoji
+        String text = "سلام دنیا 😀 hello 123 ";
+        StringBuilder message = new StringBuilder();
+        while (message.length() < 67) {
+            message.append(text);
+        }
+        String plain = message.substring(0, 66);
+        String hex = MessageEncoder.encodeUCS2(plain);
+        byte[] octets = new byte[140];
+        for (int i = 0; i < octets.length; i++) {
+            octets[i] = (byte) (i * 37);
+        }
+
+        check(legacyEncodeUCS2(plain).equals(hex), "encodeUCS2");
+        check(legacyDecodeUCS2(hex).equals(MessageEncoder.decodeUCS2(hex).trim()), "decodeUCS2");
+        check(legacyAppendHex(octets).equals(HexCodec.toHex(octets)), "appendHex");
+
+        System.out.println("UCS2 part of " + plain.length() + " code units, user data of " + octets.length + " octets");
+        compare("encodeUCS2",
+            () -> legacyEncodeUCS2(plain).length(),
+            () -> MessageEncoder.encodeUCS2(plain).length());
+        compare("decodeUCS2",
+            () -> legacyDecodeUCS2(hex).length(),
+            () -> MessageEncoder.decodeUCS2(hex).length());
+        compare("user data hex",
+            () -> legacyAppendHex(octets).length(),
+            () -> {
+                StringBuilder out = new StringBuilder(octets.length * 2);
+                HexCodec.appendHex(out, octets);
+                return out.length();
+            });
+        System.out.println("(sink " + sink + ")");
+    }
+
+    private interface Call {
+        int run();
+    }
+
+    private static void compare(String name, Call legacy, Call table) {
+        for (int i = 0; i < WARMUP_ROUNDS; i++) {
+            time(legacy);
+            time(table);
+        }
+        double legacyNanos = 0;
+        double tableNanos = 0;
+        for (int i = 0; i < ROUNDS; i++) {
+            legacyNanos += time(legacy);
+            tableNanos += time(table);
+        }
+        legacyNanos /= ROUNDS;
+        tableNanos /= ROUNDS;
+        System.out.printf("%-14s legacy %9.0f ns/op   table %7.0f ns/op   %5.1fx%n",
+            name, legacyNanos, tableNanos, legacyNanos / tableNanos);
+    }
+
+    private static double time(Call call) {
+        long start = System.nanoTime();
+        long sum = 0;
+        for (int i = 0; i < CALLS_PER_ROUND; i++) {
+            sum += call.run();
+        }
+        sink += sum;
+        return (System.nanoTime() - start) / (double) CALLS_PER_ROUND;
+    }
+
+    private static void check(boolean same, String name) {
+        if (!same) {
+            throw new IllegalStateException(name + ": legacy and table-driven output differ");
+        }
+    }
+
+    // MessageEncoder.encodeUCS2 before the codec
+    private static String legacyEncodeUCS2(String text) {
+        StringBuilder hex = new StringBuilder();
+        for (int i = 0; i < text.length(); ) {
+            int codePoint = text.codePointAt(i);
+            if (Character.isSupplementaryCodePoint(codePoint)) {
+                hex.append(String.format("%04X%04X", (int) Character.highSurrogate(codePoint),
+                    (int) Character.lowSurrogate(codePoint)));
+                i += 2;
+            } else {
+                hex.append(String.format("%04X", codePoint));
+                i += 1;
+            }
+        }
+        return hex.toString();
+    }
+
+    // MessageEncoder.decodeUCS2 before the codec
+    private static String legacyDecodeUCS2(String hex) {
+        hex = hex.replaceAll("[^0-9A-Fa-f]", "");
+        if (hex.length() % 4 != 0) {
+            hex = hex.substring(0, hex.length() - (hex.length() % 4));
+        }
+        int maxChars = Math.min(hex.length() / 4, 1000);
+        StringBuilder result = new StringBuilder();
+        for (int i = 0; i < maxChars * 4; i += 4) {
+            int charCode = Integer.parseInt(hex.substring(i, i + 4), 16);
+            if (Character.isHighSurrogate((char) charCode) && i + 8 <= maxChars * 4) {
+                int lowSurrogate = Integer.parseInt(hex.substring(i + 4, i + 8), 16);
+                if (Character.isLowSurrogate((char) lowSurrogate)) {
+                    result.appendCodePoint(Character.toCodePoint((char) charCode, (char) lowSurrogate));
+                    i += 4;
+                    continue;
+                }
+            }
+            result.append((char) charCode);
+        }
+        return result.toString().trim();
+    }
+
+    // PDUEncoder.appendHex before the codec
+    private static String legacyAppendHex(byte[] data) {
+        StringBuilder out = new StringBuilder();
+        for (byte b : data) {
+            out.append(String.format("%02X", b & 0xFF));
+        }
+        return out.toString();
+    }
+}